@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.jboss.marshalling.Marshalling;
+
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+
+/**
+ * An in-JVM {@link NamingServer} for benchmarking the client, serving an in-memory context over in-memory channels,
+ * so measurements include the real client, server and marshalling but no network.  The server runs each request on
+ * the thread which delivers it, so every request is answered in order of arrival.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class LoopbackNamingServer {
+
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    private final MapContext localContext = new MapContext();
+    private final NamingServer server = new NamingServer(localContext, SAME_THREAD);
+    private final List<LoopbackChannel> channels = new ArrayList<LoopbackChannel>();
+
+    /**
+     * Bind a value in the local context, creating the contexts above it as needed.
+     *
+     * @param name the name
+     * @param value the value
+     * @throws NamingException if the bind failed
+     */
+    void bind(final String name, final Object value) throws NamingException {
+        final Name parsed = new CompositeName(name);
+        Context context = localContext;
+        for (int i = 0; i < parsed.size() - 1; i ++) {
+            final String component = parsed.get(i);
+            try {
+                context = (Context) context.lookup(component);
+            } catch (NameNotFoundException e) {
+                context = context.createSubcontext(component);
+            }
+        }
+        context.rebind(parsed.getSuffix(parsed.size() - 1), value);
+    }
+
+    /**
+     * Connect a new client to this server.
+     *
+     * @param pipelined {@code true} to coalesce concurrent requests
+     * @return the root context of the client
+     */
+    RemoteContext connect(final boolean pipelined) {
+        final LoopbackChannel[] pair = LoopbackChannel.createPair();
+        synchronized (channels) {
+            channels.add(pair[0]);
+        }
+        server.channelOpened(pair[1]);
+        final NamingClient client = new NamingClient(pair[0], Marshalling.getProvidedMarshallerFactory("river"), pipelined);
+        client.start();
+        return new RemoteContext(client);
+    }
+
+    void close() {
+        synchronized (channels) {
+            for (LoopbackChannel channel : channels) {
+                channel.close();
+            }
+            channels.clear();
+        }
+    }
+}
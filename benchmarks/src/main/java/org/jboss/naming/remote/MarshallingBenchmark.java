@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.jboss.marshalling.Marshaller;
+import org.jboss.marshalling.MarshallerFactory;
+import org.jboss.marshalling.Marshalling;
+import org.jboss.marshalling.MarshallingConfiguration;
+import org.jboss.marshalling.Unmarshaller;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.naming.CompositeName;
+import javax.naming.InvalidNameException;
+import javax.naming.Reference;
+import javax.naming.StringRefAddr;
+
+/**
+ * Marshalling and unmarshalling of typical naming payloads, with pooled and with freshly created instances.  Run
+ * with {@code -prof gc} to see the allocation rate.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MarshallingBenchmark {
+
+    private final MarshallerFactory factory = Marshalling.getProvidedMarshallerFactory("river");
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+    private MarshallingConfiguration configuration;
+    private MarshallingPool pool;
+    private Reference reference;
+    private CompositeName name;
+    private byte[] marshalledReference;
+
+    @Setup
+    public void setUp() throws IOException, InvalidNameException {
+        configuration = new MarshallingConfiguration();
+        configuration.setVersion(3);
+        configuration.setClassTable(NamingClassTable.getInstance());
+        pool = new MarshallingPool(factory, configuration);
+        reference = new Reference("javax.jms.ConnectionFactory", new StringRefAddr("url", "remote://localhost:4447"), "org.example.ConnectionFactoryObjectFactory", null);
+        name = new CompositeName("java:global/app/module/ConnectionFactory");
+        marshalledReference = marshalPooled(reference);
+    }
+
+    private byte[] marshalPooled(final Object object) throws IOException {
+        buffer.reset();
+        final Marshaller marshaller = pool.getMarshaller();
+        marshaller.start(Marshalling.createByteOutput(buffer));
+        marshaller.writeObject(object);
+        marshaller.finish();
+        pool.returnMarshaller(marshaller);
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] marshalReferencePooled() throws IOException {
+        return marshalPooled(reference);
+    }
+
+    @Benchmark
+    public byte[] marshalReferenceFresh() throws IOException {
+        buffer.reset();
+        final Marshaller marshaller = factory.createMarshaller(configuration);
+        marshaller.start(Marshalling.createByteOutput(buffer));
+        marshaller.writeObject(reference);
+        marshaller.finish();
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] marshalName() throws IOException {
+        return marshalPooled(name);
+    }
+
+    @Benchmark
+    public Object unmarshalReferencePooled() throws IOException, ClassNotFoundException {
+        final Unmarshaller unmarshaller = pool.getUnmarshaller();
+        unmarshaller.start(Marshalling.createByteInput(new ByteArrayInputStream(marshalledReference)));
+        final Object result = unmarshaller.readObject();
+        unmarshaller.finish();
+        pool.returnUnmarshaller(unmarshaller);
+        return result;
+    }
+
+    @Benchmark
+    public Object unmarshalReferenceFresh() throws IOException, ClassNotFoundException {
+        final Unmarshaller unmarshaller = factory.createUnmarshaller(configuration);
+        unmarshaller.start(Marshalling.createByteInput(new ByteArrayInputStream(marshalledReference)));
+        final Object result = unmarshaller.readObject();
+        unmarshaller.finish();
+        return result;
+    }
+}
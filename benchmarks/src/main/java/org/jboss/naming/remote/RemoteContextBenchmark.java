@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.naming.NameClassPair;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.naming.StringRefAddr;
+
+/**
+ * End-to-end throughput and latency of {@link RemoteContext} operations against a {@link LoopbackNamingServer}.
+ * Run with {@code -t} to vary the number of concurrent callers sharing the one channel.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RemoteContextBenchmark {
+
+    @Param({ "10" })
+    public int listSize;
+
+    @Param({ "false", "true" })
+    public boolean pipelined;
+
+    private LoopbackNamingServer server;
+    private RemoteContext context;
+    private Reference reference;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new LoopbackNamingServer();
+        reference = new Reference("javax.jms.ConnectionFactory", new StringRefAddr("url", "remote://localhost:4447"), "org.example.ConnectionFactoryObjectFactory", null);
+        server.bind("java:global/app/ConnectionFactory", reference);
+        for (int i = 0; i < listSize; i ++) {
+            server.bind("java:global/list/entry" + i, "value" + i);
+        }
+        context = server.connect(pipelined);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        context.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Object lookup() throws NamingException {
+        return context.lookup("java:global/app/ConnectionFactory");
+    }
+
+    @Benchmark
+    public void bind() throws NamingException {
+        context.rebind("java:global/app/Scratch", reference);
+    }
+
+    @Benchmark
+    public void list(final Blackhole blackhole) throws NamingException {
+        final NamingEnumeration<NameClassPair> enumeration = context.list("java:global/list");
+        try {
+            for (int i = 0; i < listSize; i ++) {
+                blackhole.consume(enumeration.next());
+            }
+        } finally {
+            enumeration.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Contention on request ID allocation and release, as done by {@code NamingClient} for every request.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestIdTableBenchmark {
+
+    private final RequestIdTable table = new RequestIdTable();
+    private final ResultHolder<Void> holder = new ResultHolder<Void>(Void.class, null);
+
+    private int allocateAndRelease() {
+        final int id = table.allocate(holder);
+        table.release(id);
+        return id;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int threads1() {
+        return allocateAndRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int threads4() {
+        return allocateAndRelease();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int threads16() {
+        return allocateAndRelease();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public int threads64() {
+        return allocateAndRelease();
+    }
+
+    @Benchmark
+    @Threads(256)
+    public int threads256() {
+        return allocateAndRelease();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Control;
+
+import javax.naming.NamingException;
+
+/**
+ * The cost of handing a result from the receiving thread to a thread waiting in {@link ResultHolder#await()}.  Each
+ * holder is attached to a client, as a sent request is, so the waiter spins for the length the client has learned
+ * before it parks.  The client never sends anything, so it needs no channel.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+@State(Scope.Group)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResultHolderBenchmark {
+
+    private static final NamingException RESULT = new NamingException("done");
+    private static final long GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    private final AtomicReference<ResultHolder<Void>> pending = new AtomicReference<ResultHolder<Void>>();
+    private final NamingClient client = new NamingClient(null, null);
+    private int requestId;
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean waiter(final Control control) {
+        if (control.stopMeasurement) {
+            return false;
+        }
+        final ResultHolder<Void> holder = new ResultHolder<Void>(Void.class, null);
+        holder.setRequest(client, requestId ++, Protocol.MSG_LOOKUP);
+        pending.set(holder);
+        return holder.await();
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public void completer(final Control control) {
+        ResultHolder<Void> holder;
+        long stopped = 0L;
+        while ((holder = pending.getAndSet(null)) == null) {
+            if (control.stopMeasurement) {
+                // the waiter may have published just before seeing the stop flag
+                if (stopped == 0L) {
+                    stopped = System.nanoTime();
+                } else if (System.nanoTime() - stopped > GRACE_NANOS) {
+                    return;
+                }
+            }
+        }
+        holder.setException(RESULT);
+    }
+}
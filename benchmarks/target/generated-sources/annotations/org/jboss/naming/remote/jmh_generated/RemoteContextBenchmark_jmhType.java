@@ -0,0 +1,4 @@
+package org.jboss.naming.remote.jmh_generated;
+public class RemoteContextBenchmark_jmhType extends RemoteContextBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.jboss.naming.remote.jmh_generated;
+public class RequestIdTableBenchmark_jmhType extends RequestIdTableBenchmark_jmhType_B3 {
+}
+
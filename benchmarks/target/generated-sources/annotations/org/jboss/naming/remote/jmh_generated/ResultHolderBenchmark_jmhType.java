@@ -0,0 +1,4 @@
+package org.jboss.naming.remote.jmh_generated;
+public class ResultHolderBenchmark_jmhType extends ResultHolderBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.Hashtable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import org.jboss.marshalling.MarshallerFactory;
+import org.jboss.marshalling.MarshallingConfiguration;
+
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.event.NamingListener;
+
+/**
+ * The part of a naming client which is independent of how requests reach the server.  A {@link RemoteContext}
+ * works against this type, so it may be backed by a single {@link NamingClient} or by a {@link NamingClientPool}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+abstract class AbstractNamingClient {
+
+    /** The number of context configurations which are kept for reuse */
+    static final int MAX_CONTEXT_CONFIGURATIONS = 8;
+    private static final ContextConfiguration[] NO_CONFIGURATIONS = new ContextConfiguration[0];
+
+    private final MarshallerFactory factory;
+    private volatile LookupCache lookupCache;
+    /** The most recently created configurations, newest first */
+    private volatile ContextConfiguration[] contextConfigurations = NO_CONFIGURATIONS;
+    /** The registry entry of a shared client, which counts its open contexts */
+    private volatile NamingClientRegistry.Entry registryEntry;
+
+    private static final AtomicReferenceFieldUpdater<AbstractNamingClient, LookupCache> lookupCacheUpdater = AtomicReferenceFieldUpdater.newUpdater(AbstractNamingClient.class, LookupCache.class, "lookupCache");
+    private static final AtomicReferenceFieldUpdater<AbstractNamingClient, ContextConfiguration[]> contextConfigurationsUpdater = AtomicReferenceFieldUpdater.newUpdater(AbstractNamingClient.class, ContextConfiguration[].class, "contextConfigurations");
+
+    AbstractNamingClient(final MarshallerFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Start a request.  On success, the returned stream is positioned after the request header and the caller
+     * writes the request body and closes it.  On failure, the failure is recorded on the result holder and
+     * {@code null} is returned.
+     *
+     * @param msg the message type
+     * @param resultHolder the holder for the reply
+     * @param <T> the result type
+     * @return the request stream, or {@code null} if the request could not be started
+     */
+    abstract <T> RequestOutputStream sendRequest(int msg, ResultHolder<T> resultHolder);
+
+    /**
+     * Get the number of requests awaiting their response.
+     *
+     * @return the number of requests
+     */
+    abstract int getOutstanding();
+
+    /**
+     * Get the number of requests which may await their response at once.
+     *
+     * @return the number of requests
+     */
+    abstract int getRequestIdLimit();
+
+    abstract NamingClientMetrics getMetrics();
+
+    /**
+     * Determine whether this client is closed, either explicitly or because it can no longer reach the server.
+     *
+     * @return {@code true} if the client is closed
+     */
+    abstract boolean isClosed();
+
+    /**
+     * Close this client.
+     */
+    abstract void close();
+
+    /**
+     * Get the lookup cache shared by all contexts of this client, creating it if needed.  The size of the cache is
+     * fixed by the first caller.
+     *
+     * @param maxSize the maximum number of entries
+     * @return the lookup cache
+     */
+    LookupCache getLookupCache(final int maxSize) {
+        LookupCache lookupCache = this.lookupCache;
+        if (lookupCache == null) {
+            lookupCache = new LookupCache(maxSize);
+            if (! lookupCacheUpdater.compareAndSet(this, null, lookupCache)) {
+                lookupCache = this.lookupCache;
+            }
+        }
+        return lookupCache;
+    }
+
+    /**
+     * Get a context configuration for the given environment.  The configurations of the last
+     * {@link #MAX_CONTEXT_CONFIGURATIONS} distinct environments are kept, so contexts created with the same settings
+     * share one configuration and its marshalling pool even when several environments are in use.
+     *
+     * @param environment the context environment
+     * @return the configuration
+     */
+    ContextConfiguration getContextConfiguration(final Hashtable<?, ?> environment) {
+        ContextConfiguration[] oldConfigurations = contextConfigurations;
+        for (ContextConfiguration configuration : oldConfigurations) {
+            if (configuration.matches(environment)) {
+                return configuration;
+            }
+        }
+        final ContextConfiguration configuration = new ContextConfiguration(this, environment);
+        ContextConfiguration[] newConfigurations;
+        do {
+            // a race just means an extra configuration
+            oldConfigurations = contextConfigurations;
+            newConfigurations = new ContextConfiguration[Math.min(oldConfigurations.length + 1, MAX_CONTEXT_CONFIGURATIONS)];
+            newConfigurations[0] = configuration;
+            System.arraycopy(oldConfigurations, 0, newConfigurations, 1, newConfigurations.length - 1);
+        } while (! contextConfigurationsUpdater.compareAndSet(this, oldConfigurations, newConfigurations));
+        return configuration;
+    }
+
+    /**
+     * Invalidate a name in the lookup cache, if any context has created it.  This handles invalidations pushed by the
+     * server as well as changes made through any context of this client.
+     *
+     * @param name the absolute name to invalidate
+     */
+    void invalidate(final String name) {
+        final LookupCache lookupCache = this.lookupCache;
+        if (lookupCache != null) {
+            lookupCache.invalidate(name);
+        }
+    }
+
+    void setRegistryEntry(final NamingClientRegistry.Entry registryEntry) {
+        this.registryEntry = registryEntry;
+    }
+
+    void contextOpened(final RemoteContext context) {
+        final NamingClientRegistry.Entry registryEntry = this.registryEntry;
+        if (registryEntry != null) {
+            registryEntry.acquire();
+        }
+    }
+
+    void contextClosing(final RemoteContext context) {
+
+    }
+
+    void contextClosed(final RemoteContext context) {
+        final NamingClientRegistry.Entry registryEntry = this.registryEntry;
+        if (registryEntry != null) {
+            registryEntry.release();
+        }
+    }
+
+    /**
+     * Register a naming listener on a channel of this client.  The caller then subscribes on the server through
+     * the {@linkplain ListenerRegistration#getClient() channel} of the registration.
+     *
+     * @param context the context the listener is added to
+     * @param target the absolute target name
+     * @param scope the {@link javax.naming.event.EventContext} scope
+     * @param listener the listener
+     * @return the registration
+     * @throws NamingException if no channel is available
+     */
+    abstract ListenerRegistration addListener(RemoteContext context, Name target, int scope, NamingListener listener) throws NamingException;
+
+    /**
+     * Get the executor which delivers naming events.  By default this is a small pool of daemon threads shared by
+     * all clients.
+     *
+     * @return the executor
+     */
+    Executor getEventExecutor() {
+        return DefaultEventExecutor.INSTANCE;
+    }
+
+    <T> ResultHolder<T> createResultHolder(final Class<T> type, final MarshallingPool pool, final long timeout) {
+        return new ResultHolder<T>(type, pool, null, timeout);
+    }
+
+    <T> ResultHolder<T> createResultHolder(final Class<T> type, final MarshallingPool pool, final long timeout, final Executor executor, final ResultHolder.Notifier<T> notifier) {
+        return new ResultHolder<T>(type, pool, notifier, executor, timeout);
+    }
+
+    MarshallingPool createMarshallingPool(final MarshallingConfiguration config) {
+        return new MarshallingPool(factory, config);
+    }
+
+    static final class DefaultEventExecutor {
+        static final Executor INSTANCE;
+
+        static {
+            final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "naming-event-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            INSTANCE = executor;
+        }
+    }
+}
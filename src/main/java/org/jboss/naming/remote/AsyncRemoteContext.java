@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import javax.naming.Binding;
+import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+/**
+ * A context whose operations may be performed asynchronously.  Each method sends its request and returns
+ * immediately; the returned future is completed when the reply arrives.  The semantics of each operation are
+ * otherwise the same as its counterpart on {@link javax.naming.Context}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public interface AsyncRemoteContext {
+
+    NamingFuture<Object> lookupAsync(Name name) throws NamingException;
+
+    NamingFuture<Object> lookupAsync(String name) throws NamingException;
+
+    NamingFuture<Void> bindAsync(Name name, Object obj) throws NamingException;
+
+    NamingFuture<Void> bindAsync(String name, Object obj) throws NamingException;
+
+    NamingFuture<Void> rebindAsync(Name name, Object obj) throws NamingException;
+
+    NamingFuture<Void> rebindAsync(String name, Object obj) throws NamingException;
+
+    NamingFuture<Void> unbindAsync(Name name) throws NamingException;
+
+    NamingFuture<Void> unbindAsync(String name) throws NamingException;
+
+    NamingFuture<NamingEnumeration<NameClassPair>> listAsync(Name name) throws NamingException;
+
+    NamingFuture<NamingEnumeration<NameClassPair>> listAsync(String name) throws NamingException;
+
+    NamingFuture<NamingEnumeration<Binding>> listBindingsAsync(Name name) throws NamingException;
+
+    NamingFuture<NamingEnumeration<Binding>> listBindingsAsync(String name) throws NamingException;
+}
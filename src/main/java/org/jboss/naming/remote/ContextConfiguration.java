@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.Hashtable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.jboss.marshalling.MarshallingConfiguration;
+
+import static org.jboss.naming.remote.RemoteContext.CALLBACK_EXECUTOR;
+import static org.jboss.naming.remote.RemoteContext.CLASS_DICTIONARY;
+import static org.jboss.naming.remote.RemoteContext.INSTRUMENTATION;
+import static org.jboss.naming.remote.RemoteContext.LIST_PAGE_SIZE;
+import static org.jboss.naming.remote.RemoteContext.LOOKUP_CACHE_MAX_SIZE;
+import static org.jboss.naming.remote.RemoteContext.LOOKUP_CACHE_NEGATIVE_TTL;
+import static org.jboss.naming.remote.RemoteContext.LOOKUP_CACHE_TTL;
+import static org.jboss.naming.remote.RemoteContext.REQUEST_TIMEOUT;
+
+/**
+ * The immutable settings of a {@link RemoteContext}, derived from its environment.  A client keeps the
+ * configuration of the last environment it saw, so all the contexts of a client with the same environment share one
+ * configuration, including its marshalling configuration and pool.  Contexts read from replies are given the
+ * environment of the configuration, so a configuration is never shared by environments which differ in any
+ * property, such as their credentials.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class ContextConfiguration {
+
+    private final AbstractNamingClient client;
+    private final Hashtable<Object, Object> environment;
+    private final MarshallingPool marshallingPool;
+    private final LookupCache lookupCache;
+    private final long lookupCacheTtl;
+    private final long lookupCacheNegativeTtl;
+    private final int listPageSize;
+    private final long requestTimeout;
+    private final NamingInstrumentation instrumentation;
+    private final Executor callbackExecutor;
+
+    ContextConfiguration(final AbstractNamingClient client, final Hashtable<?, ?> environment) {
+        this.client = client;
+        this.environment = new Hashtable<Object, Object>(environment);
+        final MarshallingConfiguration marshallingConfig = new MarshallingConfiguration();
+        marshallingConfig.setVersion(3);
+        marshallingConfig.setClassTable(NamingClassTable.forUserClasses(environment.get(CLASS_DICTIONARY)));
+        marshallingConfig.setObjectTable(new ContextObjectTable(this));
+        marshallingPool = client.createMarshallingPool(marshallingConfig);
+        listPageSize = (int) Math.max(1L, getLongProperty(environment, LIST_PAGE_SIZE, 128L));
+        requestTimeout = getTimeoutProperty(environment);
+        final Object instrumentation = environment.get(INSTRUMENTATION);
+        this.instrumentation = instrumentation instanceof NamingInstrumentation ? (NamingInstrumentation) instrumentation : null;
+        final Object callbackExecutor = environment.get(CALLBACK_EXECUTOR);
+        this.callbackExecutor = callbackExecutor instanceof Executor ? (Executor) callbackExecutor : null;
+        lookupCacheTtl = getLongProperty(environment, LOOKUP_CACHE_TTL, 0L);
+        if (lookupCacheTtl > 0L) {
+            lookupCacheNegativeTtl = getLongProperty(environment, LOOKUP_CACHE_NEGATIVE_TTL, 0L);
+            lookupCache = client.getLookupCache((int) getLongProperty(environment, LOOKUP_CACHE_MAX_SIZE, 1000L));
+        } else {
+            lookupCacheNegativeTtl = 0L;
+            lookupCache = null;
+        }
+    }
+
+    static long getLongProperty(final Hashtable<?, ?> environment, final String propName, final long defVal) {
+        final Object value = environment.get(propName);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value != null) {
+            return Long.parseLong(value.toString().trim());
+        } else {
+            return defVal;
+        }
+    }
+
+    static boolean getBooleanProperty(final Hashtable<?, ?> environment, final String propName, final boolean defVal) {
+        final Object value = environment.get(propName);
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        } else if (value != null) {
+            return Boolean.parseBoolean(value.toString().trim());
+        } else {
+            return defVal;
+        }
+    }
+
+    /**
+     * Get the request timeout given by an environment.
+     *
+     * @param environment the environment
+     * @return the timeout in nanoseconds, or 0 for none
+     */
+    static long getTimeoutProperty(final Hashtable<?, ?> environment) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0L, getLongProperty(environment, REQUEST_TIMEOUT, 0L)));
+    }
+
+    /**
+     * Determine whether this configuration was derived from an environment equal to the given one.
+     *
+     * @param environment the environment
+     * @return {@code true} if this configuration applies to the environment
+     */
+    boolean matches(final Hashtable<?, ?> environment) {
+        return this.environment.equals(environment);
+    }
+
+    AbstractNamingClient getClient() {
+        return client;
+    }
+
+    /**
+     * Get the environment this configuration was derived from.  It must not be modified.
+     *
+     * @return the environment
+     */
+    Hashtable<Object, Object> getEnvironment() {
+        return environment;
+    }
+
+    MarshallingPool getMarshallingPool() {
+        return marshallingPool;
+    }
+
+    LookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    long getLookupCacheTtl() {
+        return lookupCacheTtl;
+    }
+
+    long getLookupCacheNegativeTtl() {
+        return lookupCacheNegativeTtl;
+    }
+
+    int getListPageSize() {
+        return listPageSize;
+    }
+
+    long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    NamingInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import org.jboss.marshalling.Marshaller;
+import org.jboss.marshalling.ObjectTable;
+import org.jboss.marshalling.Unmarshaller;
+
+import javax.naming.CompositeName;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+
+/**
+ * An object table which writes a context of the same connection as a handle, and reads handles as contexts of
+ * the given configuration.  The handle format is described at {@link Protocol#OBJ_CONTEXT}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class ContextObjectTable implements ObjectTable {
+
+    private final ContextConfiguration configuration;
+
+    private static final Writer CONTEXT_WRITER = new Writer() {
+        public void writeObject(final Marshaller marshaller, final Object object) throws IOException {
+            final Name name = ((RemoteContext) object).getName();
+            final int size = name.size();
+            marshaller.writeByte(Protocol.OBJ_CONTEXT);
+            marshaller.writeInt(size);
+            for (int i = 0; i < size; i ++) {
+                marshaller.writeUTF(name.get(i));
+            }
+        }
+    };
+
+    ContextObjectTable(final ContextConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    public Writer getObjectWriter(final Object object) throws IOException {
+        // a context of another connection names something in another namespace
+        return object instanceof RemoteContext && ((RemoteContext) object).getClient() == configuration.getClient() ? CONTEXT_WRITER : null;
+    }
+
+    public Object readObject(final Unmarshaller unmarshaller) throws IOException, ClassNotFoundException {
+        final int kind = unmarshaller.readUnsignedByte();
+        if (kind != Protocol.OBJ_CONTEXT) {
+            throw new StreamCorruptedException("Unknown object table entry " + kind);
+        }
+        final int size = unmarshaller.readInt();
+        if (size < 0) {
+            throw new StreamCorruptedException("Invalid context handle");
+        }
+        final CompositeName name = new CompositeName();
+        try {
+            for (int i = 0; i < size; i ++) {
+                name.add(unmarshaller.readUTF());
+            }
+        } catch (InvalidNameException e) {
+            final StreamCorruptedException sce = new StreamCorruptedException("Invalid context handle");
+            sce.initCause(e);
+            throw sce;
+        }
+        return new RemoteContext(name, configuration.getEnvironment(), configuration);
+    }
+}
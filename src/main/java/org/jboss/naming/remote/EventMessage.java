@@ -0,0 +1,146 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import org.jboss.marshalling.Marshalling;
+import org.jboss.marshalling.Unmarshaller;
+
+import javax.naming.Binding;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.event.NamingEvent;
+
+import static org.jboss.naming.remote.Log.log;
+
+/**
+ * A {@link Protocol#MSG_EVENT} which has been received but not yet delivered.  The names are read on receipt, to
+ * find the matching registrations; the values are unmarshalled on delivery, off the channel receiver thread, with the
+ * marshalling pool of the receiving context.  The values are shared by registrations whose contexts share a pool.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class EventMessage {
+
+    private final int type;
+    private final Name name;
+    private final Name newName;
+    private final byte[] values;
+    /** The pool which the values were last unmarshalled with */
+    private MarshallingPool pool;
+    /** The new and old values, as unmarshalled with {@link #pool} */
+    private Object[] unmarshalled;
+    private NamingException problem;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param type the event type
+     * @param name the absolute name which changed
+     * @param newName the absolute new name of a renamed binding, or {@code null}
+     * @param values the marshalled new and old values
+     */
+    EventMessage(final int type, final Name name, final Name newName, final byte[] values) {
+        this.type = type;
+        this.name = name;
+        this.newName = newName;
+        this.values = values;
+    }
+
+    int getType() {
+        return type;
+    }
+
+    private synchronized Object[] unmarshall(final MarshallingPool pool) throws NamingException {
+        if (pool != this.pool) {
+            this.pool = pool;
+            unmarshalled = null;
+            problem = null;
+            try {
+                final Unmarshaller unmarshaller = pool.getUnmarshaller();
+                unmarshaller.start(Marshalling.createByteInput(new ByteArrayInputStream(values)));
+                final Object newValue = unmarshaller.readObject();
+                final Object oldValue = unmarshaller.readObject();
+                unmarshaller.finish();
+                pool.returnUnmarshaller(unmarshaller);
+                unmarshalled = new Object[] { newValue, oldValue };
+            } catch (IOException e) {
+                problem = log.unmarshallProblem(e);
+            } catch (ClassNotFoundException e) {
+                problem = log.unmarshallProblem(e);
+            }
+        }
+        if (problem != null) {
+            throw problem;
+        }
+        return unmarshalled;
+    }
+
+    /**
+     * Get this event as seen from a context.  Binding names are relative to the context when they are beneath it,
+     * and the values are unmarshalled with the marshalling pool of the context.
+     *
+     * @param source the context the listener was registered with
+     * @return the event
+     * @throws NamingException if the values could not be unmarshalled
+     */
+    NamingEvent toEvent(final RemoteContext source) throws NamingException {
+        final Object[] decoded = unmarshall(source.getMarshallingPool());
+        final Object newValue = decoded[0];
+        final Object oldValue = decoded[1];
+        final Name base = source.getName();
+        final Binding newBinding, oldBinding;
+        switch (type) {
+            case NamingEvent.OBJECT_ADDED: {
+                newBinding = createBinding(base, name, newValue);
+                oldBinding = null;
+                break;
+            }
+            case NamingEvent.OBJECT_REMOVED: {
+                newBinding = null;
+                oldBinding = createBinding(base, name, oldValue);
+                break;
+            }
+            case NamingEvent.OBJECT_RENAMED: {
+                newBinding = createBinding(base, newName, newValue);
+                oldBinding = createBinding(base, name, oldValue);
+                break;
+            }
+            default: {
+                newBinding = createBinding(base, name, newValue);
+                oldBinding = createBinding(base, name, oldValue);
+                break;
+            }
+        }
+        return new NamingEvent(source, type, newBinding, oldBinding, null);
+    }
+
+    private static Binding createBinding(final Name base, final Name name, final Object value) {
+        if (name.startsWith(base)) {
+            return new Binding(name.getSuffix(base.size()).toString(), value, true);
+        } else {
+            return new Binding(name.toString(), value, false);
+        }
+    }
+}
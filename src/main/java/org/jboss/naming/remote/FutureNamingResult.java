@@ -0,0 +1,275 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+
+import static org.jboss.naming.remote.Log.log;
+
+/**
+ * The producer side of a {@link NamingFuture}.  Like {@link ResultHolder}, it holds no monitor while waiting: waiting
+ * threads and listeners are pushed on a list with compare-and-set, and waiting threads park until the outcome
+ * replaces the list, so a virtual thread is never pinned to its carrier.
+ *
+ * @param <T> the result type
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class FutureNamingResult<T> implements NamingFuture<T> {
+
+    private static final Object WAITING = new Object();
+
+    private static final int DONE = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    /**
+     * Contains either {@code WAITING}, a {@link Node} (waiting with waiters or listeners), or the {@link Outcome}.
+     */
+    private volatile Object state = WAITING;
+    private volatile ResultHolder<?> resultHolder;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<FutureNamingResult, Object> stateUpdater = AtomicReferenceFieldUpdater.newUpdater(FutureNamingResult.class, Object.class, "state");
+
+    /**
+     * Set the result holder of the outstanding request, so that it may be cancelled.
+     *
+     * @param resultHolder the result holder
+     */
+    void setResultHolder(final ResultHolder<?> resultHolder) {
+        this.resultHolder = resultHolder;
+        final Object state = this.state;
+        if (state instanceof Outcome) {
+            // a cancel which ran before the holder was set did not see it
+            if (((Outcome) state).kind == CANCELLED) {
+                resultHolder.setCancelled();
+            } else {
+                this.resultHolder = null;
+            }
+        }
+    }
+
+    boolean setResult(final T result) {
+        return complete(new Outcome(DONE, result, null));
+    }
+
+    boolean setException(final NamingException exception) {
+        return complete(new Outcome(FAILED, null, exception));
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean complete(final Outcome outcome) {
+        Object old;
+        do {
+            old = state;
+            if (old instanceof Outcome) {
+                return false;
+            }
+        } while (! stateUpdater.compareAndSet(this, old, outcome));
+        if (outcome.kind != CANCELLED) {
+            resultHolder = null;
+        }
+        // wake the waiters, and collect the listeners in the order they were added
+        Node listeners = null;
+        for (Node node = old instanceof Node ? (Node) old : null; node != null; node = node.next) {
+            if (node.listener == null) {
+                final Thread thread = node.thread;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+            } else {
+                listeners = new Node(null, node.listener, listeners);
+            }
+        }
+        for (Node node = listeners; node != null; node = node.next) {
+            notify((Listener<? super T>) node.listener, outcome);
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void notify(final Listener<? super T> listener, final Outcome outcome) {
+        if (outcome.kind == DONE) {
+            listener.handleResult((T) outcome.result);
+        } else {
+            listener.handleFailure(outcome.exception);
+        }
+    }
+
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        if (! complete(new Outcome(CANCELLED, null, new ServiceUnavailableException("Operation was cancelled by the user")))) {
+            return false;
+        }
+        final ResultHolder<?> resultHolder = this.resultHolder;
+        if (resultHolder != null) {
+            resultHolder.setCancelled();
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        final Object state = this.state;
+        return state instanceof Outcome && ((Outcome) state).kind == CANCELLED;
+    }
+
+    public boolean isDone() {
+        return state instanceof Outcome;
+    }
+
+    /**
+     * Wait for the outcome.
+     *
+     * @param timed {@code true} to give up after {@code nanos}
+     * @param nanos the time to wait, if timed
+     * @return the outcome, or {@code null} if the time passed first
+     * @throws InterruptedException if the wait was interrupted
+     */
+    private Outcome await(final boolean timed, final long nanos) throws InterruptedException {
+        Object old = state;
+        if (old instanceof Outcome) {
+            return (Outcome) old;
+        }
+        final long deadline = timed ? System.nanoTime() + nanos : 0L;
+        final Thread myThread = Thread.currentThread();
+        final Node waiter = new Node(myThread, null, null);
+        do {
+            old = state;
+            if (old instanceof Outcome) {
+                return (Outcome) old;
+            }
+            waiter.next = old instanceof Node ? (Node) old : null;
+        } while (! stateUpdater.compareAndSet(this, old, waiter));
+        try {
+            for (;;) {
+                final Object state = this.state;
+                if (state instanceof Outcome) {
+                    return (Outcome) state;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (timed) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L) {
+                        return null;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        } finally {
+            // a node left in the list is skipped once it has no thread
+            waiter.thread = null;
+        }
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        return get(await(false, 0L));
+    }
+
+    public T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        final Outcome outcome = await(true, unit.toNanos(timeout));
+        if (outcome == null) {
+            throw new TimeoutException("Operation timed out");
+        }
+        return get(outcome);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T get(final Outcome outcome) throws ExecutionException {
+        switch (outcome.kind) {
+            case DONE: return (T) outcome.result;
+            case CANCELLED: throw new CancellationException();
+            default: throw new ExecutionException(outcome.exception);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getResult() throws NamingException {
+        final Outcome outcome;
+        try {
+            outcome = await(false, 0L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw log.interrupted();
+        }
+        if (outcome.kind == DONE) {
+            return (T) outcome.result;
+        }
+        throw outcome.exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void addListener(final Listener<? super T> listener) {
+        final Node node = new Node(null, listener, null);
+        Object old;
+        do {
+            old = state;
+            if (old instanceof Outcome) {
+                notify(listener, (Outcome) old);
+                return;
+            }
+            node.next = old instanceof Node ? (Node) old : null;
+        } while (! stateUpdater.compareAndSet(this, old, node));
+    }
+
+    /**
+     * An entry of the list of waiting threads and listeners.
+     */
+    static final class Node {
+        volatile Thread thread;
+        final Listener<?> listener;
+        Node next;
+
+        Node(final Thread thread, final Listener<?> listener, final Node next) {
+            this.thread = thread;
+            this.listener = listener;
+            this.next = next;
+        }
+    }
+
+    /**
+     * The outcome of the operation.
+     */
+    static final class Outcome {
+        final int kind;
+        final Object result;
+        final NamingException exception;
+
+        Outcome(final int kind, final Object result, final NamingException exception) {
+            this.kind = kind;
+            this.result = result;
+            this.exception = exception;
+        }
+    }
+}
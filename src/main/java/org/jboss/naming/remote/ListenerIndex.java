@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.Name;
+import javax.naming.event.EventContext;
+
+/**
+ * The listener registrations of a channel, indexed by the components of their absolute target names.  Finding the
+ * registrations for a changed name walks the path of the name once, whatever the number of registrations.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class ListenerIndex {
+
+    private static final ListenerRegistration[] NO_REGISTRATIONS = new ListenerRegistration[0];
+
+    private final NameTrie<ListenerRegistration[]> registrations = new NameTrie<ListenerRegistration[]>();
+
+    void add(final ListenerRegistration registration) {
+        final String[] path = NameTrie.components(registration.getTarget());
+        synchronized (registrations) {
+            final ListenerRegistration[] oldList = registrations.get(path);
+            final ListenerRegistration[] newList;
+            if (oldList == null) {
+                newList = new ListenerRegistration[] { registration };
+            } else {
+                newList = Arrays.copyOf(oldList, oldList.length + 1);
+                newList[oldList.length] = registration;
+            }
+            registrations.put(path, newList);
+        }
+    }
+
+    boolean remove(final ListenerRegistration registration) {
+        final String[] path = NameTrie.components(registration.getTarget());
+        synchronized (registrations) {
+            final ListenerRegistration[] oldList = registrations.get(path);
+            if (oldList == null) {
+                return false;
+            }
+            final int idx = Arrays.asList(oldList).indexOf(registration);
+            if (idx == -1) {
+                return false;
+            }
+            if (oldList.length == 1) {
+                registrations.remove(path);
+            } else {
+                final ListenerRegistration[] newList = new ListenerRegistration[oldList.length - 1];
+                System.arraycopy(oldList, 0, newList, 0, idx);
+                System.arraycopy(oldList, idx + 1, newList, idx, newList.length - idx);
+                registrations.put(path, newList);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Add the registrations whose target and scope cover a name to a list, if they are not already in it.
+     *
+     * @param name the absolute name which changed
+     * @param matches the list to add to
+     */
+    void match(final Name name, final List<ListenerRegistration> matches) {
+        final int size = name.size();
+        registrations.visitPath(NameTrie.components(name), new NameTrie.PathVisitor<ListenerRegistration[]>() {
+            public void visit(final int depth, final ListenerRegistration[] list) {
+                for (ListenerRegistration registration : list) {
+                    final int scope = registration.getScope();
+                    final boolean covers;
+                    if (depth == size) {
+                        covers = scope != EventContext.ONELEVEL_SCOPE;
+                    } else if (depth == size - 1) {
+                        covers = scope != EventContext.OBJECT_SCOPE;
+                    } else {
+                        covers = scope == EventContext.SUBTREE_SCOPE;
+                    }
+                    if (covers && ! matches.contains(registration)) {
+                        matches.add(registration);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove all registrations.
+     *
+     * @return the removed registrations
+     */
+    ListenerRegistration[] removeAll() {
+        final List<ListenerRegistration[]> lists = new ArrayList<ListenerRegistration[]>();
+        synchronized (registrations) {
+            registrations.removeSubtree(NameTrie.split(""), lists);
+        }
+        if (lists.isEmpty()) {
+            return NO_REGISTRATIONS;
+        }
+        final List<ListenerRegistration> removed = new ArrayList<ListenerRegistration>();
+        for (ListenerRegistration[] list : lists) {
+            removed.addAll(Arrays.asList(list));
+        }
+        return removed.toArray(new ListenerRegistration[removed.size()]);
+    }
+}
@@ -22,28 +22,189 @@
 
 package org.jboss.naming.remote;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingExceptionEvent;
 import javax.naming.event.NamingListener;
+import javax.naming.event.ObjectChangeListener;
+
+import static org.jboss.naming.remote.Log.log;
 
 /**
+ * A naming listener registered on one channel.  Events are queued per registration and delivered in order by a
+ * task on the event executor, so the channel receiver never runs listener code.  The queue is bounded; events
+ * which arrive while it is full are dropped, and the listener is told so by a {@link NamingExceptionEvent}.
+ *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
-final class ListenerRegistration {
+final class ListenerRegistration implements Runnable {
+
+    private static final int MAX_QUEUED = 256;
+    /** Events delivered by one task before it yields the executor thread */
+    private static final int BATCH_SIZE = 32;
+
     private final NamingListener listener;
     private final int scope;
-    private final String[] name;
+    private final Name target;
     private final RemoteContext context;
+    private final NamingClient client;
+    private final int id;
+    private final Executor executor;
+    /** Either {@link EventMessage}s or {@link NamingExceptionEvent}s */
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<Object>();
+
+    /** The number of queued events; the delivery task is running while it is nonzero */
+    @SuppressWarnings("unused")
+    private volatile int queued;
+    @SuppressWarnings("unused")
+    private volatile int state;
+
+    private static final AtomicIntegerFieldUpdater<ListenerRegistration> queuedUpdater = AtomicIntegerFieldUpdater.newUpdater(ListenerRegistration.class, "queued");
+    private static final AtomicIntegerFieldUpdater<ListenerRegistration> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(ListenerRegistration.class, "state");
 
-    ListenerRegistration(final NamingListener listener, final int scope, final String[] name, final RemoteContext context) {
+    private static final int CANCELLED = 1 << 0;
+    /** Events were dropped and the listener has not been told yet */
+    private static final int LOST = 1 << 1;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param listener the listener
+     * @param scope the {@link javax.naming.event.EventContext} scope
+     * @param target the absolute target name
+     * @param context the context the listener was added to
+     * @param client the channel the subscription is on
+     * @param id the subscription ID
+     * @param executor the executor to deliver events with
+     */
+    ListenerRegistration(final NamingListener listener, final int scope, final Name target, final RemoteContext context, final NamingClient client, final int id, final Executor executor) {
         this.listener = listener;
         this.scope = scope;
-        this.name = name;
+        this.target = target;
         this.context = context;
+        this.client = client;
+        this.id = id;
+        this.executor = executor;
     }
 
+    /**
+     * Cancel this registration and end its subscription.
+     */
     void cancel() {
+        int oldState;
+        do {
+            oldState = state;
+            if ((oldState & CANCELLED) != 0) {
+                return;
+            }
+        } while (! stateUpdater.compareAndSet(this, oldState, oldState | CANCELLED));
+        if (client.removeListener(this)) {
+            context.unsubscribe(this);
+        }
     }
 
     NamingListener getListener() {
         return listener;
     }
+
+    int getScope() {
+        return scope;
+    }
+
+    Name getTarget() {
+        return target;
+    }
+
+    RemoteContext getContext() {
+        return context;
+    }
+
+    NamingClient getClient() {
+        return client;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Queue an event for delivery, if the listener handles its type.
+     *
+     * @param event the event
+     */
+    void deliver(final EventMessage event) {
+        if (event.getType() == NamingEvent.OBJECT_CHANGED ? listener instanceof ObjectChangeListener : listener instanceof NamespaceChangeListener) {
+            if (queued >= MAX_QUEUED) {
+                int oldState;
+                do {
+                    oldState = state;
+                    if ((oldState & LOST) != 0) {
+                        return;
+                    }
+                } while (! stateUpdater.compareAndSet(this, oldState, oldState | LOST));
+                // the one event past the limit reports the loss
+                enqueue(new NamingExceptionEvent(context, log.eventsLost()));
+            } else {
+                enqueue(event);
+            }
+        }
+    }
+
+    /**
+     * Queue a failure for delivery.
+     *
+     * @param exception the failure
+     */
+    void deliver(final NamingException exception) {
+        enqueue(new NamingExceptionEvent(context, exception));
+    }
+
+    private void enqueue(final Object event) {
+        queue.add(event);
+        if (queuedUpdater.getAndIncrement(this) == 0) {
+            executor.execute(this);
+        }
+    }
+
+    public void run() {
+        for (int i = 0; i < BATCH_SIZE; i ++) {
+            final Object item = queue.poll();
+            if ((state & CANCELLED) == 0) try {
+                if (item instanceof EventMessage) {
+                    NamingEvent event = null;
+                    try {
+                        event = ((EventMessage) item).toEvent(context);
+                    } catch (NamingException e) {
+                        new NamingExceptionEvent(context, e).dispatch(listener);
+                    }
+                    if (event != null) {
+                        event.dispatch(listener);
+                    }
+                } else {
+                    clearLost();
+                    ((NamingExceptionEvent) item).dispatch(listener);
+                }
+            } catch (Throwable t) {
+                log.listenerFailed(listener, t);
+            }
+            if (queuedUpdater.decrementAndGet(this) == 0) {
+                return;
+            }
+        }
+        // let other listeners have a turn
+        executor.execute(this);
+    }
+
+    private void clearLost() {
+        int oldState;
+        do {
+            oldState = state;
+        } while (! stateUpdater.compareAndSet(this, oldState, oldState & ~LOST));
+    }
 }
@@ -33,7 +33,13 @@ import org.jboss.remoting3.Channel;
 import javax.naming.CommunicationException;
 import javax.naming.InterruptedNamingException;
 import javax.naming.InvalidNameException;
+import javax.naming.LimitExceededException;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.TimeLimitExceededException;
+import javax.naming.event.NamingListener;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -56,23 +62,82 @@ interface Log {
     @Message(id = 103, value = "Naming operation was interrupted locally")
     InterruptedNamingException interrupted();
 
+    @Message(id = 104, value = "Name not found")
+    NameNotFoundException errNameNotFound(@Cause Throwable cause);
+
+    @Message(id = 105, value = "Channel to the naming server was lost")
+    CommunicationException channelFailed(@Cause Throwable cause);
+
+    @Message(id = 106, value = "Request was abandoned by the server before it completed")
+    TimeLimitExceededException errCancelled(@Cause Throwable cause);
+
+    @Message(id = 107, value = "Naming events were dropped because the listener did not keep up")
+    NamingException eventsLost();
+
+    @Message(id = 108, value = "Failed to connect to the naming server at %s")
+    CommunicationException connectFailed(String location, @Cause Throwable cause);
+
+    @Message(id = 109, value = "Naming server rejected the request")
+    ServiceUnavailableException serverBusy(@Cause Throwable cause);
+
+    @Message(id = 110, value = "No listing is open with cursor %d")
+    NamingException unknownCursor(int cursor);
+
+    @Message(id = 111, value = "Naming server does not support message type %d")
+    OperationNotSupportedException unsupportedMessage(int msg);
+
+    @Message(id = 112, value = "Too many listings are open on this channel (at most %d)")
+    LimitExceededException tooManyCursors(int max);
+
     // Connection events
 
     @LogMessage(level = Logger.Level.ERROR)
     @Message(id = 200, value = "Received an error on channel %s (closing channel)")
     void channelError(Channel channel, @Cause IOException error);
 
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 201, value = "Failed to replace a failed channel to the naming server")
+    void channelReplaceFailed(@Cause IOException error);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 202, value = "Naming listener %s failed to handle an event")
+    void listenerFailed(NamingListener listener, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 203, value = "Failed to send a reply on channel %s")
+    void replyFailed(Channel channel, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 204, value = "Failed to send a notification on channel %s")
+    void notificationFailed(Channel channel, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 205, value = "Naming events for channel %s are no longer delivered by the local context")
+    void subscriptionFailed(Channel channel, @Cause Throwable cause);
+
     // Local state
 
     @Message(id = 300, value = "Context is closed")
     NamingException closedContext();
 
+    @Message(id = 301, value = "Name \"%s\" not found (cached)")
+    NameNotFoundException cachedNameNotFound(String name);
+
+    @Message(id = 302, value = "Naming operation timed out after %d ms")
+    TimeLimitExceededException timedOut(long millis);
+
 
     // Validation
 
     @Message(id = 400, value = "Name \"%s\" has an invalid empty segment at offset %d")
     InvalidNameException invalidSegment(String name, int idx);
 
+    @Message(id = 401, value = "Invalid naming URL \"%s\"")
+    InvalidNameException invalidUrl(String url, @Cause Throwable cause);
+
+    @Message(id = 402, value = "Invalid event scope %d")
+    NamingException invalidScope(int scope);
+
     // Marshalling
 
     @Message(id = 500, value = "Failed to unmarshall a value")
@@ -81,12 +146,12 @@ interface Log {
     // debug and trace messages
 
     @LogMessage(level = Logger.Level.TRACE)
-    @Message(/* loggerClass = RemoteContext.class, */value = "Entering method %s on %s")
-    void entered(Object entered, RemoteContext context);
+    @Message(/* loggerClass = RemoteContext.class, */value = "Entering operation %s on %s")
+    void entered(NamingOperation operation, RemoteContext context);
 
     @LogMessage(level = Logger.Level.TRACE)
-    @Message(/* loggerClass = RemoteContext.class, */value = "Exiting method %s on %s")
-    void exited(Object exited, RemoteContext context);
+    @Message(/* loggerClass = RemoteContext.class, */value = "Exiting operation %s on %s")
+    void exited(NamingOperation operation, RemoteContext context);
 
     @LogMessage(level = Logger.Level.DEBUG)
     @Message(value = "Finished stream processing on channel %s")
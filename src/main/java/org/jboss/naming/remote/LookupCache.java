@@ -0,0 +1,228 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A size-bounded cache of lookup results, keyed by absolute name.  Each entry carries its own expiry time.  Reads
+ * take no lock; when the cache is full, a new entry takes the place of an old one chosen by a clock hand, as in
+ * {@link NameCache}, which gives every entry read since the hand last passed it a second chance.  Invalidating a name also invalidates every name beneath it; the cached names are indexed in a
+ * {@link NameTrie}, so this costs time in proportion to the number of names invalidated rather than the size of
+ * the cache.  Different strings may split into the same components, such as {@code "a/b"} and {@code "a//b"}, so
+ * each node of the index holds every key which splits into its name.
+ * <p>
+ * Results which were in flight while an invalidation happened are not cached, since they may predate it; callers
+ * take a {@linkplain #getStamp() stamp} before sending the request and pass it back when storing the result.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class LookupCache {
+
+    private final int maxSize;
+    // read freely; modified only under this
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    // protected by this; the values are the keys of entries
+    private final NameTrie<String[]> index = new NameTrie<String[]>();
+    // protected by this
+    private Iterator<Map.Entry<String, Entry>> hand;
+
+    @SuppressWarnings("unused")
+    private volatile long invalidations;
+
+    private static final AtomicLongFieldUpdater<LookupCache> invalidationsUpdater = AtomicLongFieldUpdater.newUpdater(LookupCache.class, "invalidations");
+
+    LookupCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    long getStamp() {
+        return invalidations;
+    }
+
+    /**
+     * Get a live cache entry.
+     *
+     * @param name the absolute name
+     * @return the entry, or {@code null} if there is none or it has expired
+     */
+    Entry get(final String name) {
+        final Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires - System.nanoTime() <= 0L) {
+            synchronized (this) {
+                // the entry may have been replaced meanwhile
+                if (entries.remove(name, entry)) {
+                    unindex(name);
+                }
+            }
+            return null;
+        }
+        entry.used = true;
+        return entry;
+    }
+
+    void put(final String name, final Object value, final long ttlMillis, final long stamp) {
+        put(name, new Entry(value, false, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis)), stamp);
+    }
+
+    void putNotFound(final String name, final long ttlMillis, final long stamp) {
+        put(name, new Entry(null, true, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis)), stamp);
+    }
+
+    private void put(final String name, final Entry entry, final long stamp) {
+        synchronized (this) {
+            // checked under the lock, since invalidate() bumps the stamp under the lock too
+            if (stamp != invalidations) {
+                return;
+            }
+            if (entries.size() >= maxSize && ! entries.containsKey(name)) {
+                evictOne();
+            }
+            if (entries.put(name, entry) == null) {
+                index(name);
+            }
+        }
+    }
+
+    /**
+     * Advance the clock hand until it evicts an entry.  Entries which were read since the hand last passed are
+     * unmarked and skipped; since reads may mark entries again behind the hand, the entry under the hand is evicted
+     * regardless after two turns.
+     */
+    // call under lock
+    private void evictOne() {
+        Iterator<Map.Entry<String, Entry>> hand = this.hand;
+        for (int steps = 2 * entries.size() + 1; ; steps --) {
+            if (hand == null || ! hand.hasNext()) {
+                hand = entries.entrySet().iterator();
+                if (! hand.hasNext()) {
+                    break;
+                }
+            }
+            final Map.Entry<String, Entry> mapEntry = hand.next();
+            final Entry entry = mapEntry.getValue();
+            if (entry.used && steps > 0) {
+                entry.used = false;
+            } else {
+                // the iterator may be stale, so only remove the entry it saw
+                final String key = mapEntry.getKey();
+                if (entries.remove(key, entry)) {
+                    unindex(key);
+                    break;
+                }
+            }
+        }
+        this.hand = hand;
+    }
+
+    // call under lock
+    private void index(final String name) {
+        final String[] path = NameTrie.split(name);
+        final String[] keys = index.get(path);
+        if (keys == null) {
+            index.put(path, new String[] { name });
+        } else {
+            final String[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+            newKeys[keys.length] = name;
+            index.put(path, newKeys);
+        }
+    }
+
+    // call under lock
+    private void unindex(final String name) {
+        final String[] path = NameTrie.split(name);
+        final String[] keys = index.get(path);
+        if (keys == null) {
+            return;
+        }
+        for (int i = 0; i < keys.length; i ++) {
+            if (keys[i].equals(name)) {
+                if (keys.length == 1) {
+                    index.remove(path);
+                } else {
+                    final String[] newKeys = new String[keys.length - 1];
+                    System.arraycopy(keys, 0, newKeys, 0, i);
+                    System.arraycopy(keys, i + 1, newKeys, i, newKeys.length - i);
+                    index.put(path, newKeys);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Invalidate a name and all the names beneath it.  The empty name invalidates everything.
+     *
+     * @param name the absolute name
+     */
+    void invalidate(final String name) {
+        synchronized (this) {
+            invalidationsUpdater.incrementAndGet(this);
+            if (name.length() == 0) {
+                entries.clear();
+                index.removeSubtree(NameTrie.split(name), null);
+                return;
+            }
+            final List<String[]> keyLists = new ArrayList<String[]>();
+            index.removeSubtree(NameTrie.split(name), keyLists);
+            for (String[] keys : keyLists) {
+                for (String key : keys) {
+                    entries.remove(key);
+                }
+            }
+        }
+    }
+
+    static final class Entry {
+        private final Object value;
+        private final boolean notFound;
+        private final long expires;
+        /** Whether the entry was read since the clock hand last passed it; racy updates are harmless */
+        volatile boolean used;
+
+        Entry(final Object value, final boolean notFound, final long expires) {
+            this.value = value;
+            this.notFound = notFound;
+            this.expires = expires;
+        }
+
+        Object getValue() {
+            return value;
+        }
+
+        boolean isNotFound() {
+            return notFound;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jboss.marshalling.Marshaller;
+import org.jboss.marshalling.MarshallerFactory;
+import org.jboss.marshalling.MarshallingConfiguration;
+import org.jboss.marshalling.Unmarshaller;
+
+/**
+ * A pool of idle marshallers and unmarshallers for one marshalling configuration.  Instances are reset when they
+ * are returned, so that no class or instance cache state leaks from one message into the next.  The pool is a
+ * fixed array of slots; a caller which finds no idle instance creates a new one, and an instance returned to a
+ * full pool is simply dropped.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class MarshallingPool {
+
+    private static final int SLOTS;
+
+    static {
+        int slots = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() << 1);
+        SLOTS = Math.max(4, Math.min(64, slots));
+    }
+
+    private final MarshallerFactory factory;
+    private final MarshallingConfiguration configuration;
+    private final AtomicReferenceArray<Marshaller> marshallers = new AtomicReferenceArray<Marshaller>(SLOTS);
+    private final AtomicReferenceArray<Unmarshaller> unmarshallers = new AtomicReferenceArray<Unmarshaller>(SLOTS);
+
+    MarshallingPool(final MarshallerFactory factory, final MarshallingConfiguration configuration) {
+        this.factory = factory;
+        this.configuration = configuration;
+    }
+
+    private static int start() {
+        return (int) Thread.currentThread().getId() & (SLOTS - 1);
+    }
+
+    private static <T> T take(final AtomicReferenceArray<T> slots) {
+        final int start = start();
+        for (int i = 0; i < SLOTS; i ++) {
+            final int idx = (start + i) & (SLOTS - 1);
+            if (slots.get(idx) != null) {
+                final T item = slots.getAndSet(idx, null);
+                if (item != null) {
+                    return item;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static <T> void put(final AtomicReferenceArray<T> slots, final T item) {
+        final int start = start();
+        for (int i = 0; i < SLOTS; i ++) {
+            if (slots.compareAndSet((start + i) & (SLOTS - 1), null, item)) {
+                return;
+            }
+        }
+    }
+
+    MarshallingConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Get a marshaller.  The caller should {@linkplain #returnMarshaller(Marshaller) return} it after a successful
+     * {@link Marshaller#finish()}; a marshaller whose use failed should just be discarded.
+     *
+     * @return the marshaller
+     * @throws IOException if a new marshaller could not be created
+     */
+    Marshaller getMarshaller() throws IOException {
+        final Marshaller marshaller = take(marshallers);
+        return marshaller == null ? factory.createMarshaller(configuration) : marshaller;
+    }
+
+    void returnMarshaller(final Marshaller marshaller) {
+        try {
+            marshaller.clearClassCache();
+        } catch (IOException e) {
+            return;
+        }
+        put(marshallers, marshaller);
+    }
+
+    /**
+     * Get an unmarshaller.  The caller should {@linkplain #returnUnmarshaller(Unmarshaller) return} it after a
+     * successful {@link Unmarshaller#finish()}; an unmarshaller whose use failed should just be discarded.
+     *
+     * @return the unmarshaller
+     * @throws IOException if a new unmarshaller could not be created
+     */
+    Unmarshaller getUnmarshaller() throws IOException {
+        final Unmarshaller unmarshaller = take(unmarshallers);
+        return unmarshaller == null ? factory.createUnmarshaller(configuration) : unmarshaller;
+    }
+
+    void returnUnmarshaller(final Unmarshaller unmarshaller) {
+        try {
+            unmarshaller.clearClassCache();
+        } catch (IOException e) {
+            return;
+        }
+        put(unmarshallers, unmarshaller);
+    }
+}
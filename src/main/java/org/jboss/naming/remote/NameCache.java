@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import javax.naming.CompositeName;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+
+/**
+ * A bounded cache of string names, parsed as composite names and encoded in the protocol name encoding.  A string
+ * name which is used again is neither parsed nor encoded again, and it is sent as a
+ * {@link Protocol#NAME_COMPOSITE}, so that the server need not parse it either.
+ * <p>
+ * When the cache is full, a new name takes the place of an old one, chosen by a clock hand which gives every entry
+ * used since the hand last passed it a second chance.  Each step of the hand either evicts an entry or clears a mark
+ * which only a hit can set again, so a miss costs constant time on average.  One thread moves the hand at a time;
+ * names which arrive meanwhile are parsed but not cached.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class NameCache {
+
+    private static final NameCache INSTANCE = new NameCache(Integer.getInteger("org.jboss.naming.remote.name-cache.size", 1024).intValue());
+
+    private final int maxSize;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    @SuppressWarnings("unused")
+    private volatile int sweeping;
+    /** The clock hand; only used by the thread which set {@link #sweeping} */
+    private Iterator<Entry> hand;
+
+    private static final AtomicIntegerFieldUpdater<NameCache> sweepingUpdater = AtomicIntegerFieldUpdater.newUpdater(NameCache.class, "sweeping");
+
+    NameCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    static NameCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the parsed and encoded form of a string name.
+     *
+     * @param name the string name
+     * @return the entry, or {@code null} if the string is not a valid composite name
+     */
+    Entry get(final String name) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            entry.used = true;
+            return entry;
+        }
+        try {
+            entry = new Entry(name);
+        } catch (InvalidNameException e) {
+            return null;
+        }
+        if (entries.size() >= maxSize && ! evictOne()) {
+            return entry;
+        }
+        final Entry existing = entries.putIfAbsent(name, entry);
+        return existing == null ? entry : existing;
+    }
+
+    /**
+     * Advance the clock hand until it evicts an entry.  Entries which were used since the hand last passed are
+     * unmarked and skipped.  Concurrent hits may mark entries again behind the hand, so the hand gives up after two
+     * turns.
+     *
+     * @return {@code true} if an entry was evicted, {@code false} if another thread holds the hand or the cache is
+     *      empty
+     */
+    private boolean evictOne() {
+        if (! sweepingUpdater.compareAndSet(this, 0, 1)) {
+            return false;
+        }
+        try {
+            Iterator<Entry> hand = this.hand;
+            for (int steps = 2 * entries.size() + 1; steps > 0; steps --) {
+                if (hand == null || ! hand.hasNext()) {
+                    hand = entries.values().iterator();
+                    if (! hand.hasNext()) {
+                        break;
+                    }
+                }
+                final Entry entry = hand.next();
+                if (entry.used) {
+                    entry.used = false;
+                } else {
+                    hand.remove();
+                    this.hand = hand;
+                    return true;
+                }
+            }
+            this.hand = hand;
+            return false;
+        } finally {
+            sweeping = 0;
+        }
+    }
+
+    /**
+     * A string name in parsed and encoded form.  Entries are shared, so nothing they return may be modified.
+     */
+    static final class Entry {
+        private final Name name;
+        private final byte[] encoded;
+        /** Whether the entry was used since the clock hand last passed it; racy updates are harmless */
+        volatile boolean used;
+
+        Entry(final String string) throws InvalidNameException {
+            name = new CompositeName(string);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                NameEncoding.writeName(out, name, null);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            encoded = out.toByteArray();
+        }
+
+        /**
+         * Get the parsed name.
+         *
+         * @return the name, which must not be modified
+         */
+        Name getName() {
+            return name;
+        }
+
+        /**
+         * Write the name as the first name of a message.
+         *
+         * @param out the stream to write to
+         * @throws IOException if the write fails
+         */
+        void writeTo(final OutputStream out) throws IOException {
+            out.write(encoded);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+import org.jboss.marshalling.Marshaller;
+import org.jboss.marshalling.Marshalling;
+import org.jboss.marshalling.Unmarshaller;
+
+import javax.naming.CompositeName;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+
+/**
+ * Reading and writing of names in the protocol name encoding, which is described at {@link Protocol#NAME_STRING}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class NameEncoding {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Limit on component counts and lengths, against corrupt input.
+     */
+    private static final int MAX_VALUE = 1 << 20;
+
+    /**
+     * The size of the scratch array which {@link #writeName(OutputStream, Object, Object, byte[], MarshallingPool)}
+     * needs.
+     */
+    static final int SCRATCH_SIZE = 11;
+
+    private NameEncoding() {
+    }
+
+    /**
+     * Write a string or composite name.
+     *
+     * @param out the stream to write to
+     * @param name the name, either a {@link CompositeName} or a string
+     * @param previous the name written before this one in the same message, or {@code null} if this is the first
+     * @throws IOException if a write fails
+     */
+    static void writeName(final OutputStream out, final Object name, final Object previous) throws IOException {
+        writeName(out, name, previous, new byte[SCRATCH_SIZE], null);
+    }
+
+    /**
+     * Write a name, using a caller's scratch array to pack the headers.  A {@link CompositeName} is written by its
+     * components; any other kind of {@link Name} has its own syntax and type, so it is marshalled whole.
+     *
+     * @param out the stream to write to
+     * @param name the name, either a {@link Name} or a string
+     * @param previous the name written before this one in the same message, or {@code null} if this is the first
+     * @param scratch the scratch array, of at least {@link #SCRATCH_SIZE} bytes
+     * @param pool the pool to marshal other kinds of name with, or {@code null} if the name is a string or a
+     *      composite name
+     * @throws IOException if a write fails
+     */
+    static void writeName(final OutputStream out, final Object name, final Object previous, final byte[] scratch, final MarshallingPool pool) throws IOException {
+        if (name instanceof CompositeName) {
+            final Name compositeName = (Name) name;
+            final int size = compositeName.size();
+            int shared = 0;
+            if (previous instanceof CompositeName) {
+                final Name previousName = (Name) previous;
+                final int max = Math.min(size, previousName.size());
+                while (shared < max && compositeName.get(shared).equals(previousName.get(shared))) {
+                    shared ++;
+                }
+            }
+            // the kind, prefix and count go out in one write
+            scratch[0] = Protocol.NAME_COMPOSITE;
+            out.write(scratch, 0, putInt(scratch, putInt(scratch, 1, shared), size - shared));
+            for (int i = shared; i < size; i ++) {
+                writeString(out, compositeName.get(i), scratch);
+            }
+        } else if (name instanceof Name) {
+            if (pool == null) {
+                throw new IllegalArgumentException("No marshalling pool to write " + name.getClass().getName());
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final Marshaller marshaller = pool.getMarshaller();
+            marshaller.start(Marshalling.createByteOutput(bytes));
+            marshaller.writeObject(name);
+            marshaller.finish();
+            pool.returnMarshaller(marshaller);
+            scratch[0] = Protocol.NAME_MARSHALLED;
+            out.write(scratch, 0, putInt(scratch, 1, bytes.size()));
+            bytes.writeTo(out);
+        } else {
+            final String string = name.toString();
+            int shared = 0;
+            if (previous instanceof String) {
+                final String previousString = (String) previous;
+                final int max = Math.min(string.length(), previousString.length());
+                while (shared < max && string.charAt(shared) == previousString.charAt(shared)) {
+                    shared ++;
+                }
+                // never split a surrogate pair
+                if (shared > 0 && Character.isHighSurrogate(string.charAt(shared - 1))) {
+                    shared --;
+                }
+            }
+            scratch[0] = Protocol.NAME_STRING;
+            out.write(scratch, 0, putInt(scratch, 1, shared));
+            writeString(out, shared == 0 ? string : string.substring(shared), scratch);
+        }
+    }
+
+    /**
+     * Read a string or composite name.
+     *
+     * @param in the stream to read from
+     * @param previous the name read before this one in the same message, or {@code null} if this is the first
+     * @return the name, either a {@link CompositeName} or a string
+     * @throws IOException if a read fails or the encoding is invalid
+     */
+    static Object readName(final InputStream in, final Object previous) throws IOException {
+        return readName(in, previous, null);
+    }
+
+    /**
+     * Read a name.
+     *
+     * @param in the stream to read from
+     * @param previous the name read before this one in the same message, or {@code null} if this is the first
+     * @param pool the pool to unmarshal other kinds of name with, or {@code null} to accept only strings and
+     *      composite names
+     * @return the name, either a {@link Name} or a string
+     * @throws IOException if a read fails or the encoding is invalid
+     */
+    static Object readName(final InputStream in, final Object previous, final MarshallingPool pool) throws IOException {
+        final int kind = readByte(in);
+        switch (kind) {
+            case Protocol.NAME_STRING: {
+                final int shared = readInt(in);
+                final String suffix = readString(in);
+                if (shared == 0) {
+                    return suffix;
+                }
+                if (! (previous instanceof String) || shared > ((String) previous).length()) {
+                    throw new StreamCorruptedException("Invalid shared name prefix");
+                }
+                return ((String) previous).substring(0, shared) + suffix;
+            }
+            case Protocol.NAME_COMPOSITE: {
+                final int shared = readInt(in);
+                final int count = readInt(in);
+                final CompositeName name = new CompositeName();
+                try {
+                    if (shared > 0) {
+                        if (! (previous instanceof CompositeName) || shared > ((Name) previous).size()) {
+                            throw new StreamCorruptedException("Invalid shared name prefix");
+                        }
+                        name.addAll(((Name) previous).getPrefix(shared));
+                    }
+                    for (int i = 0; i < count; i ++) {
+                        name.add(readString(in));
+                    }
+                } catch (InvalidNameException e) {
+                    final StreamCorruptedException sce = new StreamCorruptedException("Invalid name");
+                    sce.initCause(e);
+                    throw sce;
+                }
+                return name;
+            }
+            case Protocol.NAME_MARSHALLED: {
+                if (pool == null) {
+                    throw new StreamCorruptedException("Unexpected marshalled name");
+                }
+                final byte[] bytes = readBytes(in);
+                final Unmarshaller unmarshaller = pool.getUnmarshaller();
+                unmarshaller.start(Marshalling.createByteInput(new ByteArrayInputStream(bytes)));
+                final Name name;
+                try {
+                    name = unmarshaller.readObject(Name.class);
+                } catch (ClassNotFoundException e) {
+                    final StreamCorruptedException sce = new StreamCorruptedException("Invalid name");
+                    sce.initCause(e);
+                    throw sce;
+                }
+                unmarshaller.finish();
+                pool.returnUnmarshaller(unmarshaller);
+                return name;
+            }
+            default: {
+                throw new StreamCorruptedException("Unknown name encoding " + kind);
+            }
+        }
+    }
+
+    private static void writeString(final OutputStream out, final String string, final byte[] scratch) throws IOException {
+        final byte[] bytes = string.getBytes(UTF_8);
+        out.write(scratch, 0, putInt(scratch, 0, bytes.length));
+        out.write(bytes);
+    }
+
+    private static String readString(final InputStream in) throws IOException {
+        return new String(readBytes(in), UTF_8);
+    }
+
+    private static byte[] readBytes(final InputStream in) throws IOException {
+        final byte[] bytes = new byte[readInt(in)];
+        int off = 0;
+        while (off < bytes.length) {
+            final int n = in.read(bytes, off, bytes.length - off);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            off += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * Pack an integer into a buffer, which needs room for five bytes.
+     *
+     * @param buf the buffer
+     * @param pos the position to write at
+     * @param value the value
+     * @return the position after the value
+     */
+    private static int putInt(final byte[] buf, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[pos ++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        buf[pos ++] = (byte) value;
+        return pos;
+    }
+
+    private static int readInt(final InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 28; shift += 7) {
+            final int b = readByte(in);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value > MAX_VALUE) {
+                    throw new StreamCorruptedException("Name length or component count " + value + " is too large");
+                }
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Invalid packed integer");
+    }
+
+    private static int readByte(final InputStream in) throws IOException {
+        final int b = in.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+}
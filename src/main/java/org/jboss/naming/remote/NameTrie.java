@@ -0,0 +1,262 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.CompositeName;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+
+/**
+ * A prefix tree of names, with one node per name component.  Every operation costs time in proportion to the
+ * depth of the name, plus, for the subtree operations, the size of the subtree; none depends on how many other
+ * names are held.  Readers do not lock; writers are serialized on the tree.
+ *
+ * @param <V> the value type
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class NameTrie<V> {
+
+    private static final String[] NO_COMPONENTS = new String[0];
+
+    private final Node<V> root = new Node<V>(null, null);
+
+    /**
+     * Split a string name into its components, with composite name syntax, so that escaped or quoted separators
+     * stay within their component.  Empty components are dropped.  A string which is not a valid composite name is
+     * split at every separator.
+     *
+     * @param name the name
+     * @return the components
+     */
+    static String[] split(final String name) {
+        final int length = name.length();
+        if (length == 0) {
+            return NO_COMPONENTS;
+        }
+        final List<String> components = new ArrayList<String>();
+        try {
+            final Enumeration<String> e = new CompositeName(name).getAll();
+            while (e.hasMoreElements()) {
+                final String component = e.nextElement();
+                if (component.length() > 0) {
+                    components.add(component);
+                }
+            }
+        } catch (InvalidNameException e) {
+            int start = 0;
+            for (int i = 0; i <= length; i ++) {
+                if (i == length || name.charAt(i) == '/') {
+                    if (i > start) {
+                        components.add(name.substring(start, i));
+                    }
+                    start = i + 1;
+                }
+            }
+        }
+        return components.toArray(new String[components.size()]);
+    }
+
+    static String[] components(final Name name) {
+        final int size = name.size();
+        if (size == 0) {
+            return NO_COMPONENTS;
+        }
+        final String[] components = new String[size];
+        for (int i = 0; i < size; i ++) {
+            components[i] = name.get(i);
+        }
+        return components;
+    }
+
+    private Node<V> find(final String[] path) {
+        Node<V> node = root;
+        for (String component : path) {
+            final ConcurrentMap<String, Node<V>> children = node.children;
+            if (children == null || (node = children.get(component)) == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    V get(final String[] path) {
+        final Node<V> node = find(path);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Set the value of a name.
+     *
+     * @param path the name
+     * @param value the value, or {@code null} to remove it
+     * @return the previous value
+     */
+    synchronized V put(final String[] path, final V value) {
+        if (value == null) {
+            final Node<V> node = find(path);
+            if (node == null) {
+                return null;
+            }
+            final V old = node.value;
+            node.value = null;
+            prune(node);
+            return old;
+        }
+        Node<V> node = root;
+        for (String component : path) {
+            ConcurrentMap<String, Node<V>> children = node.children;
+            if (children == null) {
+                node.children = children = new ConcurrentHashMap<String, Node<V>>(4);
+            }
+            Node<V> child = children.get(component);
+            if (child == null) {
+                children.put(component, child = new Node<V>(node, component));
+            }
+            node = child;
+        }
+        final V old = node.value;
+        node.value = value;
+        return old;
+    }
+
+    V remove(final String[] path) {
+        return put(path, null);
+    }
+
+    /**
+     * Detach nodes which no longer lead to a value.  Call with the lock held.
+     */
+    private void prune(Node<V> node) {
+        while (node != root && node.value == null && (node.children == null || node.children.isEmpty())) {
+            node.parent.children.remove(node.name);
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Add the values of a name and of all the names beneath it to a collection.
+     *
+     * @param path the name
+     * @param values the collection to add to
+     */
+    void getSubtree(final String[] path, final Collection<? super V> values) {
+        final Node<V> node = find(path);
+        if (node != null) {
+            collect(node, values);
+        }
+    }
+
+    /**
+     * Remove a name and all the names beneath it.
+     *
+     * @param path the name
+     * @param removed the collection to add the removed values to, or {@code null}
+     */
+    synchronized void removeSubtree(final String[] path, final Collection<? super V> removed) {
+        final Node<V> node = find(path);
+        if (node == null) {
+            return;
+        }
+        if (removed != null) {
+            collect(node, removed);
+        }
+        if (node == root) {
+            root.value = null;
+            root.children = null;
+        } else {
+            node.parent.children.remove(node.name);
+            prune(node.parent);
+        }
+    }
+
+    private static <V> void collect(final Node<V> node, final Collection<? super V> values) {
+        final V value = node.value;
+        if (value != null) {
+            values.add(value);
+        }
+        final ConcurrentMap<String, Node<V>> children = node.children;
+        if (children != null) {
+            for (Node<V> child : children.values()) {
+                collect(child, values);
+            }
+        }
+    }
+
+    /**
+     * Visit the values of a name and of each of its prefixes, from the empty name down.
+     *
+     * @param path the name
+     * @param visitor the visitor
+     */
+    void visitPath(final String[] path, final PathVisitor<V> visitor) {
+        Node<V> node = root;
+        for (int depth = 0;; depth ++) {
+            final V value = node.value;
+            if (value != null) {
+                visitor.visit(depth, value);
+            }
+            if (depth == path.length) {
+                return;
+            }
+            final ConcurrentMap<String, Node<V>> children = node.children;
+            if (children == null || (node = children.get(path[depth])) == null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A visitor of the values along a name.
+     */
+    interface PathVisitor<V> {
+
+        /**
+         * Visit a value.
+         *
+         * @param depth the number of components of the prefix which holds the value
+         * @param value the value
+         */
+        void visit(int depth, V value);
+    }
+
+    static final class Node<V> {
+        private final Node<V> parent;
+        private final String name;
+        /** Created on first use, by a writer */
+        private volatile ConcurrentMap<String, Node<V>> children;
+        private volatile V value;
+
+        Node(final Node<V> parent, final String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+    }
+}
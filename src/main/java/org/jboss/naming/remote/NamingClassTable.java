@@ -23,25 +23,155 @@
 package org.jboss.naming.remote;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import org.jboss.marshalling.ClassTable;
+import org.jboss.marshalling.Marshaller;
 import org.jboss.marshalling.Unmarshaller;
 
 /**
+ * A class table which writes well-known naming classes as a single byte instead of a full class descriptor.
+ * <p>
+ * IDs below {@code 0x80} belong to the built-in dictionary of version {@value #VERSION}.  Classes may only ever be
+ * appended to the dictionary, so that peers on different versions agree on every ID they both know.  IDs from
+ * {@code 0x80} up belong to user classes, assigned in the order given; since the protocol has no handshake when
+ * the channel opens, both peers must be configured with the same user classes in the same order.
+ *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 final class NamingClassTable implements ClassTable {
 
-    private static final ClassTable INSTANCE = new NamingClassTable();
+    /**
+     * The version of the built-in dictionary.
+     */
+    static final int VERSION = 1;
+
+    private static final Class<?>[] WELL_KNOWN = {
+        javax.naming.Reference.class,
+        javax.naming.RefAddr.class,
+        javax.naming.StringRefAddr.class,
+        javax.naming.BinaryRefAddr.class,
+        javax.naming.LinkRef.class,
+        javax.naming.NameClassPair.class,
+        javax.naming.Binding.class,
+        javax.naming.CompositeName.class,
+        javax.naming.CompoundName.class,
+        javax.naming.NamingException.class,
+        javax.naming.NameNotFoundException.class,
+        javax.naming.NameAlreadyBoundException.class,
+        javax.naming.NotContextException.class,
+        javax.naming.ContextNotEmptyException.class,
+        javax.naming.InvalidNameException.class,
+        javax.naming.OperationNotSupportedException.class,
+        javax.naming.NamingSecurityException.class,
+        javax.naming.NoPermissionException.class,
+        javax.naming.CommunicationException.class,
+        javax.naming.ServiceUnavailableException.class,
+        javax.naming.LimitExceededException.class,
+        javax.naming.TimeLimitExceededException.class,
+        Throwable.class,
+        Exception.class,
+        RuntimeException.class,
+        StackTraceElement.class,
+        StackTraceElement[].class,
+        Object[].class,
+        String[].class,
+        java.util.Vector.class,
+        java.util.ArrayList.class,
+        java.util.Hashtable.class,
+        java.util.Properties.class,
+    };
+
+    private static final int FIRST_USER_ID = 0x80;
+    private static final int MAX_ID = 0xFF;
+
+    private static final NamingClassTable INSTANCE = new NamingClassTable();
+
+    /** Classes by ID */
+    private final Class<?>[] classes = new Class<?>[MAX_ID + 1];
+    private final Map<Class<?>, Writer> writers = new IdentityHashMap<Class<?>, Writer>();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param userClasses the user classes to add to the built-in dictionary, at most 128
+     */
+    NamingClassTable(final Class<?>... userClasses) {
+        if (userClasses.length > MAX_ID + 1 - FIRST_USER_ID) {
+            throw new IllegalArgumentException("Too many user classes");
+        }
+        for (int i = 0; i < WELL_KNOWN.length; i ++) {
+            add(i, WELL_KNOWN[i]);
+        }
+        for (int i = 0; i < userClasses.length; i ++) {
+            add(FIRST_USER_ID + i, userClasses[i]);
+        }
+    }
+
+    private void add(final int id, final Class<?> clazz) {
+        if (writers.containsKey(clazz)) {
+            throw new IllegalArgumentException("Class " + clazz.getName() + " is already in the dictionary");
+        }
+        classes[id] = clazz;
+        writers.put(clazz, new ByteWriter(id));
+    }
 
     public static ClassTable getInstance() {
         return INSTANCE;
     }
 
+    /**
+     * Get a class table for the given environment property value, which is either an array of classes or a string
+     * of comma-separated class names.  Named classes are loaded with the thread context class loader.
+     *
+     * @param value the property value, or {@code null} for no user classes
+     * @return the class table
+     * @throws IllegalArgumentException if the value is invalid or a named class cannot be loaded
+     */
+    static ClassTable forUserClasses(final Object value) {
+        if (value == null) {
+            return INSTANCE;
+        }
+        if (value instanceof Class<?>[]) {
+            return new NamingClassTable((Class<?>[]) value);
+        }
+        final List<Class<?>> userClasses = new ArrayList<Class<?>>();
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        for (String name : value.toString().split(",")) {
+            name = name.trim();
+            if (name.length() > 0) try {
+                userClasses.add(Class.forName(name, false, classLoader));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Cannot load user class " + name, e);
+            }
+        }
+        return userClasses.isEmpty() ? INSTANCE : new NamingClassTable(userClasses.toArray(new Class<?>[userClasses.size()]));
+    }
+
     public Writer getClassWriter(final Class<?> clazz) throws IOException {
-        return null;
+        return writers.get(clazz);
     }
 
     public Class<?> readClass(final Unmarshaller unmarshaller) throws IOException, ClassNotFoundException {
-        return null;
+        final int id = unmarshaller.readUnsignedByte();
+        final Class<?> clazz = classes[id];
+        if (clazz == null) {
+            throw new ClassNotFoundException("No class with ID " + id + " in the naming class dictionary");
+        }
+        return clazz;
+    }
+
+    static final class ByteWriter implements Writer {
+        private final int id;
+
+        ByteWriter(final int id) {
+            this.id = id;
+        }
+
+        public void writeClass(final Marshaller marshaller, final Class<?> clazz) throws IOException {
+            marshaller.writeByte(id);
+        }
     }
 }
@@ -22,15 +22,14 @@
 
 package org.jboss.naming.remote;
 
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
-import java.util.concurrent.atomic.AtomicLongFieldUpdater;
-import java.util.concurrent.atomic.AtomicReferenceArray;
-import org.jboss.marshalling.Marshaller;
 import org.jboss.marshalling.MarshallerFactory;
-import org.jboss.marshalling.MarshallingConfiguration;
 import org.jboss.remoting3.Channel;
 import org.jboss.remoting3.MessageInputStream;
 import org.jboss.remoting3.MessageOutputStream;
@@ -38,34 +37,69 @@ import org.jboss.remoting3.MessageOutputStream;
 import org.xnio.IoUtils;
 
 import javax.naming.CommunicationException;
+import javax.naming.CompositeName;
 import javax.naming.InsufficientResourcesException;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
 import javax.naming.NamingException;
+import javax.naming.event.NamingEvent;
 import javax.naming.event.NamingListener;
 
 import static org.jboss.naming.remote.Log.log;
 
 /**
+ * A naming client over a single channel.
+ *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
-final class NamingClient {
+final class NamingClient extends AbstractNamingClient {
     private final Channel channel;
 
     @SuppressWarnings("unused")
     private volatile int state;
-    private volatile long requestIds = 0xFFFFFFFFFFFFFFFFL;
-    private final AtomicReferenceArray<ResultHolder<?>> holders = new AtomicReferenceArray<ResultHolder<?>>(64);
+    private final RequestIdTable requestIds = new RequestIdTable();
+    private final ListenerIndex listeners = new ListenerIndex();
+    @SuppressWarnings("unused")
+    private volatile int nextSubscriptionId;
 
     private static final AtomicIntegerFieldUpdater<NamingClient> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(NamingClient.class, "state");
-    private static final AtomicLongFieldUpdater<NamingClient> requestIdsUpdater = AtomicLongFieldUpdater.newUpdater(NamingClient.class, "requestIds");
+    private static final AtomicIntegerFieldUpdater<NamingClient> subscriptionIdUpdater = AtomicIntegerFieldUpdater.newUpdater(NamingClient.class, "nextSubscriptionId");
 
     private static final int CLOSED = (1 << 31);
     private static final int FLAGS_MASK = (CLOSED);
     private static final int COUNT_MASK = ~FLAGS_MASK;
-    private final MarshallerFactory factory;
+    private final RequestPipeline pipeline;
+    private final NamingClientPool pool;
+    private final NamingClientMetrics metrics;
+    /** How long waiters spin for a reply before parking; a heuristic, so racing updates may be lost */
+    private volatile int spins = MIN_SPINS;
 
-    NamingClient(final Channel channel, final MarshallerFactory factory) {
+    private static final int MIN_SPINS = 1 << 6;
+    private static final int MAX_SPINS = 1 << 14;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param channel the channel to the naming server
+     * @param factory the marshaller factory
+     * @param pipelined {@code true} to coalesce concurrent requests into {@link Protocol#MSG_PIPELINE} messages,
+     *      which the server must support
+     * @param pool the pool this client is a member of, or {@code null} if it stands alone
+     */
+    NamingClient(final Channel channel, final MarshallerFactory factory, final boolean pipelined, final NamingClientPool pool) {
+        super(factory);
         this.channel = channel;
-        this.factory = factory;
+        this.pool = pool;
+        metrics = pool == null ? new NamingClientMetrics(this) : pool.getMetrics();
+        pipeline = pipelined ? new RequestPipeline(this, channel) : null;
+    }
+
+    NamingClient(final Channel channel, final MarshallerFactory factory, final boolean pipelined) {
+        this(channel, factory, pipelined, null);
+    }
+
+    NamingClient(final Channel channel, final MarshallerFactory factory) {
+        this(channel, factory, false);
     }
 
     private static int readByte(InputStream is) throws IOException {
@@ -76,54 +110,128 @@ final class NamingClient {
         return v;
     }
 
+    private static int readRequestId(InputStream is) throws IOException {
+        return readByte(is) << 8 | readByte(is);
+    }
+
     void start() {
         channel.receiveMessage(new Channel.Receiver() {
             public void handleError(final Channel channel, final IOException error) {
                 IoUtils.safeClose(channel);
                 log.channelError(channel, error);
+                failOutstanding(log.channelFailed(error));
             }
 
             public void handleEnd(final Channel channel) {
                 log.channelEOF(channel);
+                failOutstanding(log.channelFailed(null));
             }
 
             public void handleMessage(final Channel channel, final MessageInputStream message) {
-                boolean ok = false;
+                ResultHolder<?> resultHolder = null;
+                ReplyBuffer reply = null;
                 try {
-                    final int msg = readByte(message);
+                    // take the whole message off the channel in one bulk read, then parse it from memory; a reply
+                    // is parsed by whoever wants the result
+                    reply = ReplyBuffer.read(message);
+                    final int msg = readByte(reply);
                     switch (msg) {
                         case Protocol.MSG_RESPONSE: {
-                            int id = readByte(message);
-                            if (id > 63) {
-                                // ignore!
-                                return;
-                            }
-                            final ResultHolder<?> resultHolder = releaseRequestId(id);
+                            final int id = readRequestId(reply);
+                            resultHolder = releaseRequestId(id);
                             if (resultHolder == null) {
                                 // ignore!
                                 return;
                             }
-                            resultHolder.setStreamResult(message);
-                            ok = true;
+                            final int requestMsg = resultHolder.getMessage();
+                            metrics.responseReceived(requestMsg, System.nanoTime() - resultHolder.getSentAt());
+                            metrics.bytesReceived(requestMsg, reply.size());
                             break;
                         }
+                        case Protocol.MSG_EVENT: {
+                            handleEvent(reply);
+                            return;
+                        }
+                        case Protocol.MSG_INVALIDATE: {
+                            final String name = new DataInputStream(reply).readUTF();
+                            (pool == null ? NamingClient.this : pool).invalidate(name);
+                            return;
+                        }
                         default: {
                             // unknown!
                             return;
                         }
                     }
                 } catch (IOException e) {
-                    // todo: log it
+                    if (resultHolder != null) {
+                        resultHolder.setException(log.errorReadingReply(e));
+                        resultHolder = null;
+                    }
                 } finally {
-                    if (! ok) {
-                        IoUtils.safeClose(message);
+                    IoUtils.safeClose(message);
+                    // the buffer is handed over only with a reply
+                    if (resultHolder == null && reply != null) {
+                        reply.close();
                     }
                     channel.receiveMessage(this);
                 }
+                // the channel is already receiving the next message
+                if (resultHolder != null && ! resultHolder.setReply(reply)) {
+                    reply.close();
+                }
             }
         });
     }
 
+    /**
+     * Queue a received event for the registrations it matches.  The values are left marshalled, to be read by
+     * whichever registration delivers the event first.
+     */
+    private void handleEvent(final ReplyBuffer message) throws IOException {
+        final int type = readByte(message);
+        final Object name = NameEncoding.readName(message, null);
+        final Object newName = type == NamingEvent.OBJECT_RENAMED ? NameEncoding.readName(message, name) : null;
+        final Name absoluteName, absoluteNewName;
+        try {
+            absoluteName = toCompositeName(name);
+            absoluteNewName = newName == null ? null : toCompositeName(newName);
+        } catch (InvalidNameException e) {
+            // not a name any registration can match
+            return;
+        }
+        final List<ListenerRegistration> matches = new ArrayList<ListenerRegistration>();
+        listeners.match(absoluteName, matches);
+        if (absoluteNewName != null) {
+            listeners.match(absoluteNewName, matches);
+        }
+        if (matches.isEmpty()) {
+            // the registration was removed while the event was on its way
+            return;
+        }
+        final EventMessage event = new EventMessage(type, absoluteName, absoluteNewName, message.readRemaining());
+        for (ListenerRegistration registration : matches) {
+            registration.deliver(event);
+        }
+    }
+
+    private static Name toCompositeName(final Object name) throws InvalidNameException {
+        return name instanceof Name ? (Name) name : new CompositeName(name.toString());
+    }
+
+    ListenerRegistration addListener(final RemoteContext context, final Name target, final int scope, final NamingListener listener) throws NamingException {
+        if (isClosed()) {
+            throw log.closedContext();
+        }
+        final ListenerRegistration registration = new ListenerRegistration(listener, scope, target, context, this, subscriptionIdUpdater.getAndIncrement(this), getEventExecutor());
+        // index it first, since events may arrive before the subscription is acknowledged
+        listeners.add(registration);
+        return registration;
+    }
+
+    boolean removeListener(final ListenerRegistration registration) {
+        return listeners.remove(registration);
+    }
+
     private void enter() throws NamingException {
         int oldState, newState;
         do {
@@ -133,6 +241,7 @@ final class NamingClient {
             }
             newState = oldState + 1;
         } while (! stateUpdater.compareAndSet(this, oldState, newState));
+        metrics.requestStarted(newState & COUNT_MASK);
     }
 
     private void exit() {
@@ -142,50 +251,174 @@ final class NamingClient {
         }
     }
 
-    private int getRequestId() {
-        long old, bit;
+    /**
+     * Get the number of operations in progress, which includes every outstanding request.
+     *
+     * @return the number of operations
+     */
+    int getOutstanding() {
+        return state & COUNT_MASK;
+    }
+
+    int getRequestIdLimit() {
+        return Protocol.MAX_REQUEST_ID + 1;
+    }
+
+    NamingClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    int getSpins() {
+        return spins;
+    }
+
+    /**
+     * Record that a waiter got its reply while spinning, so waiters may spin longer.
+     */
+    void spinSucceeded() {
+        final int spins = this.spins;
+        if (spins < MAX_SPINS) {
+            this.spins = spins << 1;
+        }
+    }
+
+    /**
+     * Record that a waiter had to park after spinning, so waiters should spin less.
+     */
+    void spinFailed() {
+        final int spins = this.spins;
+        if (spins > MIN_SPINS) {
+            this.spins = spins >> 1;
+        }
+    }
+
+    boolean isClosed() {
+        return (state & CLOSED) != 0;
+    }
+
+    /**
+     * Close this client.  The channel is closed once the last outstanding request is done.
+     */
+    void close() {
+        int oldState;
         do {
-            old = requestIds;
-            if (old == 0L) {
-                return -1;
+            oldState = state;
+            if ((oldState & CLOSED) != 0) {
+                return;
             }
-            bit = Long.lowestOneBit(old);
-        } while (! requestIdsUpdater.compareAndSet(this, old, old ^ bit));
-        return Long.numberOfTrailingZeros(bit);
+        } while (! stateUpdater.compareAndSet(this, oldState, oldState | CLOSED));
+        if (oldState == 0) {
+            IoUtils.safeClose(channel);
+        }
     }
 
-    ResultHolder<?> releaseRequestId(final int requestId) {
-        long old, bit = (1L << (long) requestId);
-        final ResultHolder<?> holder = holders.getAndSet(requestId, null);
-        do {
-            old = requestIds;
-            if ((old | bit) == old) {
-                // ????????
-                return holder;
+    /**
+     * Fail every outstanding request, after the channel is lost.
+     *
+     * @param e the failure reason
+     */
+    private void failOutstanding(final NamingException e) {
+        close();
+        final int capacity = requestIds.getCapacity();
+        for (int i = 0; i < capacity; i ++) {
+            final ResultHolder<?> resultHolder = releaseRequestId(i);
+            if (resultHolder != null) {
+                resultHolder.setException(e);
             }
-        } while (! requestIdsUpdater.compareAndSet(this, old, old | bit));
-        exit();
+        }
+        for (ListenerRegistration registration : listeners.removeAll()) {
+            registration.deliver(e);
+        }
+        if (pool != null) {
+            pool.memberFailed(this);
+        }
+    }
+
+    ResultHolder<?> releaseRequestId(final int requestId) {
+        final ResultHolder<?> holder = requestIds.release(requestId);
+        if (holder != null) {
+            exit();
+        }
         return holder;
     }
 
-    <T> MessageOutputStream sendRequest(int msg, ResultHolder<T> resultHolder) {
+    /**
+     * Abandon an outstanding request by sending a {@link Protocol#MSG_CANCEL} for it.  The request ID stays
+     * allocated until the server acknowledges the cancel, since a response for it may still be on its way.
+     *
+     * @param requestId the request ID
+     * @param resultHolder the holder of the abandoned request
+     */
+    void cancelRequest(final int requestId, final ResultHolder<?> resultHolder) {
+        if (requestIds.get(requestId) != resultHolder) {
+            // already answered
+            return;
+        }
+        final ResultHolder<Void> ackHolder = new ResultHolder<Void>(Void.class, null, new ResultHolder.Notifier<Void>() {
+            public void handleDone(final ResultHolder<Void> ackHolder) {
+                ackHolder.discard();
+                if (requestIds.release(requestId, resultHolder)) {
+                    exit();
+                }
+            }
+        });
+        final RequestOutputStream stream = sendRequest(Protocol.MSG_CANCEL, ackHolder);
+        if (stream == null) {
+            return;
+        }
+        boolean ok = false;
+        try {
+            final byte[] target = stream.getScratch();
+            target[0] = (byte) (requestId >> 8);
+            target[1] = (byte) requestId;
+            stream.write(target, 0, 2);
+            stream.close();
+            ok = true;
+        } catch (IOException e) {
+            ackHolder.setException(new CommunicationException("Failed to send request: " + e.toString()));
+        } finally {
+            if (! ok) {
+                stream.cancel();
+            }
+            IoUtils.safeClose(stream);
+        }
+    }
+
+    <T> RequestOutputStream sendRequest(int msg, ResultHolder<T> resultHolder) {
         try {
             enter();
         } catch (NamingException e) {
             resultHolder.setException(e);
             return null;
         }
-        final int requestId = getRequestId();
+        final int requestId = requestIds.allocate(resultHolder);
         if (requestId == -1) {
+            exit();
+            metrics.requestIdsExhausted();
             resultHolder.setException(new InsufficientResourcesException("Too many concurrent outstanding requests"));
+            return null;
         }
-        holders.set(requestId, resultHolder);
         boolean ok = false;
         try {
-            final MessageOutputStream stream = channel.writeMessage();
+            final RequestOutputStream stream = pipeline == null ? new CountingOutputStream(channel.writeMessage(), msg) : pipeline.createRequest(msg, requestId);
             try {
-                stream.write(msg);
-                stream.write(requestId);
+                final long remaining = resultHolder.getRemainingMillis();
+                // the header goes out in one write
+                final byte[] header = stream.getScratch();
+                header[0] = (byte) (remaining == 0L ? msg : msg | Protocol.MSG_FLAG_DEADLINE);
+                header[1] = (byte) (requestId >> 8);
+                header[2] = (byte) requestId;
+                if (remaining == 0L) {
+                    stream.write(header, 0, 3);
+                } else {
+                    final int deadline = (int) Math.min(remaining, Integer.MAX_VALUE);
+                    header[3] = (byte) (deadline >> 24);
+                    header[4] = (byte) (deadline >> 16);
+                    header[5] = (byte) (deadline >> 8);
+                    header[6] = (byte) deadline;
+                    stream.write(header, 0, 7);
+                }
+                resultHolder.setRequest(this, requestId, msg);
                 ok = true;
                 return stream;
             } finally {
@@ -204,23 +437,46 @@ final class NamingClient {
         }
     }
 
-    void contextClosing(final RemoteContext context) {
+    /**
+     * A request stream which reports its size to the metrics once it is sent.
+     */
+    final class CountingOutputStream extends RequestOutputStream {
+        private final MessageOutputStream delegate;
+        private final int msg;
+        private long count;
+        private boolean done;
 
-    }
+        CountingOutputStream(final MessageOutputStream delegate, final int msg) {
+            this.delegate = delegate;
+            this.msg = msg;
+        }
 
-    void contextClosed(final RemoteContext context) {
+        public void write(final int b) throws IOException {
+            delegate.write(b);
+            count ++;
+        }
 
-    }
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
 
-    ListenerRegistration addListener(final RemoteContext context, final Object name, final int scope, final NamingListener listener) {
-        return null;
-    }
+        public void flush() throws IOException {
+            delegate.flush();
+        }
 
-    public <T> ResultHolder<T> createResultHolder(final Class<T> type, final MarshallingConfiguration configuration) {
-        return new ResultHolder<T>(type, factory, configuration);
-    }
+        public void close() throws IOException {
+            delegate.close();
+            if (! done) {
+                done = true;
+                metrics.requestSent(msg, count);
+            }
+        }
 
-    public Marshaller createMarshaller(final MarshallingConfiguration config) throws IOException {
-        return factory.createMarshaller(config);
+        public MessageOutputStream cancel() {
+            done = true;
+            delegate.cancel();
+            return this;
+        }
     }
 }
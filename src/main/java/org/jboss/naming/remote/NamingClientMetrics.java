@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Request metrics of a naming client, shared by all of its contexts and channels.  Obtain an instance with
+ * {@link RemoteContext#getClientMetrics()}; it may be registered with an MBean server as is.
+ * <p>
+ * Counters are striped and latencies are kept in lock-free histograms, so recording never blocks and seldom
+ * contends.  Reads are not atomic with respect to concurrent updates.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class NamingClientMetrics implements NamingClientMetricsMXBean {
+
+    /**
+     * Message names, indexed by message type.
+     */
+    private static final String[] MESSAGE_NAMES = {
+        null,
+        "lookup",
+        "bind",
+        "rebind",
+        "unbind",
+        "rename",
+        "list",
+        "listBindings",
+        "destroySubcontext",
+        "createSubcontext",
+        "lookupLink",
+        "lookupBatch",
+        "listNext",
+        "listClose",
+        "pipeline",
+        "cancel",
+        "addListener",
+        "removeListener",
+    };
+
+    private static final int MESSAGE_TYPES = MESSAGE_NAMES.length;
+
+    private static final int REQUESTS = 0;
+    private static final int BYTES_SENT = 1;
+    private static final int BYTES_RECEIVED = 2;
+    private static final int PER_MESSAGE = 3;
+    private static final int EXHAUSTED = MESSAGE_TYPES * PER_MESSAGE;
+
+    private final AbstractNamingClient client;
+    private final StripedCounters counters = new StripedCounters(EXHAUSTED + 1);
+    private final LatencyHistogram[] latencies = new LatencyHistogram[MESSAGE_TYPES];
+
+    @SuppressWarnings("unused")
+    private volatile int peak;
+
+    private static final AtomicIntegerFieldUpdater<NamingClientMetrics> peakUpdater = AtomicIntegerFieldUpdater.newUpdater(NamingClientMetrics.class, "peak");
+
+    NamingClientMetrics(final AbstractNamingClient client) {
+        this.client = client;
+        for (int i = 1; i < MESSAGE_TYPES; i ++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    private static boolean isKnown(final int msg) {
+        return msg > 0 && msg < MESSAGE_TYPES;
+    }
+
+    private static int indexOf(final String message) {
+        for (int i = 1; i < MESSAGE_TYPES; i ++) {
+            if (MESSAGE_NAMES[i].equals(message)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown message " + message);
+    }
+
+    // recording
+
+    void requestStarted(final int inFlight) {
+        int oldPeak;
+        do {
+            oldPeak = peak;
+            if (inFlight <= oldPeak) {
+                return;
+            }
+        } while (! peakUpdater.compareAndSet(this, oldPeak, inFlight));
+    }
+
+    void requestIdsExhausted() {
+        counters.increment(EXHAUSTED);
+    }
+
+    void requestSent(final int msg, final long bytes) {
+        if (isKnown(msg)) {
+            counters.increment(msg * PER_MESSAGE + REQUESTS);
+            counters.add(msg * PER_MESSAGE + BYTES_SENT, bytes);
+        }
+    }
+
+    void responseReceived(final int msg, final long nanos) {
+        if (isKnown(msg)) {
+            latencies[msg].record(nanos);
+        }
+    }
+
+    void bytesReceived(final int msg, final long bytes) {
+        if (isKnown(msg)) {
+            counters.add(msg * PER_MESSAGE + BYTES_RECEIVED, bytes);
+        }
+    }
+
+    // plain API
+
+    /**
+     * Get the names of the message types for which metrics are kept.
+     *
+     * @return the message names
+     */
+    public List<String> getMessageNames() {
+        return Collections.unmodifiableList(Arrays.asList(MESSAGE_NAMES).subList(1, MESSAGE_TYPES));
+    }
+
+    public long getRequestCount(final String message) {
+        return counters.sum(indexOf(message) * PER_MESSAGE + REQUESTS);
+    }
+
+    public long getBytesSent(final String message) {
+        return counters.sum(indexOf(message) * PER_MESSAGE + BYTES_SENT);
+    }
+
+    public long getBytesReceived(final String message) {
+        return counters.sum(indexOf(message) * PER_MESSAGE + BYTES_RECEIVED);
+    }
+
+    /**
+     * Get an upper bound for a round-trip latency percentile of a message type.  The result is accurate to within
+     * 12.5%.
+     *
+     * @param message the message name
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency in nanoseconds, or 0 if no response was received
+     */
+    public long getLatencyPercentile(final String message, final double percentile) {
+        return latencies[indexOf(message)].getPercentile(percentile);
+    }
+
+    // MXBean
+
+    public int getInFlightRequests() {
+        return client.getOutstanding();
+    }
+
+    public int getPeakInFlightRequests() {
+        return peak;
+    }
+
+    public int getRequestIdLimit() {
+        return client.getRequestIdLimit();
+    }
+
+    public long getRequestIdExhaustionCount() {
+        return counters.sum(EXHAUSTED);
+    }
+
+    private Map<String, Long> sums(final int counter) {
+        final Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (int i = 1; i < MESSAGE_TYPES; i ++) {
+            map.put(MESSAGE_NAMES[i], Long.valueOf(counters.sum(i * PER_MESSAGE + counter)));
+        }
+        return map;
+    }
+
+    private Map<String, Long> percentiles(final double percentile) {
+        final Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (int i = 1; i < MESSAGE_TYPES; i ++) {
+            map.put(MESSAGE_NAMES[i], Long.valueOf(latencies[i].getPercentile(percentile)));
+        }
+        return map;
+    }
+
+    public Map<String, Long> getRequestCounts() {
+        return sums(REQUESTS);
+    }
+
+    public Map<String, Long> getBytesSentByMessage() {
+        return sums(BYTES_SENT);
+    }
+
+    public Map<String, Long> getBytesReceivedByMessage() {
+        return sums(BYTES_RECEIVED);
+    }
+
+    public Map<String, Long> getLatencyMedianNanos() {
+        return percentiles(50.0);
+    }
+
+    public Map<String, Long> getLatency99thPercentileNanos() {
+        return percentiles(99.0);
+    }
+
+    public Map<String, Long> getLatency999thPercentileNanos() {
+        return percentiles(99.9);
+    }
+
+    public void reset() {
+        counters.reset();
+        for (int i = 1; i < MESSAGE_TYPES; i ++) {
+            latencies[i].reset();
+        }
+        peak = client.getOutstanding();
+    }
+}
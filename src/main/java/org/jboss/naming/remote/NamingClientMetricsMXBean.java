@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link NamingClientMetrics}.  Per-message values are keyed by message name; see
+ * {@link NamingClientMetrics#getMessageNames()}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public interface NamingClientMetricsMXBean {
+
+    /**
+     * Get the number of requests which are awaiting their response.
+     *
+     * @return the number of requests
+     */
+    int getInFlightRequests();
+
+    /**
+     * Get the highest number of requests which were awaiting their response at once.
+     *
+     * @return the number of requests
+     */
+    int getPeakInFlightRequests();
+
+    /**
+     * Get the number of requests which may await their response at once before new requests fail.
+     *
+     * @return the number of requests
+     */
+    int getRequestIdLimit();
+
+    /**
+     * Get the number of requests which failed because no request ID was free.
+     *
+     * @return the count
+     */
+    long getRequestIdExhaustionCount();
+
+    Map<String, Long> getRequestCounts();
+
+    Map<String, Long> getBytesSentByMessage();
+
+    Map<String, Long> getBytesReceivedByMessage();
+
+    /**
+     * Get the median round-trip latency of each message type, in nanoseconds.
+     *
+     * @return the latencies
+     */
+    Map<String, Long> getLatencyMedianNanos();
+
+    /**
+     * Get the 99th percentile round-trip latency of each message type, in nanoseconds.
+     *
+     * @return the latencies
+     */
+    Map<String, Long> getLatency99thPercentileNanos();
+
+    /**
+     * Get the 99.9th percentile round-trip latency of each message type, in nanoseconds.
+     *
+     * @return the latencies
+     */
+    Map<String, Long> getLatency999thPercentileNanos();
+
+    /**
+     * Clear all counters, latencies and the peak.
+     */
+    void reset();
+}
@@ -0,0 +1,306 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jboss.marshalling.MarshallerFactory;
+import org.jboss.remoting3.Channel;
+
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.event.NamingListener;
+
+import static org.jboss.naming.remote.Log.log;
+
+/**
+ * A naming client which spreads its requests over several channels to the same server.  Each request goes to the
+ * member with the fewest outstanding requests.  A member whose channel fails is replaced in the background; a
+ * failed attempt is retried with exponential backoff, up to {@link #MAX_REPLACE_ATTEMPTS} times.  A slot which is
+ * still empty after that is tried again when a request next finds it empty.  The pool counts as closed once no
+ * member is open and no replacement is under way, so that the registry connects afresh.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class NamingClientPool extends AbstractNamingClient {
+
+    static final int MAX_REPLACE_ATTEMPTS = 5;
+    private static final long INITIAL_REPLACE_DELAY_MILLIS = 100L;
+    /** The value of a member slot while it is being replaced */
+    private static final Object REPLACING = new Object();
+
+    private final ChannelOpener opener;
+    private final MarshallerFactory factory;
+    private final boolean pipelined;
+    private final Executor executor;
+    /** Each slot holds a member, {@link #REPLACING}, or {@code null} if replacement was given up on */
+    private final AtomicReferenceArray<Object> members;
+    private final NamingClientMetrics metrics;
+    private volatile boolean closed;
+
+    /**
+     * Construct a new instance.  The channels are opened right away.
+     *
+     * @param size the number of channels
+     * @param opener the opener for new channels
+     * @param factory the marshaller factory
+     * @param pipelined {@code true} to coalesce requests on each channel
+     * @param executor the executor used to replace failed channels
+     * @throws IOException if a channel could not be opened
+     */
+    NamingClientPool(final int size, final ChannelOpener opener, final MarshallerFactory factory, final boolean pipelined, final Executor executor) throws IOException {
+        super(factory);
+        this.opener = opener;
+        this.factory = factory;
+        this.pipelined = pipelined;
+        this.executor = executor;
+        members = new AtomicReferenceArray<Object>(size);
+        metrics = new NamingClientMetrics(this);
+        boolean ok = false;
+        try {
+            for (int i = 0; i < size; i ++) {
+                members.set(i, openMember());
+            }
+            ok = true;
+        } finally {
+            if (! ok) {
+                close();
+            }
+        }
+    }
+
+    private NamingClient openMember() throws IOException {
+        final NamingClient member = new NamingClient(opener.openChannel(), factory, pipelined, this);
+        member.start();
+        return member;
+    }
+
+    private NamingClient getMember(final int idx) {
+        final Object member = members.get(idx);
+        return member instanceof NamingClient ? (NamingClient) member : null;
+    }
+
+    /**
+     * Get the open member with the fewest outstanding requests.  Slots which were given up on are replaced again.
+     *
+     * @return the member, or {@code null} if none is open
+     */
+    private NamingClient selectMember() {
+        NamingClient best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        final int length = members.length();
+        for (int i = 0; i < length; i ++) {
+            final Object slot = members.get(i);
+            if (slot == null) {
+                if (! closed && members.compareAndSet(i, null, REPLACING)) {
+                    replace(i, 0);
+                }
+                continue;
+            }
+            if (slot == REPLACING) {
+                continue;
+            }
+            final NamingClient member = (NamingClient) slot;
+            if (member.isClosed()) {
+                continue;
+            }
+            final int outstanding = member.getOutstanding();
+            if (outstanding < bestOutstanding) {
+                best = member;
+                bestOutstanding = outstanding;
+                if (outstanding == 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    <T> RequestOutputStream sendRequest(final int msg, final ResultHolder<T> resultHolder) {
+        final NamingClient member = selectMember();
+        if (member == null) {
+            resultHolder.setException(new ServiceUnavailableException("No channel to the naming server is available"));
+            return null;
+        }
+        return member.sendRequest(msg, resultHolder);
+    }
+
+    ListenerRegistration addListener(final RemoteContext context, final Name target, final int scope, final NamingListener listener) throws NamingException {
+        final NamingClient member = selectMember();
+        if (member == null) {
+            throw new ServiceUnavailableException("No channel to the naming server is available");
+        }
+        // the subscription lives and dies with the member's channel
+        return member.addListener(context, target, scope, listener);
+    }
+
+    int getOutstanding() {
+        int outstanding = 0;
+        final int length = members.length();
+        for (int i = 0; i < length; i ++) {
+            final NamingClient member = getMember(i);
+            if (member != null) {
+                outstanding += member.getOutstanding();
+            }
+        }
+        return outstanding;
+    }
+
+    int getRequestIdLimit() {
+        int limit = 0;
+        final int length = members.length();
+        for (int i = 0; i < length; i ++) {
+            final NamingClient member = getMember(i);
+            if (member != null && ! member.isClosed()) {
+                limit += member.getRequestIdLimit();
+            }
+        }
+        return limit;
+    }
+
+    NamingClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Called by a member whose channel has failed.
+     *
+     * @param member the failed member
+     */
+    void memberFailed(final NamingClient member) {
+        final int length = members.length();
+        for (int i = 0; i < length; i ++) {
+            if (members.compareAndSet(i, member, REPLACING)) {
+                replace(i, 0);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Open a member for a slot which was marked as {@link #REPLACING}.
+     *
+     * @param idx the slot index
+     * @param attempt the number of attempts which have failed so far
+     */
+    private void replace(final int idx, final int attempt) {
+        if (closed) {
+            members.compareAndSet(idx, REPLACING, null);
+            return;
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                final NamingClient member;
+                try {
+                    member = openMember();
+                } catch (IOException e) {
+                    log.channelReplaceFailed(e);
+                    if (closed || attempt + 1 >= MAX_REPLACE_ATTEMPTS) {
+                        members.compareAndSet(idx, REPLACING, null);
+                    } else {
+                        Retries.INSTANCE.schedule(new Runnable() {
+                            public void run() {
+                                replace(idx, attempt + 1);
+                            }
+                        }, INITIAL_REPLACE_DELAY_MILLIS << attempt, TimeUnit.MILLISECONDS);
+                    }
+                    return;
+                }
+                if (closed || ! members.compareAndSet(idx, REPLACING, member)) {
+                    member.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Determine whether this pool is closed.  A pool which has no open member and is not replacing one counts as
+     * closed, since it can no longer reach the server.
+     *
+     * @return {@code true} if the pool is closed
+     */
+    boolean isClosed() {
+        if (closed) {
+            return true;
+        }
+        final int length = members.length();
+        for (int i = 0; i < length; i ++) {
+            // a member which has failed stays in its slot until it is marked for replacement
+            if (members.get(i) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void close() {
+        closed = true;
+        final int length = members.length();
+        for (int i = 0; i < length; i ++) {
+            final Object member = members.getAndSet(i, null);
+            if (member instanceof NamingClient) {
+                ((NamingClient) member).close();
+            }
+        }
+    }
+
+    /**
+     * The scheduler of retries of failed replacements.  The retries themselves run on the pool's executor.
+     */
+    static final class Retries {
+        static final ScheduledExecutorService INSTANCE;
+
+        static {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "naming-channel-retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setKeepAliveTime(30L, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            INSTANCE = executor;
+        }
+    }
+
+    /**
+     * A source of new channels to the naming server.
+     */
+    interface ChannelOpener {
+
+        /**
+         * Open a new channel.
+         *
+         * @return the channel
+         * @throws IOException if the channel could not be opened
+         */
+        Channel openChannel() throws IOException;
+    }
+}
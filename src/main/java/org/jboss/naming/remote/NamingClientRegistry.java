@@ -0,0 +1,390 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import org.jboss.marshalling.MarshallerFactory;
+import org.jboss.marshalling.Marshalling;
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.Endpoint;
+import org.jboss.remoting3.Remoting;
+import org.jboss.remoting3.remote.RemoteConnectionProviderFactory;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import static org.jboss.naming.remote.Log.log;
+
+/**
+ * The naming clients opened for {@code remote:} URLs, shared by every URL with the same endpoint and credentials.
+ * An entry is reference counted: the factory holds a reference while it creates a context, and each context of
+ * the client holds one until it is closed.  The connection is closed with the last reference.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class NamingClientRegistry {
+
+    /**
+     * The name of the Remoting service of the naming server.
+     */
+    static final String SERVICE_NAME = "naming";
+
+    private static final NamingClientRegistry INSTANCE = new NamingClientRegistry();
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+    private final MarshallerFactory factory = Marshalling.getProvidedMarshallerFactory("river");
+    private volatile Endpoint defaultEndpoint;
+
+    static NamingClientRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private Endpoint getEndpoint(final Hashtable<?, ?> environment) throws IOException {
+        final Object endpoint = environment.get(RemoteContext.ENDPOINT);
+        if (endpoint instanceof Endpoint) {
+            return (Endpoint) endpoint;
+        }
+        Endpoint defaultEndpoint = this.defaultEndpoint;
+        if (defaultEndpoint == null) {
+            synchronized (this) {
+                defaultEndpoint = this.defaultEndpoint;
+                if (defaultEndpoint == null) {
+                    defaultEndpoint = Remoting.createEndpoint("remote-naming-client", OptionMap.EMPTY);
+                    defaultEndpoint.addConnectionProvider("remote", new RemoteConnectionProviderFactory(), OptionMap.EMPTY);
+                    this.defaultEndpoint = defaultEndpoint;
+                }
+            }
+        }
+        return defaultEndpoint;
+    }
+
+    /**
+     * Get a client for any one of several equivalent URIs.  A live client for any of them is reused; otherwise all
+     * of them are connected to at once, and the first connection to be established is used.  The caller must
+     * {@linkplain Entry#release() release} the returned entry.
+     *
+     * @param uris the URIs
+     * @param environment the environment, which gives the endpoint and credentials
+     * @return the entry of the client
+     * @throws NamingException if no connection could be established
+     */
+    Entry acquire(final URI[] uris, final Hashtable<?, ?> environment) throws NamingException {
+        final Endpoint endpoint;
+        try {
+            endpoint = getEndpoint(environment);
+        } catch (IOException e) {
+            throw log.connectFailed(Arrays.toString(uris), e);
+        }
+        final Object principal = environment.get(Context.SECURITY_PRINCIPAL);
+        final Object credentials = environment.get(Context.SECURITY_CREDENTIALS);
+        final Key[] keys = new Key[uris.length];
+        for (int i = 0; i < uris.length; i ++) {
+            keys[i] = new Key(endpoint, uris[i], principal, credentials);
+            final Entry entry = entries.get(keys[i]);
+            if (entry != null && entry.tryAcquire()) {
+                return entry;
+            }
+        }
+        final Entry entry = connect(endpoint, keys, principal, credentials, environment);
+        for (;;) {
+            final Entry existing = entries.putIfAbsent(entry.key, entry);
+            if (existing == null || existing.client.isClosed() && entries.replace(entry.key, existing, entry)) {
+                return entry;
+            }
+            if (existing.tryAcquire()) {
+                // someone else connected first
+                entry.release();
+                return existing;
+            }
+        }
+    }
+
+    private Entry connect(final Endpoint endpoint, final Key[] keys, final Object principal, final Object credentials, final Hashtable<?, ?> environment) throws NamingException {
+        final int length = keys.length;
+        @SuppressWarnings("unchecked")
+        final IoFuture<Connection>[] futures = (IoFuture<Connection>[]) new IoFuture<?>[length];
+        final BlockingQueue<Integer> completed = new LinkedBlockingQueue<Integer>();
+        final IoFuture.Notifier<Connection, Integer> notifier = new IoFuture.Notifier<Connection, Integer>() {
+            public void notify(final IoFuture<? extends Connection> future, final Integer index) {
+                completed.add(index);
+            }
+        };
+        IOException problem = null;
+        int winner = -1;
+        boolean intr = false;
+        try {
+            int pending = 0;
+            for (int i = 0; i < length; i ++) {
+                try {
+                    final URI uri = keys[i].uri;
+                    if (principal == null) {
+                        futures[i] = endpoint.connect(uri, OptionMap.EMPTY);
+                    } else {
+                        final char[] password = credentials instanceof char[] ? (char[]) credentials : credentials == null ? null : credentials.toString().toCharArray();
+                        futures[i] = endpoint.connect(uri, OptionMap.EMPTY, principal.toString(), null, password);
+                    }
+                    futures[i].addNotifier(notifier, Integer.valueOf(i));
+                    pending ++;
+                } catch (IOException e) {
+                    problem = e;
+                }
+            }
+            while (winner == -1 && pending > 0) {
+                final int idx;
+                try {
+                    idx = completed.take().intValue();
+                } catch (InterruptedException e) {
+                    intr = true;
+                    throw log.interrupted();
+                }
+                pending --;
+                if (futures[idx].getStatus() == IoFuture.Status.DONE) {
+                    winner = idx;
+                } else if (futures[idx].getStatus() == IoFuture.Status.FAILED) {
+                    problem = futures[idx].getException();
+                }
+            }
+        } finally {
+            for (int i = 0; i < length; i ++) {
+                if (i != winner && futures[i] != null) {
+                    closeWhenDone(futures[i]);
+                }
+            }
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (winner == -1) {
+            throw log.connectFailed(Arrays.toString(keys), problem);
+        }
+        Connection connection = null;
+        boolean ok = false;
+        try {
+            connection = futures[winner].get();
+            final boolean pipelined = ContextConfiguration.getBooleanProperty(environment, RemoteContext.PIPELINE, false);
+            final int poolSize = (int) Math.max(1L, ContextConfiguration.getLongProperty(environment, RemoteContext.CHANNEL_POOL_SIZE, 1L));
+            final AbstractNamingClient client;
+            if (poolSize == 1) {
+                final NamingClient single = new NamingClient(connection.openChannel(SERVICE_NAME, OptionMap.EMPTY).get(), factory, pipelined);
+                single.start();
+                client = single;
+            } else {
+                final Connection poolConnection = connection;
+                client = new NamingClientPool(poolSize, new NamingClientPool.ChannelOpener() {
+                    public Channel openChannel() throws IOException {
+                        return poolConnection.openChannel(SERVICE_NAME, OptionMap.EMPTY).get();
+                    }
+                }, factory, pipelined, AbstractNamingClient.DefaultEventExecutor.INSTANCE);
+            }
+            final Entry entry = new Entry(this, keys[winner], connection, client);
+            client.setRegistryEntry(entry);
+            ok = true;
+            return entry;
+        } catch (IOException e) {
+            throw log.connectFailed(keys[winner].toString(), e);
+        } finally {
+            if (! ok) {
+                IoUtils.safeClose(connection);
+            }
+        }
+    }
+
+    private static void closeWhenDone(final IoFuture<Connection> future) {
+        future.addNotifier(new IoFuture.HandlingNotifier<Connection, Void>() {
+            public void handleDone(final Connection connection, final Void attachment) {
+                IoUtils.safeClose(connection);
+            }
+        }, null);
+        future.cancel();
+    }
+
+    /**
+     * Parse a {@code remote:} URL.
+     *
+     * @param url the URL
+     * @return the URI
+     * @throws NamingException if the URL is not valid
+     */
+    static URI parse(final String url) throws NamingException {
+        try {
+            final URI uri = new URI(url);
+            if (uri.getHost() == null) {
+                throw new URISyntaxException(url, "No host given");
+            }
+            return uri;
+        } catch (URISyntaxException e) {
+            throw log.invalidUrl(url, e);
+        }
+    }
+
+    /**
+     * The identity of a shared client.  Credentials are held as a salted digest, so that the registry never keeps a
+     * password reachable after the contexts which gave it are gone.
+     */
+    static final class Key {
+        private static final byte[] SALT = new byte[16];
+
+        static {
+            new SecureRandom().nextBytes(SALT);
+        }
+
+        private final Endpoint endpoint;
+        /** The URI, without its path */
+        private final URI uri;
+        private final Object principal;
+        /** The digest of character credentials, or other credentials compared by identity */
+        private final Object credentials;
+        private final int hashCode;
+
+        Key(final Endpoint endpoint, final URI uri, final Object principal, final Object credentials) {
+            this.endpoint = endpoint;
+            this.uri = URI.create(uri.getScheme() + "://" + uri.getRawAuthority());
+            this.principal = principal;
+            if (credentials instanceof char[]) {
+                this.credentials = digest((char[]) credentials);
+            } else if (credentials instanceof String) {
+                this.credentials = digest(((String) credentials).toCharArray());
+            } else {
+                this.credentials = credentials;
+            }
+            hashCode = (System.identityHashCode(endpoint) * 31 + this.uri.hashCode()) * 31 + (principal == null ? 0 : principal.hashCode());
+        }
+
+        private static byte[] digest(final char[] chars) {
+            final MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform is required to provide SHA-256
+                throw new IllegalStateException(e);
+            }
+            digest.update(SALT);
+            for (char c : chars) {
+                digest.update((byte) (c >> 8));
+                digest.update((byte) c);
+            }
+            return digest.digest();
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && equals((Key) obj);
+        }
+
+        private boolean equals(final Key other) {
+            return this == other || other != null && hashCode == other.hashCode && endpoint == other.endpoint && uri.equals(other.uri)
+                    && (principal == null ? other.principal == null : principal.equals(other.principal))
+                    && (credentials instanceof byte[] && other.credentials instanceof byte[] ? MessageDigest.isEqual((byte[]) credentials, (byte[]) other.credentials) : credentials == other.credentials);
+        }
+
+        public String toString() {
+            return uri.toString();
+        }
+    }
+
+    /**
+     * A shared client and its connection.
+     */
+    static final class Entry {
+        private final NamingClientRegistry registry;
+        private final Key key;
+        private final Connection connection;
+        private final AbstractNamingClient client;
+
+        @SuppressWarnings("unused")
+        private volatile int references = 1;
+
+        private static final AtomicIntegerFieldUpdater<Entry> referencesUpdater = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "references");
+
+        Entry(final NamingClientRegistry registry, final Key key, final Connection connection, final AbstractNamingClient client) {
+            this.registry = registry;
+            this.key = key;
+            this.connection = connection;
+            this.client = client;
+        }
+
+        AbstractNamingClient getClient() {
+            return client;
+        }
+
+        /**
+         * Determine whether a URI names the server of this entry.
+         *
+         * @param uri the URI
+         * @return {@code true} if the scheme and authority match
+         */
+        boolean matches(final URI uri) {
+            return key.uri.getScheme().equals(uri.getScheme()) && key.uri.getRawAuthority().equals(uri.getRawAuthority());
+        }
+
+        /**
+         * Take a reference, unless the entry is already closed or its channel has failed.
+         *
+         * @return {@code true} if a reference was taken
+         */
+        boolean tryAcquire() {
+            int old;
+            do {
+                old = references;
+                if (old == 0 || client.isClosed()) {
+                    return false;
+                }
+            } while (! referencesUpdater.compareAndSet(this, old, old + 1));
+            return true;
+        }
+
+        /**
+         * Take a reference on behalf of a new context of the client.
+         */
+        void acquire() {
+            referencesUpdater.incrementAndGet(this);
+        }
+
+        void release() {
+            if (referencesUpdater.decrementAndGet(this) == 0) {
+                registry.entries.remove(key, this);
+                client.close();
+                IoUtils.safeClose(connection);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.concurrent.Future;
+
+import javax.naming.NamingException;
+
+/**
+ * The future result of an asynchronous naming operation.
+ *
+ * @param <T> the result type
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public interface NamingFuture<T> extends Future<T> {
+
+    /**
+     * Wait for the operation to complete and get its result.
+     *
+     * @return the result
+     * @throws NamingException if the operation failed, was cancelled, or the wait was interrupted
+     */
+    T getResult() throws NamingException;
+
+    /**
+     * Add a listener to be called when the operation completes.  If the operation is already complete, the
+     * listener is called immediately from the calling thread; otherwise it may be called from the thread
+     * which receives the reply, so it should not block.
+     *
+     * @param listener the listener
+     */
+    void addListener(Listener<? super T> listener);
+
+    /**
+     * A listener for the completion of a naming operation.
+     *
+     * @param <T> the result type
+     */
+    interface Listener<T> {
+
+        /**
+         * Handle a successful result.
+         *
+         * @param result the result
+         */
+        void handleResult(T result);
+
+        /**
+         * Handle a failed or cancelled operation.
+         *
+         * @param exception the failure reason
+         */
+        void handleFailure(NamingException exception);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+/**
+ * A receiver of operation timings from a {@link RemoteContext}.  Set an instance as the value of the
+ * {@link RemoteContext#INSTRUMENTATION} environment property to receive a call for each operation on the context
+ * and on the contexts derived from it.  When no instrumentation is set, operations are not timed at all.
+ * <p>
+ * Implementations are called on the thread which performed the operation, or for an asynchronous operation, on the
+ * thread which completed it, and so must be thread-safe and fast.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public interface NamingInstrumentation {
+
+    /**
+     * Handle the completion of an operation.
+     *
+     * @param operation the operation
+     * @param nanos the time taken by the operation, in nanoseconds
+     * @param failed {@code true} if the operation threw an exception or its future failed
+     */
+    void operationCompleted(NamingOperation operation, long nanos, boolean failed);
+}
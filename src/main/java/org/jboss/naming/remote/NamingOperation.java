@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+/**
+ * The operations of a {@link RemoteContext}, as reported to a {@link NamingInstrumentation}.  Asynchronous
+ * operations are reported as their synchronous counterparts.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public enum NamingOperation {
+    LOOKUP,
+    LOOKUP_ALL,
+    LOOKUP_LINK,
+    BIND,
+    REBIND,
+    UNBIND,
+    RENAME,
+    LIST,
+    LIST_BINDINGS,
+    /**
+     * Fetch the next page of a {@code list} or {@code listBindings} enumeration.
+     */
+    LIST_NEXT,
+    /**
+     * Close a {@code list} or {@code listBindings} enumeration before its end.
+     */
+    LIST_CLOSE,
+    CREATE_SUBCONTEXT,
+    DESTROY_SUBCONTEXT,
+    ADD_NAMING_LISTENER,
+    REMOVE_NAMING_LISTENER,
+    CLOSE
+}
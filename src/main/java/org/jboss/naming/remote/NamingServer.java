@@ -0,0 +1,1281 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jboss.marshalling.Marshaller;
+import org.jboss.marshalling.Marshalling;
+import org.jboss.marshalling.MarshallingConfiguration;
+import org.jboss.marshalling.ObjectTable;
+import org.jboss.marshalling.Unmarshaller;
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.Endpoint;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.MessageOutputStream;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.Registration;
+import org.jboss.remoting3.ServiceRegistrationException;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+import javax.naming.Binding;
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingExceptionEvent;
+import javax.naming.event.ObjectChangeListener;
+
+import static org.jboss.naming.remote.Log.log;
+
+/**
+ * A naming server which answers the requests of remote clients against a local context.  Each channel opened to
+ * the {@code naming} service is read by its receiver thread, which buffers each request and hands it to the
+ * executor of the server; replies are sent as requests complete, in any order, each framed as a
+ * {@link Protocol#MSG_RESPONSE} with the ID of its request.
+ * <p>
+ * The executor decides where operations on the local context run: on a thread pool, on a new thread per request,
+ * or at once on the receiver thread, if it runs each task directly.  The number of requests of each
+ * {@linkplain NamingOperation operation} which may run at once can be limited, so that a burst of slow requests,
+ * such as listings, cannot take every thread of the executor from cheap ones such as lookups.  A request over the
+ * limit waits, in order of arrival, until one of the same operation finishes.
+ * <p>
+ * Replies to lookups may be {@linkplain #setResponseCache(int, long) cached} in marshalled form.  Whenever a name
+ * is {@linkplain #invalidate(Name) invalidated}, every open channel is sent a {@link Protocol#MSG_INVALIDATE} for it,
+ * so that clients drop their own cached lookups of it.
+ * <p>
+ * Naming events are supported if the local context is an {@link EventContext}.  The first subscription of a channel
+ * registers one listener for the whole namespace of the local context, and each change it reports is sent once, as a
+ * {@link Protocol#MSG_EVENT}, if it matches any subscription of the channel.  Otherwise requests to add a listener
+ * are refused.
+ * <p>
+ * A listing which does not fit in its first page stays open on its channel until the client reads it to the end or
+ * closes it.  A channel may have at most {@value #MAX_CURSORS} listings open, and a listing which is not read for
+ * {@value #CURSOR_IDLE_TIMEOUT_SECONDS} seconds is closed when the channel next opens one, so that a client which
+ * never closes its listings cannot hold the resources of the local context forever.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class NamingServer implements OpenListener {
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    /**
+     * The largest number of listings which may be open on one channel.
+     */
+    static final int MAX_CURSORS = 64;
+
+    /**
+     * The time after which a listing which is not read may be closed.
+     */
+    static final long CURSOR_IDLE_TIMEOUT_SECONDS = 300L;
+
+    private static final long CURSOR_IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(CURSOR_IDLE_TIMEOUT_SECONDS);
+
+    private final Context localContext;
+    private final Executor executor;
+    private final MarshallingPool marshallingPool;
+    private final Limiter[] limiters;
+    private final Set<ServerChannel> channels = Collections.newSetFromMap(new ConcurrentHashMap<ServerChannel, Boolean>());
+    private volatile LookupCache responseCache;
+    private volatile long responseCacheTtl;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param localContext the context to serve
+     * @param executor the executor which runs requests
+     */
+    public NamingServer(final Context localContext, final Executor executor) {
+        this(localContext, executor, null);
+    }
+
+    /**
+     * Construct a new instance with a class dictionary.
+     *
+     * @param localContext the context to serve
+     * @param executor the executor which runs requests
+     * @param userClasses the user classes of the class dictionary, which must be those of the
+     *      {@link RemoteContext#CLASS_DICTIONARY} of the clients, or {@code null} for none
+     */
+    public NamingServer(final Context localContext, final Executor executor, final Class<?>[] userClasses) {
+        if (localContext == null) {
+            throw new IllegalArgumentException("localContext is null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+        this.localContext = localContext;
+        this.executor = executor;
+        final MarshallingConfiguration configuration = new MarshallingConfiguration();
+        configuration.setVersion(3);
+        configuration.setClassTable(NamingClassTable.forUserClasses(userClasses));
+        configuration.setObjectTable(new ServerObjectTable());
+        marshallingPool = new MarshallingPool(Marshalling.getProvidedMarshallerFactory("river"), configuration);
+        final NamingOperation[] operations = NamingOperation.values();
+        limiters = new Limiter[operations.length];
+        for (int i = 0; i < operations.length; i ++) {
+            limiters[i] = new Limiter();
+        }
+    }
+
+    /**
+     * Register this server as the naming service of an endpoint.
+     *
+     * @param endpoint the endpoint
+     * @return the service registration
+     * @throws ServiceRegistrationException if the naming service is already registered
+     */
+    public Registration start(final Endpoint endpoint) throws ServiceRegistrationException {
+        return endpoint.registerService(NamingClientRegistry.SERVICE_NAME, this, OptionMap.EMPTY);
+    }
+
+    /**
+     * Get the number of requests of an operation which may run at once.
+     *
+     * @param operation the operation
+     * @return the limit, or {@link Integer#MAX_VALUE} if there is none
+     */
+    public int getConcurrencyLimit(final NamingOperation operation) {
+        return limiters[operation.ordinal()].getLimit();
+    }
+
+    /**
+     * Set the number of requests of an operation which may run at once.  Requests which already run are not
+     * affected; if the limit is raised, waiting requests are started at once.
+     *
+     * @param operation the operation
+     * @param limit the limit, or {@link Integer#MAX_VALUE} for none
+     */
+    public void setConcurrencyLimit(final NamingOperation operation, final int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        for (ServerRequest request : limiters[operation.ordinal()].setLimit(limit)) {
+            start(request);
+        }
+    }
+
+    /**
+     * Cache the replies to lookups.  A cached reply is sent by copying its bytes, without looking the name up or
+     * marshalling the value again, which makes repeated lookups of popular bindings cheap.  The binds, rebinds,
+     * unbinds and renames which this server performs invalidate the entries they affect; changes made to the local
+     * context by other means are seen when the entries expire, or at once if {@linkplain #invalidate(Name) reported}.
+     * Since a value is marshalled once, later changes to the state of a bound object are not seen either.
+     *
+     * @param maxSize the largest number of cached replies, or 0 to stop caching
+     * @param ttlMillis the time in milliseconds for which a reply is cached; ignored if {@code maxSize} is 0
+     */
+    public void setResponseCache(final int maxSize, final long ttlMillis) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize is negative");
+        }
+        if (maxSize > 0 && ttlMillis <= 0L) {
+            throw new IllegalArgumentException("ttlMillis must be positive");
+        }
+        responseCacheTtl = ttlMillis;
+        responseCache = maxSize == 0 ? null : new LookupCache(maxSize);
+    }
+
+    /**
+     * Discard the cached replies to lookups of a name and of all the names beneath it, and tell every connected client
+     * to do the same.  Call this after changing the local context other than through this server.
+     *
+     * @param name the name, relative to the local context; the empty name discards every cached reply
+     */
+    public void invalidate(final Name name) {
+        final LookupCache responseCache = this.responseCache;
+        if (responseCache != null) {
+            responseCache.invalidate(name.toString());
+        }
+        final String key = name.toString();
+        for (ServerChannel channel : channels) {
+            channel.sendInvalidate(key);
+        }
+    }
+
+    public void channelOpened(final Channel channel) {
+        final ServerChannel serverChannel = new ServerChannel(channel);
+        channels.add(serverChannel);
+        channel.receiveMessage(serverChannel);
+    }
+
+    public void registrationTerminated() {
+    }
+
+    private void start(ServerRequest request) {
+        while (request != null) {
+            try {
+                executor.execute(request);
+                return;
+            } catch (RejectedExecutionException e) {
+                request.abandon(Protocol.ERR_OTHER, log.serverBusy(e));
+                request = request.limiter.next();
+            }
+        }
+    }
+
+    /**
+     * Get the operation of a request message type, by which its concurrency is limited.
+     *
+     * @param msg the message type
+     * @return the operation, or {@code null} if the message type is not supported
+     */
+    private static NamingOperation getOperation(final int msg) {
+        switch (msg) {
+            case Protocol.MSG_LOOKUP: return NamingOperation.LOOKUP;
+            case Protocol.MSG_BIND: return NamingOperation.BIND;
+            case Protocol.MSG_REBIND: return NamingOperation.REBIND;
+            case Protocol.MSG_UNBIND: return NamingOperation.UNBIND;
+            case Protocol.MSG_RENAME: return NamingOperation.RENAME;
+            case Protocol.MSG_LIST: return NamingOperation.LIST;
+            case Protocol.MSG_LIST_BINDINGS: return NamingOperation.LIST_BINDINGS;
+            case Protocol.MSG_DESTROY_SUBCONTEXT: return NamingOperation.DESTROY_SUBCONTEXT;
+            case Protocol.MSG_CREATE_SUBCONTEXT: return NamingOperation.CREATE_SUBCONTEXT;
+            case Protocol.MSG_LOOKUP_LINK: return NamingOperation.LOOKUP_LINK;
+            case Protocol.MSG_LOOKUP_BATCH: return NamingOperation.LOOKUP_ALL;
+            case Protocol.MSG_LIST_NEXT: return NamingOperation.LIST_NEXT;
+            case Protocol.MSG_LIST_CLOSE: return NamingOperation.LIST_CLOSE;
+            case Protocol.MSG_ADD_LISTENER: return NamingOperation.ADD_NAMING_LISTENER;
+            case Protocol.MSG_REMOVE_LISTENER: return NamingOperation.REMOVE_NAMING_LISTENER;
+            default: return null;
+        }
+    }
+
+    private static int readByte(final InputStream is) throws IOException {
+        final int v = is.read();
+        if (v == -1) {
+            throw new EOFException();
+        }
+        return v;
+    }
+
+    private static int readInt(final InputStream is) throws IOException {
+        return readByte(is) << 24 | readByte(is) << 16 | readByte(is) << 8 | readByte(is);
+    }
+
+    private static Name toName(final Object name) throws InvalidNameException {
+        return name instanceof Name ? (Name) name : new CompositeName((String) name);
+    }
+
+    /**
+     * Replace a local context in a reply by a handle, which the client reads as a remote context of the same name.
+     *
+     * @param name the absolute name of the value
+     * @param value the value
+     * @return the value to send
+     */
+    private static Object export(final Name name, final Object value) {
+        if (value instanceof Context) {
+            safeClose((Context) value);
+            return new ContextHandle(name);
+        }
+        return value;
+    }
+
+    /**
+     * Replace a local context in an event by a handle.  Unlike {@link #export(Name, Object)}, the context is left
+     * open, since it is the bound object itself.
+     *
+     * @param name the absolute name of the value
+     * @param value the value
+     * @return the value to send
+     */
+    private static Object exportBound(final Name name, final Object value) {
+        return value instanceof Context ? new ContextHandle(name) : value;
+    }
+
+    private static void safeClose(final Context context) {
+        try {
+            context.close();
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private static void safeClose(final NamingEnumeration<?> enumeration) {
+        try {
+            enumeration.close();
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * The requests of one operation which may run at once.  Requests over the limit wait in order of arrival; a
+     * finishing request hands its place to the next one, which its thread then runs.
+     */
+    static final class Limiter {
+        private final ArrayDeque<ServerRequest> waiting = new ArrayDeque<ServerRequest>();
+        private int limit = Integer.MAX_VALUE;
+        private int running;
+
+        synchronized int getLimit() {
+            return limit;
+        }
+
+        synchronized List<ServerRequest> setLimit(final int limit) {
+            this.limit = limit;
+            final List<ServerRequest> started = new ArrayList<ServerRequest>();
+            while (running < limit && ! waiting.isEmpty()) {
+                running ++;
+                started.add(waiting.poll());
+            }
+            return started;
+        }
+
+        /**
+         * Take a place for a request, or queue the request if none is free.
+         *
+         * @param request the request
+         * @return {@code true} if the request should be started, {@code false} if it was queued
+         */
+        synchronized boolean enter(final ServerRequest request) {
+            if (running < limit) {
+                running ++;
+                return true;
+            }
+            waiting.add(request);
+            return false;
+        }
+
+        /**
+         * Give up the place of a finished request.
+         *
+         * @return the waiting request which takes over the place, or {@code null} if there is none
+         */
+        synchronized ServerRequest next() {
+            if (running <= limit) {
+                final ServerRequest request = waiting.poll();
+                if (request != null) {
+                    return request;
+                }
+            }
+            running --;
+            return null;
+        }
+    }
+
+    /**
+     * The body of a reply, written after the status byte.
+     */
+    interface ReplyBody {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * A reply body which is written in a marshalling stream of its own.
+     */
+    abstract class MarshalledBody implements ReplyBody {
+        public void writeTo(final OutputStream out) throws IOException {
+            final Marshaller marshaller = marshallingPool.getMarshaller();
+            marshaller.start(Marshalling.createByteOutput(out));
+            writeTo(marshaller);
+            marshaller.finish();
+            marshallingPool.returnMarshaller(marshaller);
+        }
+
+        abstract void writeTo(Marshaller marshaller) throws IOException;
+    }
+
+    /**
+     * A reply body which was marshalled before, and is copied as it is.
+     */
+    static final class BytesBody implements ReplyBody {
+        private final byte[] bytes;
+
+        BytesBody(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public void writeTo(final OutputStream out) throws IOException {
+            out.write(bytes);
+        }
+    }
+
+    final class ValueBody extends MarshalledBody {
+        private final Object value;
+
+        ValueBody(final Object value) {
+            this.value = value;
+        }
+
+        void writeTo(final Marshaller marshaller) throws IOException {
+            marshaller.writeObject(value);
+        }
+    }
+
+    final class PageBody extends MarshalledBody {
+        private final int cursor;
+        private final List<Object> entries;
+
+        PageBody(final int cursor, final List<Object> entries) {
+            this.cursor = cursor;
+            this.entries = entries;
+        }
+
+        void writeTo(final Marshaller marshaller) throws IOException {
+            marshaller.writeInt(cursor);
+            marshaller.writeInt(entries.size());
+            for (Object entry : entries) {
+                marshaller.writeObject(entry);
+            }
+        }
+    }
+
+    final class BatchBody extends MarshalledBody {
+        private final int[] statuses;
+        private final Object[] values;
+
+        BatchBody(final int[] statuses, final Object[] values) {
+            this.statuses = statuses;
+            this.values = values;
+        }
+
+        void writeTo(final Marshaller marshaller) throws IOException {
+            for (int i = 0; i < statuses.length; i ++) {
+                marshaller.writeByte(statuses[i]);
+                marshaller.writeObject(values[i]);
+            }
+        }
+    }
+
+    /**
+     * A local context in a reply, sent as a {@link Protocol#OBJ_CONTEXT} handle.
+     */
+    static final class ContextHandle {
+        private final Name name;
+
+        ContextHandle(final Name name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * An open listing whose first page has been sent.
+     */
+    static final class Cursor {
+        private final NamingEnumeration<?> enumeration;
+        private final Name name;
+        private boolean closed;
+        /** When a page was last read, from {@link System#nanoTime()} */
+        private volatile long lastUsed = System.nanoTime();
+
+        Cursor(final NamingEnumeration<?> enumeration, final Name name) {
+            this.enumeration = enumeration;
+            this.name = name;
+        }
+
+        boolean isIdle(final long now) {
+            return now - lastUsed > CURSOR_IDLE_TIMEOUT_NANOS;
+        }
+
+        /**
+         * Read the next page of the listing.  The cursor is closed if the listing ends or fails.
+         *
+         * @param window the largest number of entries to read
+         * @param entries the list to add the entries to
+         * @return {@code true} if more entries remain
+         * @throws NamingException if the listing failed or the cursor is closed
+         */
+        synchronized boolean readPage(final int window, final List<Object> entries) throws NamingException {
+            if (closed) {
+                throw new NamingException("Listing is closed");
+            }
+            lastUsed = System.nanoTime();
+            boolean ok = false;
+            try {
+                while (entries.size() < window && enumeration.hasMore()) {
+                    Object entry = enumeration.next();
+                    if (entry instanceof Binding) {
+                        final Binding binding = (Binding) entry;
+                        if (binding.isRelative() && binding.getObject() instanceof Context) {
+                            final Name bindingName = ((Name) name.clone()).addAll(new CompositeName(binding.getName()));
+                            entry = new Binding(binding.getName(), binding.getClassName(), export(bindingName, binding.getObject()), true);
+                        }
+                    }
+                    entries.add(entry);
+                }
+                final boolean more = enumeration.hasMore();
+                if (! more) {
+                    close();
+                }
+                ok = true;
+                return more;
+            } finally {
+                if (! ok) {
+                    close();
+                }
+            }
+        }
+
+        synchronized void close() {
+            if (! closed) {
+                closed = true;
+                safeClose(enumeration);
+            }
+        }
+    }
+
+    final class ServerObjectTable implements ObjectTable {
+
+        private final Writer contextWriter = new Writer() {
+            public void writeObject(final Marshaller marshaller, final Object object) throws IOException {
+                final Name name = ((ContextHandle) object).name;
+                final int size = name.size();
+                marshaller.writeByte(Protocol.OBJ_CONTEXT);
+                marshaller.writeInt(size);
+                for (int i = 0; i < size; i ++) {
+                    marshaller.writeUTF(name.get(i));
+                }
+            }
+        };
+
+        public Writer getObjectWriter(final Object object) throws IOException {
+            return object instanceof ContextHandle ? contextWriter : null;
+        }
+
+        public Object readObject(final Unmarshaller unmarshaller) throws IOException, ClassNotFoundException {
+            final int kind = unmarshaller.readUnsignedByte();
+            if (kind != Protocol.OBJ_CONTEXT) {
+                throw new StreamCorruptedException("Unknown object table entry " + kind);
+            }
+            final int size = unmarshaller.readInt();
+            if (size < 0) {
+                throw new StreamCorruptedException("Invalid context handle");
+            }
+            final CompositeName name = new CompositeName();
+            try {
+                for (int i = 0; i < size; i ++) {
+                    name.add(unmarshaller.readUTF());
+                }
+                // the handle names a context of this server
+                return localContext.lookup(name);
+            } catch (NamingException e) {
+                final InvalidObjectException ioe = new InvalidObjectException("Cannot resolve context handle " + name);
+                ioe.initCause(e);
+                throw ioe;
+            }
+        }
+    }
+
+    /**
+     * A subscription of a client to naming events.
+     */
+    static final class Subscription {
+        private final Name target;
+        private final int scope;
+
+        Subscription(final Name target, final int scope) {
+            this.target = target;
+            this.scope = scope;
+        }
+
+        /**
+         * Determine whether a change to a name is covered by this subscription.
+         *
+         * @param name the absolute name which changed
+         * @return {@code true} if the name is covered
+         */
+        boolean covers(final Name name) {
+            if (name == null || ! name.startsWith(target)) {
+                return false;
+            }
+            switch (name.size() - target.size()) {
+                case 0: return scope != EventContext.ONELEVEL_SCOPE;
+                case 1: return scope != EventContext.OBJECT_SCOPE;
+                default: return scope == EventContext.SUBTREE_SCOPE;
+            }
+        }
+    }
+
+    /**
+     * A request which has been read in full and waits for, or holds, a place to run.  Its state is guarded by the
+     * request itself, so that a {@link Protocol#MSG_CANCEL} is answered only after the reply to its target.
+     */
+    final class ServerRequest implements Runnable {
+        private final ServerChannel channel;
+        private final int msg;
+        private final int id;
+        private final boolean hasDeadline;
+        private final long deadline;
+        private final InputStream body;
+        private final Limiter limiter;
+        private int state = QUEUED;
+        private int cancelId = -1;
+
+        ServerRequest(final ServerChannel channel, final int msg, final int id, final boolean hasDeadline, final long deadline, final InputStream body, final Limiter limiter) {
+            this.channel = channel;
+            this.msg = msg;
+            this.id = id;
+            this.hasDeadline = hasDeadline;
+            this.deadline = deadline;
+            this.body = body;
+            this.limiter = limiter;
+        }
+
+        public void run() {
+            ServerRequest request = this;
+            do {
+                request.execute();
+            } while ((request = limiter.next()) != null);
+        }
+
+        private void execute() {
+            synchronized (this) {
+                if (state != QUEUED) {
+                    return;
+                }
+                state = RUNNING;
+            }
+            try {
+                if (hasDeadline && deadline - System.nanoTime() <= 0L) {
+                    channel.send(id, Protocol.ERR_CANCELLED, null);
+                } else {
+                    channel.handle(this);
+                }
+            } finally {
+                IoUtils.safeClose(body);
+                channel.requests.remove(Integer.valueOf(id), this);
+                final int cancelId;
+                synchronized (this) {
+                    state = DONE;
+                    cancelId = this.cancelId;
+                }
+                if (cancelId != -1) {
+                    channel.send(cancelId, 0, null);
+                }
+            }
+        }
+
+        /**
+         * Answer the request without running it, if it has not started.
+         *
+         * @param status the status to send
+         * @param cause the cause to send
+         * @return {@code true} if the request was answered, {@code false} if it has already started
+         */
+        boolean abandon(final int status, final Throwable cause) {
+            synchronized (this) {
+                if (state != QUEUED) {
+                    return false;
+                }
+                state = DONE;
+            }
+            IoUtils.safeClose(body);
+            channel.requests.remove(Integer.valueOf(id), this);
+            channel.send(id, status, new ValueBody(cause));
+            return true;
+        }
+
+        /**
+         * Note a cancel request for this request.
+         *
+         * @param cancelId the ID of the cancel request
+         * @return {@code true} if the cancel request is answered when this request finishes, {@code false} if the
+         *      caller should answer it
+         */
+        boolean cancel(final int cancelId) {
+            synchronized (this) {
+                if (state == RUNNING) {
+                    this.cancelId = cancelId;
+                    return true;
+                }
+            }
+            abandon(Protocol.ERR_CANCELLED, null);
+            return false;
+        }
+    }
+
+    final class ServerChannel implements Channel.Receiver {
+        private final Channel channel;
+        private final ConcurrentMap<Integer, ServerRequest> requests = new ConcurrentHashMap<Integer, ServerRequest>();
+        private final ConcurrentMap<Integer, Cursor> cursors = new ConcurrentHashMap<Integer, Cursor>();
+        private final AtomicInteger nextCursor = new AtomicInteger();
+        private volatile boolean channelClosed;
+        private final ConcurrentMap<Integer, Subscription> subscriptions = new ConcurrentHashMap<Integer, Subscription>();
+        /** The listener registered with the local context while there are subscriptions; guarded by subscriptions */
+        private EventListener eventListener;
+
+        ServerChannel(final Channel channel) {
+            this.channel = channel;
+        }
+
+        public void handleError(final Channel channel, final IOException error) {
+            log.channelError(channel, error);
+            closed();
+        }
+
+        public void handleEnd(final Channel channel) {
+            log.channelEOF(channel);
+            closed();
+        }
+
+        private void closed() {
+            channelClosed = true;
+            channels.remove(this);
+            IoUtils.safeClose(channel);
+            for (Cursor cursor : cursors.values()) {
+                cursor.close();
+            }
+            cursors.clear();
+            synchronized (subscriptions) {
+                subscriptions.clear();
+                removeEventListener();
+            }
+        }
+
+        /**
+         * Add a subscription, registering the listener of this channel with the local context if it is the first.
+         *
+         * @param id the subscription ID
+         * @param subscription the subscription
+         * @throws NamingException if the listener could not be registered
+         */
+        private void subscribe(final Integer id, final Subscription subscription) throws NamingException {
+            synchronized (subscriptions) {
+                subscriptions.put(id, subscription);
+                if (eventListener == null) {
+                    final EventListener listener = new EventListener();
+                    boolean ok = false;
+                    try {
+                        ((EventContext) localContext).addNamingListener(new CompositeName(), EventContext.SUBTREE_SCOPE, listener);
+                        ok = true;
+                    } finally {
+                        if (! ok) {
+                            subscriptions.remove(id, subscription);
+                        }
+                    }
+                    eventListener = listener;
+                }
+            }
+        }
+
+        private void unsubscribe(final Integer id) {
+            synchronized (subscriptions) {
+                if (subscriptions.remove(id) != null && subscriptions.isEmpty()) {
+                    removeEventListener();
+                }
+            }
+        }
+
+        // call under subscriptions lock
+        private void removeEventListener() {
+            final EventListener listener = eventListener;
+            if (listener != null) {
+                eventListener = null;
+                try {
+                    ((EventContext) localContext).removeNamingListener(listener);
+                } catch (NamingException ignored) {
+                }
+            }
+        }
+
+        /**
+         * Keep a listing open for further pages.  Idle listings are closed first, to make room.
+         *
+         * @param cursor the listing
+         * @return the cursor ID
+         * @throws NamingException if the channel has too many listings open
+         */
+        private int openCursor(final Cursor cursor) throws NamingException {
+            final long now = System.nanoTime();
+            for (Map.Entry<Integer, Cursor> entry : cursors.entrySet()) {
+                final Cursor idle = entry.getValue();
+                if (idle.isIdle(now) && cursors.remove(entry.getKey(), idle)) {
+                    idle.close();
+                }
+            }
+            if (cursors.size() >= MAX_CURSORS) {
+                cursor.close();
+                throw log.tooManyCursors(MAX_CURSORS);
+            }
+            final Integer cursorId = Integer.valueOf(nextCursor.getAndIncrement() & Integer.MAX_VALUE);
+            cursors.put(cursorId, cursor);
+            if (channelClosed && cursors.remove(cursorId, cursor)) {
+                // the channel closed meanwhile, and nothing else will close the listing
+                cursor.close();
+            }
+            return cursorId.intValue();
+        }
+
+        /**
+         * Tell the client to drop its cached lookups of a name.
+         *
+         * @param name the absolute name
+         */
+        void sendInvalidate(final String name) {
+            try {
+                final MessageOutputStream out = channel.writeMessage();
+                boolean ok = false;
+                try {
+                    final DataOutputStream data = new DataOutputStream(out);
+                    data.writeByte(Protocol.MSG_INVALIDATE);
+                    data.writeUTF(name);
+                    data.close();
+                    ok = true;
+                } finally {
+                    if (! ok) {
+                        out.cancel();
+                    }
+                    IoUtils.safeClose(out);
+                }
+            } catch (IOException e) {
+                log.notificationFailed(channel, e);
+            }
+        }
+
+        /**
+         * Send an event, if it matches a subscription of this channel.
+         *
+         * @param event the event reported by the local context
+         */
+        void sendEvent(final NamingEvent event) {
+            final int type = event.getType();
+            final Binding newBinding = event.getNewBinding();
+            final Binding oldBinding = event.getOldBinding();
+            final Binding binding = type == NamingEvent.OBJECT_REMOVED || type == NamingEvent.OBJECT_RENAMED ? oldBinding : newBinding;
+            if (binding == null) {
+                return;
+            }
+            final Name name, newName;
+            try {
+                name = new CompositeName(binding.getName());
+                newName = type == NamingEvent.OBJECT_RENAMED && newBinding != null ? new CompositeName(newBinding.getName()) : null;
+            } catch (InvalidNameException e) {
+                return;
+            }
+            boolean matched = false;
+            for (Subscription subscription : subscriptions.values()) {
+                if (subscription.covers(name) || subscription.covers(newName)) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (! matched) {
+                return;
+            }
+            try {
+                final MessageOutputStream out = channel.writeMessage();
+                boolean ok = false;
+                try {
+                    out.write(Protocol.MSG_EVENT);
+                    out.write(type);
+                    NameEncoding.writeName(out, name, null);
+                    if (type == NamingEvent.OBJECT_RENAMED) {
+                        NameEncoding.writeName(out, newName == null ? name : newName, name);
+                    }
+                    final Marshaller marshaller = marshallingPool.getMarshaller();
+                    marshaller.start(Marshalling.createByteOutput(out));
+                    marshaller.writeObject(newBinding == null ? null : exportBound(newName == null ? name : newName, newBinding.getObject()));
+                    marshaller.writeObject(oldBinding == null ? null : exportBound(name, oldBinding.getObject()));
+                    marshaller.finish();
+                    marshallingPool.returnMarshaller(marshaller);
+                    out.close();
+                    ok = true;
+                } finally {
+                    if (! ok) {
+                        out.cancel();
+                    }
+                    IoUtils.safeClose(out);
+                }
+            } catch (IOException e) {
+                log.notificationFailed(channel, e);
+            }
+        }
+
+        /**
+         * The listener which this channel registers with the local context.
+         */
+        final class EventListener implements NamespaceChangeListener, ObjectChangeListener {
+            public void objectAdded(final NamingEvent evt) {
+                sendEvent(evt);
+            }
+
+            public void objectRemoved(final NamingEvent evt) {
+                sendEvent(evt);
+            }
+
+            public void objectRenamed(final NamingEvent evt) {
+                sendEvent(evt);
+            }
+
+            public void objectChanged(final NamingEvent evt) {
+                sendEvent(evt);
+            }
+
+            public void namingExceptionThrown(final NamingExceptionEvent evt) {
+                log.subscriptionFailed(channel, evt.getException());
+                synchronized (subscriptions) {
+                    if (eventListener == this) {
+                        // the next subscription registers afresh
+                        eventListener = null;
+                    }
+                }
+            }
+        }
+
+        public void handleMessage(final Channel channel, final MessageInputStream message) {
+            ReplyBuffer buffer = null;
+            try {
+                // take the whole message off the channel in one bulk read
+                buffer = ReplyBuffer.read(message);
+                final int msg = readByte(buffer);
+                if (msg == Protocol.MSG_PIPELINE) {
+                    while (buffer.available() > 0) {
+                        final int length = readInt(buffer);
+                        if (length < 1 || length > buffer.available()) {
+                            throw new StreamCorruptedException("Invalid pipelined request length " + length);
+                        }
+                        final byte[] request = new byte[length];
+                        buffer.read(request, 0, length);
+                        final InputStream requestInput = new ByteArrayInputStream(request);
+                        receive(readByte(requestInput), requestInput);
+                    }
+                } else {
+                    // the request takes the buffer over
+                    final ReplyBuffer request = buffer;
+                    buffer = null;
+                    receive(msg, request);
+                }
+            } catch (IOException e) {
+                log.channelError(channel, e);
+                closed();
+                return;
+            } finally {
+                IoUtils.safeClose(message);
+                IoUtils.safeClose(buffer);
+            }
+            channel.receiveMessage(this);
+        }
+
+        private void receive(int msg, final InputStream body) throws IOException {
+            boolean ok = false;
+            try {
+                final int id = readByte(body) << 8 | readByte(body);
+                boolean hasDeadline = false;
+                long deadline = 0L;
+                if ((msg & Protocol.MSG_FLAG_DEADLINE) != 0) {
+                    msg &= ~Protocol.MSG_FLAG_DEADLINE;
+                    hasDeadline = true;
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readInt(body) & 0xFFFFFFFFL);
+                }
+                if (msg == Protocol.MSG_CANCEL) {
+                    final ServerRequest target = requests.get(Integer.valueOf(readByte(body) << 8 | readByte(body)));
+                    if (target == null || ! target.cancel(id)) {
+                        send(id, 0, null);
+                    }
+                    return;
+                }
+                final NamingOperation operation = getOperation(msg);
+                if (operation == null) {
+                    send(id, Protocol.ERR_OTHER, new ValueBody(log.unsupportedMessage(msg)));
+                    return;
+                }
+                final Limiter limiter = limiters[operation.ordinal()];
+                final ServerRequest request = new ServerRequest(this, msg, id, hasDeadline, deadline, body, limiter);
+                requests.put(Integer.valueOf(id), request);
+                ok = true;
+                if (limiter.enter(request)) {
+                    start(request);
+                }
+            } finally {
+                if (! ok) {
+                    IoUtils.safeClose(body);
+                }
+            }
+        }
+
+        /**
+         * Run a request against the local context and answer it.
+         *
+         * @param request the request
+         */
+        void handle(final ServerRequest request) {
+            final InputStream input = request.body;
+            final int id = request.id;
+            try {
+                switch (request.msg) {
+                    case Protocol.MSG_LOOKUP: {
+                        final Name name = toName(NameEncoding.readName(input, null, marshallingPool));
+                        final LookupCache responseCache = NamingServer.this.responseCache;
+                        if (responseCache == null) {
+                            send(id, 0, new ValueBody(export(name, localContext.lookup(name))));
+                            break;
+                        }
+                        final String key = name.toString();
+                        final LookupCache.Entry entry = responseCache.get(key);
+                        if (entry != null) {
+                            send(id, 0, new BytesBody((byte[]) entry.getValue()));
+                            break;
+                        }
+                        final long stamp = responseCache.getStamp();
+                        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        new ValueBody(export(name, localContext.lookup(name))).writeTo(bytes);
+                        final byte[] reply = bytes.toByteArray();
+                        responseCache.put(key, reply, responseCacheTtl, stamp);
+                        send(id, 0, new BytesBody(reply));
+                        break;
+                    }
+                    case Protocol.MSG_LOOKUP_LINK: {
+                        final Name name = toName(NameEncoding.readName(input, null, marshallingPool));
+                        send(id, 0, new ValueBody(export(name, localContext.lookupLink(name))));
+                        break;
+                    }
+                    case Protocol.MSG_BIND:
+                    case Protocol.MSG_REBIND: {
+                        final Name name = toName(NameEncoding.readName(input, null, marshallingPool));
+                        final Object value = readArguments(input, 1)[0];
+                        try {
+                            if (request.msg == Protocol.MSG_BIND) {
+                                localContext.bind(name, value);
+                            } else {
+                                localContext.rebind(name, value);
+                            }
+                        } finally {
+                            invalidate(name);
+                        }
+                        send(id, 0, null);
+                        break;
+                    }
+                    case Protocol.MSG_UNBIND: {
+                        final Name name = toName(NameEncoding.readName(input, null, marshallingPool));
+                        try {
+                            localContext.unbind(name);
+                        } finally {
+                            invalidate(name);
+                        }
+                        send(id, 0, null);
+                        break;
+                    }
+                    case Protocol.MSG_DESTROY_SUBCONTEXT: {
+                        final Name name = toName(NameEncoding.readName(input, null, marshallingPool));
+                        try {
+                            localContext.destroySubcontext(name);
+                        } finally {
+                            invalidate(name);
+                        }
+                        send(id, 0, null);
+                        break;
+                    }
+                    case Protocol.MSG_CREATE_SUBCONTEXT: {
+                        final Name name = toName(NameEncoding.readName(input, null, marshallingPool));
+                        try {
+                            safeClose(localContext.createSubcontext(name));
+                        } finally {
+                            invalidate(name);
+                        }
+                        send(id, 0, new ValueBody(name));
+                        break;
+                    }
+                    case Protocol.MSG_RENAME: {
+                        final Object first = NameEncoding.readName(input, null, marshallingPool);
+                        final Name oldName = toName(first);
+                        final Name newName = toName(NameEncoding.readName(input, first, marshallingPool));
+                        try {
+                            localContext.rename(oldName, newName);
+                        } finally {
+                            invalidate(oldName);
+                            invalidate(newName);
+                        }
+                        send(id, 0, null);
+                        break;
+                    }
+                    case Protocol.MSG_LIST:
+                    case Protocol.MSG_LIST_BINDINGS: {
+                        final Name name = toName(NameEncoding.readName(input, null, marshallingPool));
+                        final int window = ((Integer) readArguments(input, 1)[0]).intValue();
+                        final NamingEnumeration<?> enumeration = request.msg == Protocol.MSG_LIST ? localContext.list(name) : localContext.listBindings(name);
+                        final Cursor cursor = new Cursor(enumeration, name);
+                        final List<Object> entries = new ArrayList<Object>();
+                        final int cursorId = cursor.readPage(Math.max(1, window), entries) ? openCursor(cursor) : Protocol.NO_CURSOR;
+                        send(id, 0, new PageBody(cursorId, entries));
+                        break;
+                    }
+                    case Protocol.MSG_LIST_NEXT: {
+                        final Object[] args = readArguments(input, 2);
+                        final Integer cursorId = (Integer) args[0];
+                        final int window = ((Integer) args[1]).intValue();
+                        final Cursor cursor = cursors.get(cursorId);
+                        if (cursor == null) {
+                            throw log.unknownCursor(cursorId.intValue());
+                        }
+                        final List<Object> entries = new ArrayList<Object>();
+                        boolean more = false;
+                        try {
+                            more = cursor.readPage(Math.max(1, window), entries);
+                        } finally {
+                            if (! more) {
+                                cursors.remove(cursorId, cursor);
+                            }
+                        }
+                        send(id, 0, new PageBody(more ? cursorId.intValue() : Protocol.NO_CURSOR, entries));
+                        break;
+                    }
+                    case Protocol.MSG_LIST_CLOSE: {
+                        final Cursor cursor = cursors.remove(readArguments(input, 1)[0]);
+                        if (cursor != null) {
+                            cursor.close();
+                        }
+                        send(id, 0, null);
+                        break;
+                    }
+                    case Protocol.MSG_ADD_LISTENER: {
+                        if (! (localContext instanceof EventContext)) {
+                            throw log.unsupportedMessage(request.msg);
+                        }
+                        final Name name = toName(NameEncoding.readName(input, null, marshallingPool));
+                        final Object[] args = readArguments(input, 2);
+                        final int scope = ((Integer) args[1]).intValue();
+                        if (scope != EventContext.OBJECT_SCOPE && scope != EventContext.ONELEVEL_SCOPE && scope != EventContext.SUBTREE_SCOPE) {
+                            throw log.invalidScope(scope);
+                        }
+                        subscribe((Integer) args[0], new Subscription(name, scope));
+                        send(id, 0, null);
+                        break;
+                    }
+                    case Protocol.MSG_REMOVE_LISTENER: {
+                        unsubscribe((Integer) readArguments(input, 1)[0]);
+                        send(id, 0, null);
+                        break;
+                    }
+                    case Protocol.MSG_LOOKUP_BATCH: {
+                        final int count = readInt(input);
+                        if (count < 0) {
+                            throw new StreamCorruptedException("Invalid batch size " + count);
+                        }
+                        // read every name before looking any up, so a bad request fails as a whole
+                        final Name[] names = new Name[count];
+                        Object previous = null;
+                        for (int i = 0; i < count; i ++) {
+                            previous = NameEncoding.readName(input, previous, marshallingPool);
+                            names[i] = toName(previous);
+                        }
+                        final int[] statuses = new int[count];
+                        final Object[] values = new Object[count];
+                        for (int i = 0; i < count; i ++) {
+                            try {
+                                values[i] = export(names[i], localContext.lookup(names[i]));
+                            } catch (NameNotFoundException e) {
+                                statuses[i] = Protocol.ERR_NAME_NOT_FOUND;
+                                values[i] = e;
+                            } catch (NamingException e) {
+                                statuses[i] = Protocol.ERR_OTHER;
+                                values[i] = e;
+                            }
+                        }
+                        send(id, 0, new BatchBody(statuses, values));
+                        break;
+                    }
+                    default: {
+                        throw log.unsupportedMessage(request.msg);
+                    }
+                }
+            } catch (NameNotFoundException e) {
+                send(id, Protocol.ERR_NAME_NOT_FOUND, new ValueBody(e));
+            } catch (Throwable t) {
+                // every request is answered, whatever went wrong
+                send(id, Protocol.ERR_OTHER, new ValueBody(t));
+            }
+        }
+
+        private Object[] readArguments(final InputStream input, final int count) throws IOException, ClassNotFoundException {
+            final Unmarshaller unmarshaller = marshallingPool.getUnmarshaller();
+            unmarshaller.start(Marshalling.createByteInput(input));
+            final Object[] args = new Object[count];
+            for (int i = 0; i < count; i ++) {
+                args[i] = unmarshaller.readObject();
+            }
+            unmarshaller.finish();
+            marshallingPool.returnUnmarshaller(unmarshaller);
+            return args;
+        }
+
+        /**
+         * Send a reply.  If the body cannot be written, an error reply without a cause is sent instead.
+         *
+         * @param requestId the request ID
+         * @param status the status
+         * @param body the reply body, or {@code null} for none
+         */
+        void send(final int requestId, final int status, final ReplyBody body) {
+            try {
+                write(requestId, status, body);
+            } catch (IOException e) {
+                if (body == null) {
+                    log.replyFailed(channel, e);
+                    return;
+                }
+                try {
+                    write(requestId, status == 0 ? Protocol.ERR_OTHER : status, new ValueBody(null));
+                } catch (IOException e2) {
+                    log.replyFailed(channel, e2);
+                }
+            }
+        }
+
+        private void write(final int requestId, final int status, final ReplyBody body) throws IOException {
+            final MessageOutputStream out = channel.writeMessage();
+            boolean ok = false;
+            try {
+                out.write(new byte[] { (byte) Protocol.MSG_RESPONSE, (byte) (requestId >> 8), (byte) requestId, (byte) status });
+                if (body != null) {
+                    body.writeTo(out);
+                }
+                out.close();
+                ok = true;
+            } finally {
+                if (! ok) {
+                    out.cancel();
+                }
+                IoUtils.safeClose(out);
+            }
+        }
+    }
+}
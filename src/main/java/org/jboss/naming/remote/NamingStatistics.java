@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link NamingInstrumentation} which keeps counts and latency histograms for each {@link NamingOperation}.
+ * One instance may be shared by any number of contexts.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class NamingStatistics implements NamingInstrumentation {
+
+    private static final NamingOperation[] OPERATIONS = NamingOperation.values();
+
+    private final AtomicLongArray counts = new AtomicLongArray(OPERATIONS.length);
+    private final AtomicLongArray failures = new AtomicLongArray(OPERATIONS.length);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(OPERATIONS.length);
+    private final LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length];
+
+    /**
+     * Construct a new instance.
+     */
+    public NamingStatistics() {
+        for (int i = 0; i < histograms.length; i ++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void operationCompleted(final NamingOperation operation, final long nanos, final boolean failed) {
+        final int idx = operation.ordinal();
+        counts.incrementAndGet(idx);
+        if (failed) {
+            failures.incrementAndGet(idx);
+        }
+        totalNanos.addAndGet(idx, nanos);
+        histograms[idx].record(nanos);
+    }
+
+    /**
+     * Get the number of completed operations of a kind, including failed ones.
+     *
+     * @param operation the operation
+     * @return the count
+     */
+    public long getCount(final NamingOperation operation) {
+        return counts.get(operation.ordinal());
+    }
+
+    /**
+     * Get the number of failed operations of a kind.
+     *
+     * @param operation the operation
+     * @return the count
+     */
+    public long getFailureCount(final NamingOperation operation) {
+        return failures.get(operation.ordinal());
+    }
+
+    /**
+     * Get the total time spent in operations of a kind.
+     *
+     * @param operation the operation
+     * @return the time in nanoseconds
+     */
+    public long getTotalNanos(final NamingOperation operation) {
+        return totalNanos.get(operation.ordinal());
+    }
+
+    /**
+     * Get an upper bound for a latency percentile of operations of a kind.  The result is accurate to within 12.5%.
+     *
+     * @param operation the operation
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency in nanoseconds, or 0 if no operation was recorded
+     */
+    public long getLatencyPercentile(final NamingOperation operation, final double percentile) {
+        return histograms[operation.ordinal()].getPercentile(percentile);
+    }
+
+    /**
+     * Clear all statistics.
+     */
+    public void reset() {
+        for (int i = 0; i < OPERATIONS.length; i ++) {
+            counts.set(i, 0L);
+            failures.set(i, 0L);
+            totalNanos.set(i, 0L);
+            histograms[i].reset();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.NoSuchElementException;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+/**
+ * An enumeration over a listing which the server sends one page at a time.  While the caller works through one
+ * page, the next is already being requested, so at most two pages are held at once regardless of the size of the
+ * listing.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class PagedNamingEnumeration<T> implements NamingEnumeration<T> {
+
+    private static final Object[] NO_ENTRIES = new Object[0];
+
+    private final RemoteContext context;
+    private final Class<T> entryType;
+    private Object[] entries;
+    private int position;
+    private int cursor;
+    private NamingFuture<ResultHolder.Page> nextPage;
+
+    PagedNamingEnumeration(final RemoteContext context, final Class<T> entryType, final ResultHolder.Page firstPage) throws NamingException {
+        this.context = context;
+        this.entryType = entryType;
+        install(firstPage);
+    }
+
+    private void install(final ResultHolder.Page page) throws NamingException {
+        entries = page.getEntries();
+        position = 0;
+        cursor = page.getCursor();
+        if (cursor != Protocol.NO_CURSOR) {
+            nextPage = context.requestNextPage(entryType, cursor);
+        }
+    }
+
+    public T next() throws NamingException {
+        if (! hasMore()) {
+            throw new NoSuchElementException("Moved past the end of the enumeration");
+        }
+        return take();
+    }
+
+    private T take() {
+        final Object entry = entries[position];
+        // let the entry go as soon as it is handed out
+        entries[position ++] = null;
+        return entryType.cast(entry);
+    }
+
+    public boolean hasMore() throws NamingException {
+        while (position == entries.length) {
+            final NamingFuture<ResultHolder.Page> nextPage = this.nextPage;
+            if (nextPage == null) {
+                return false;
+            }
+            this.nextPage = null;
+            install(nextPage.getResult());
+        }
+        return true;
+    }
+
+    public void close() throws NamingException {
+        entries = NO_ENTRIES;
+        position = 0;
+        final NamingFuture<ResultHolder.Page> nextPage = this.nextPage;
+        if (nextPage != null) {
+            this.nextPage = null;
+            nextPage.cancel(false);
+        }
+        // the listing stays open on the server until it is read to the end, even if the request for a page failed
+        final int cursor = this.cursor;
+        if (cursor != Protocol.NO_CURSOR) {
+            this.cursor = Protocol.NO_CURSOR;
+            context.closeCursor(cursor);
+        }
+    }
+
+    public boolean hasMoreElements() {
+        try {
+            return hasMore();
+        } catch (NamingException e) {
+            return false;
+        }
+    }
+
+    public T nextElement() {
+        if (! hasMoreElements()) {
+            throw new NoSuchElementException("Moved past the end of the enumeration");
+        }
+        return take();
+    }
+}
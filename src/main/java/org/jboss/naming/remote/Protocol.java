@@ -27,6 +27,51 @@ package org.jboss.naming.remote;
  */
 final class Protocol {
 
+    /**
+     * The largest request ID.  Every request begins with <code><i>&lt;msg&gt;</i> <i>&lt;request-id&gt;</i></code>, and
+     * every response with <code>MSG_RESPONSE <i>&lt;request-id&gt;</i></code>, where the request ID is an unsigned
+     * 16-bit big-endian value.  The server sends exactly one response for each request it receives.
+     */
+    static final int MAX_REQUEST_ID = 0xFFFF;
+
+    /**
+     * Flag which may be set on the message type of a request to indicate that a deadline follows the request ID:
+     * <p><code><i>&lt;msg | MSG_FLAG_DEADLINE&gt;</i> <i>&lt;request-id&gt;</i> <i>&lt;deadline&gt;</i></code>
+     * <p>where <code><i>&lt;deadline&gt;</i></code> is the time in milliseconds, as a 32-bit big-endian value,
+     * after which the client no longer wants the reply.  A server may answer a request whose deadline has passed
+     * with {@link #ERR_CANCELLED} instead of performing it.
+     */
+    static final int MSG_FLAG_DEADLINE = 0x40;
+
+    /**
+     * Name encoding of a string name, which the server parses.  Every <code><i>&lt;name&gt;</i></code> in a request
+     * is written as raw bytes right after the request header, before any marshalled arguments, as one of:
+     * <p><code>NAME_STRING <i>&lt;shared&gt;</i> <i>&lt;string&gt;</i> |</code><br>
+     * <p><code>NAME_COMPOSITE <i>&lt;shared&gt;</i> <i>&lt;count&gt;</i> <i>&lt;string&gt;</i>* |</code><br>
+     * <p><code>NAME_MARSHALLED <i>&lt;length&gt;</i> <i>&lt;name&gt;</i></code>
+     * <p>where each <code><i>&lt;string&gt;</i></code> is a <code><i>&lt;length&gt;</i></code> followed by that many
+     * bytes of UTF-8, and lengths and counts are unsigned integers packed seven bits to the byte, low bits first,
+     * with the high bit set on every byte but the last.  The components of a composite name are written one by one,
+     * so no escaping applies.  <code><i>&lt;shared&gt;</i></code> is the number of leading characters, or components,
+     * which are taken from the previous name of the same kind in the same request; it is always 0 for the first
+     * name of a request.
+     */
+    static final int NAME_STRING = 0;
+
+    /**
+     * Name encoding of a {@link javax.naming.CompositeName}; see {@link #NAME_STRING}.  A client may also send a
+     * string name in this form, split with composite name syntax, so that the server need not parse it.
+     */
+    static final int NAME_COMPOSITE = 1;
+
+    /**
+     * Name encoding of any other kind of {@link javax.naming.Name}, such as a {@link javax.naming.CompoundName},
+     * whose syntax and type the receiver must keep; see {@link #NAME_STRING}.  The name is marshalled on its own,
+     * and <code><i>&lt;length&gt;</i></code> is the size of the marshalled form.  Only requests carry names in this
+     * form.
+     */
+    static final int NAME_MARSHALLED = 2;
+
     /**
      * Look up a name. Type: request-response.  Request format:
      * <p><code><i>&lt;name&gt;</i></code>
@@ -47,12 +92,154 @@ final class Protocol {
     static final int MSG_REBIND = 3;
     static final int MSG_UNBIND = 4;
     static final int MSG_RENAME = 5;
+
+    /**
+     * List a context. Type: request-response.  Request format:
+     * <p><code><i>&lt;name&gt;</i> <i>&lt;window&gt;</i></code>
+     * <p>where <code><i>&lt;window&gt;</i></code> is an integer giving the largest number of entries the client
+     * will accept in the reply.  Response format:
+     * <p><code>0 <i>&lt;cursor&gt;</i> <i>&lt;count&gt;</i> <i>&lt;entry&gt;</i>* |</code><br>
+     * <p><code><i>&lt;errcode&gt;</i> <i>[&lt;cause&gt;]</i></code>
+     * <p>where <code><i>&lt;cursor&gt;</i></code> and <code><i>&lt;count&gt;</i></code> are written with
+     * {@link java.io.DataOutput#writeInt(int)} in the marshalling stream.  If more entries remain, the server keeps
+     * a cursor for the listing and sends its ID, to be used with {@link #MSG_LIST_NEXT} and {@link #MSG_LIST_CLOSE};
+     * otherwise the cursor is {@link #NO_CURSOR}.
+     */
     static final int MSG_LIST = 6;
+
+    /**
+     * List the bindings of a context.  Formats as for {@link #MSG_LIST}.
+     */
     static final int MSG_LIST_BINDINGS = 7;
     static final int MSG_DESTROY_SUBCONTEXT = 8;
     static final int MSG_CREATE_SUBCONTEXT = 9;
     static final int MSG_LOOKUP_LINK = 10;
 
+    /**
+     * Look up several names at once. Type: request-response.  Request format:
+     * <p><code><i>&lt;count&gt;</i> <i>&lt;name&gt;</i>*</code>
+     * <p>where <code><i>&lt;count&gt;</i></code> is a 32-bit big-endian value.  Response format:
+     * <p><code>0 <i>&lt;result&gt;</i>* |</code><br>
+     * <p><code><i>&lt;errcode&gt;</i> <i>[&lt;cause&gt;]</i></code>
+     * <p>with one result per requested name, in request order, each being one of:
+     * <p><code>0 <i>&lt;value&gt;</i> |</code><br>
+     * <p><code><i>&lt;errcode&gt;</i> <i>&lt;cause&gt;</i></code>
+     * <p>All results are written in a single marshalling stream.
+     */
+    static final int MSG_LOOKUP_BATCH = 11;
+
+    /**
+     * Get the next page of a listing. Type: request-response.  Request format:
+     * <p><code><i>&lt;cursor&gt;</i> <i>&lt;window&gt;</i></code>
+     * <p>Response format as for {@link #MSG_LIST}.  The server discards the cursor once the last page is sent.
+     */
+    static final int MSG_LIST_NEXT = 12;
+
+    /**
+     * Discard a listing cursor before the last page has been read. Type: request-response.  Request format:
+     * <p><code><i>&lt;cursor&gt;</i></code>
+     * <p>Response format:
+     * <p><code>0 |</code><br>
+     * <p><code><i>&lt;errcode&gt;</i> <i>[&lt;cause&gt;]</i></code>
+     */
+    static final int MSG_LIST_CLOSE = 13;
+
+    /**
+     * Several requests in one message. Type: container, no reply of its own.  Message format:
+     * <p><code>(<i>&lt;length&gt;</i> <i>&lt;request&gt;</i>)*</code>
+     * <p>where each <code><i>&lt;request&gt;</i></code> is a complete request message, including its message type
+     * and request ID, and <code><i>&lt;length&gt;</i></code> is its size as a 32-bit big-endian value.  The server
+     * handles each request as if it had arrived on its own and replies to each separately.
+     */
+    static final int MSG_PIPELINE = 14;
+
+    /**
+     * Abandon an outstanding request. Type: request-response.  Request format:
+     * <p><code><i>&lt;target-request-id&gt;</i></code>
+     * <p>Response format:
+     * <p><code>0</code>
+     * <p>If the target request is still in progress, the server answers it with {@link #ERR_CANCELLED}, unless it
+     * has already answered it.  The server answers the cancel request itself after that, so once the client has
+     * the reply to the cancel request, no further response for the target can arrive and its ID may be reused.
+     */
+    static final int MSG_CANCEL = 15;
+
+    /**
+     * Subscribe to naming events. Type: request-response.  Request format:
+     * <p><code><i>&lt;name&gt;</i> <i>&lt;subscription-id&gt;</i> <i>&lt;scope&gt;</i></code>
+     * <p>where <code><i>&lt;name&gt;</i></code> is the absolute name of the target, and
+     * <code><i>&lt;subscription-id&gt;</i></code>, which the client chooses, and <code><i>&lt;scope&gt;</i></code>, one
+     * of the {@link javax.naming.event.EventContext} scope constants, are integers.  Response format:
+     * <p><code>0 |</code><br>
+     * <p><code><i>&lt;errcode&gt;</i> <i>[&lt;cause&gt;]</i></code>
+     * <p>From the time the server receives the request, it sends a {@link #MSG_EVENT} for every change the
+     * subscription matches.  Subscriptions end when the channel is closed.
+     */
+    static final int MSG_ADD_LISTENER = 16;
+
+    /**
+     * End a subscription. Type: request-response.  Request format:
+     * <p><code><i>&lt;subscription-id&gt;</i></code>
+     * <p>Response format:
+     * <p><code>0 |</code><br>
+     * <p><code><i>&lt;errcode&gt;</i> <i>[&lt;cause&gt;]</i></code>
+     */
+    static final int MSG_REMOVE_LISTENER = 17;
+
+    /**
+     * The cursor value which indicates that a listing has no more pages.
+     */
+    static final int NO_CURSOR = -1;
+
     static final int MSG_RESPONSE = 0x80;
+
+    /**
+     * Invalidate cached lookup results for a name and all the names beneath it. Type: server-to-client, no reply.
+     * Message format:
+     * <p><code><i>&lt;name&gt;</i></code>
+     * <p>where the absolute name is written in modified UTF-8 as by {@link java.io.DataOutput#writeUTF(String)}.
+     * An empty name invalidates everything.
+     */
+    static final int MSG_INVALIDATE = 0x81;
+
+    /**
+     * A change to a name which matches at least one subscription on the channel. Type: server-to-client, no reply.
+     * Message format:
+     * <p><code><i>&lt;type&gt;</i> <i>&lt;name&gt;</i> <i>[&lt;new-name&gt;]</i> <i>&lt;new-value&gt;</i> <i>&lt;old-value&gt;</i></code>
+     * <p>where <code><i>&lt;type&gt;</i></code> is one byte holding a {@link javax.naming.event.NamingEvent} type
+     * constant, <code><i>&lt;name&gt;</i></code> is the absolute name which was changed, and
+     * <code><i>&lt;new-name&gt;</i></code>, present only for {@link javax.naming.event.NamingEvent#OBJECT_RENAMED},
+     * is the absolute name it was renamed to.  The names are in the name encoding, and the values, either of which
+     * may be {@code null}, follow in a marshalling stream.  The server sends one event per change, however many of
+     * the subscriptions of the channel it matches; the client finds the matching subscriptions itself.
+     */
+    static final int MSG_EVENT = 0x82;
+
+    /**
+     * Object table entry for a context handle.  A context is marshalled as a handle instead of its state when it
+     * belongs to the connection it is sent over, in either direction.  Format, in the marshalling stream:
+     * <p><code>OBJ_CONTEXT <i>&lt;count&gt;</i> <i>&lt;component&gt;</i>*</code>
+     * <p>where <code><i>&lt;count&gt;</i></code> is written with {@link java.io.DataOutput#writeInt(int)} and each
+     * component of the absolute name of the context with {@link java.io.DataOutput#writeUTF(String)}.
+     */
+    static final int OBJ_CONTEXT = 0;
+
+    /**
+     * Get the number of leading request arguments of a message type which are names, and so are written in the
+     * name encoding rather than marshalled.
+     *
+     * @param msg the message type
+     * @return the number of names
+     */
+    static int getNameCount(final int msg) {
+        switch (msg) {
+            case MSG_RENAME: return 2;
+            case MSG_LOOKUP_BATCH: case MSG_LIST_NEXT: case MSG_LIST_CLOSE: case MSG_PIPELINE: case MSG_CANCEL: case MSG_REMOVE_LISTENER: return 0;
+            default: return 1;
+        }
+    }
+
     static final int ERR_OTHER = 1;
+    static final int ERR_NAME_NOT_FOUND = 2;
+    static final int ERR_CANCELLED = 3;
 }
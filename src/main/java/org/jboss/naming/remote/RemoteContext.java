@@ -23,16 +23,15 @@
 package org.jboss.naming.remote;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.jboss.marshalling.Marshaller;
 import org.jboss.marshalling.Marshalling;
-import org.jboss.marshalling.MarshallingConfiguration;
-import org.jboss.marshalling.ObjectTable;
-import org.jboss.marshalling.Unmarshaller;
-import org.jboss.remoting3.MessageOutputStream;
 import org.xnio.IoUtils;
 
 import javax.naming.Binding;
@@ -40,6 +39,7 @@ import javax.naming.CompositeName;
 import javax.naming.Context;
 import javax.naming.Name;
 import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
 import javax.naming.NameParser;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
@@ -51,13 +51,87 @@ import static org.jboss.naming.remote.Log.log;
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
-public final class RemoteContext implements EventContext {
+public final class RemoteContext implements EventContext, AsyncRemoteContext {
+
+    /**
+     * Environment property giving the time, in milliseconds, for which lookup results are cached.  Caching is
+     * disabled if this property is absent or not positive.  Cached results are shared between callers, so this
+     * should only be enabled for bindings whose values are immutable.  Contexts are never cached, since each caller
+     * owns, and closes, the context it looked up.
+     */
+    public static final String LOOKUP_CACHE_TTL = "org.jboss.naming.remote.lookup-cache.ttl";
+
+    /**
+     * Environment property giving the time, in milliseconds, for which a {@link NameNotFoundException} is cached.
+     * Defaults to {@code 0}, meaning that failed lookups are not cached.
+     */
+    public static final String LOOKUP_CACHE_NEGATIVE_TTL = "org.jboss.naming.remote.lookup-cache.negative-ttl";
+
+    /**
+     * Environment property giving the maximum number of cached lookup results.  The cache is shared by all contexts
+     * on the same connection, and is sized by the first context which enables it.  Defaults to {@code 1000}.
+     */
+    public static final String LOOKUP_CACHE_MAX_SIZE = "org.jboss.naming.remote.lookup-cache.max-size";
+
+    /**
+     * Environment property giving the number of entries requested per page when enumerating a context with
+     * {@code list} or {@code listBindings}.  Defaults to {@code 128}.
+     */
+    public static final String LIST_PAGE_SIZE = "org.jboss.naming.remote.list.page-size";
+
+    /**
+     * Environment property giving the time, in milliseconds, after which a synchronous operation gives up with a
+     * {@link javax.naming.TimeLimitExceededException}.  The remaining time is also sent to the server as the
+     * request deadline.  Defaults to {@code 0}, meaning no timeout.  The property may be changed with
+     * {@link #addToEnvironment(String, Object)} to set the timeout for subsequent calls on this context.
+     */
+    public static final String REQUEST_TIMEOUT = "org.jboss.naming.remote.request-timeout";
+
+    /**
+     * Environment property whose value is a {@link NamingInstrumentation} to receive the timing of each operation.
+     * The property is read when the context is created.
+     */
+    public static final String INSTRUMENTATION = "org.jboss.naming.remote.instrumentation";
+
+    /**
+     * Environment property listing user classes to write as one-byte IDs, like the built-in naming classes.  The
+     * value is either a {@code Class[]} or a string of comma-separated class names, and the server must be
+     * configured with the same classes in the same order.
+     */
+    public static final String CLASS_DICTIONARY = "org.jboss.naming.remote.class-dictionary";
+
+    /**
+     * Environment property giving a {@link java.util.concurrent.Executor} on which asynchronous operations are
+     * completed, including unmarshalling their results.  If absent, they are completed on the thread which receives
+     * the reply, which holds up the next message on the channel for as long as the completion takes.
+     */
+    public static final String CALLBACK_EXECUTOR = "org.jboss.naming.remote.callback-executor";
+
+    /**
+     * Environment property giving the Remoting {@link org.jboss.remoting3.Endpoint} through which {@code remote:}
+     * URLs are connected.  If absent, a shared endpoint is created on first use.
+     */
+    public static final String ENDPOINT = "org.jboss.naming.remote.endpoint";
+
+    /**
+     * Environment property which, if {@code true}, coalesces requests made at the same time on a {@code remote:}
+     * connection into a single message.  The server must support pipelined requests.  The property is read when
+     * the connection is opened, and contexts which share the connection share its setting.  Defaults to
+     * {@code false}.
+     */
+    public static final String PIPELINE = "org.jboss.naming.remote.pipeline";
+
+    /**
+     * Environment property giving the number of channels opened on a {@code remote:} connection.  Requests are
+     * spread over the channels, and a channel which fails is reopened in the background.  The property is read when
+     * the connection is opened, and contexts which share the connection share its channels.  Defaults to {@code 1},
+     * which uses a single channel.
+     */
+    public static final String CHANNEL_POOL_SIZE = "org.jboss.naming.remote.channel-pool-size";
 
     private static final Name ROOT_NAME = new CompositeName();
     private static final ListenerRegistration[] NO_REGISTRATIONS = new ListenerRegistration[0];
 
-    private static final String FQCN = RemoteContext.class.getName();
-
     @SuppressWarnings("unused")
     private volatile int state;
     private volatile ListenerRegistration[] listenerRegistrations = NO_REGISTRATIONS;
@@ -67,32 +141,61 @@ public final class RemoteContext implements EventContext {
 
     /** Absolute name of this context. */
     private final Name name;
-    private final Hashtable<Object, Object> environment;
-    private final NamingClient client;
-    private final MarshallingConfiguration contextConfig;
+    /** The environment, which is copied before it is first modified if it is shared with another context */
+    private Hashtable<Object, Object> environment;
+    private boolean ownsEnvironment;
+    private final ContextConfiguration configuration;
+    private final AbstractNamingClient client;
+    private final MarshallingPool marshallingPool;
+    /** The request timeout in nanoseconds, or 0 for none */
+    private volatile long requestTimeout;
 
     private static final int CLOSED = (1 << 31);
 
-    RemoteContext(final Name name, final Hashtable<Object, Object> environment, final NamingClient client) {
+    RemoteContext(final Name name, final Hashtable<Object, Object> environment, final AbstractNamingClient client) {
+        this(name, environment, client.getContextConfiguration(environment));
+        ownsEnvironment = true;
+    }
+
+    /**
+     * Construct a context with an existing configuration.  The environment is treated as shared.
+     *
+     * @param name the absolute name of the context
+     * @param environment the environment
+     * @param configuration the configuration which applies to the environment
+     */
+    RemoteContext(final Name name, final Hashtable<Object, Object> environment, final ContextConfiguration configuration) {
         this.name = name;
         this.environment = environment;
-        this.client = client;
-        final MarshallingConfiguration contextConfig = new MarshallingConfiguration();
-        contextConfig.setVersion(3);
-        contextConfig.setClassTable(NamingClassTable.getInstance());
-        contextConfig.setObjectTable(new ContextObjectTable());
-        this.contextConfig = contextConfig;
+        this.configuration = configuration;
+        client = configuration.getClient();
+        marshallingPool = configuration.getMarshallingPool();
+        requestTimeout = configuration.getRequestTimeout();
+        client.contextOpened(this);
     }
 
-    RemoteContext(final Name name, final NamingClient client) {
+    /**
+     * Construct a context which shares the configuration and environment of another context.  Neither context
+     * copies the environment unless it is modified.
+     *
+     * @param name the absolute name of the new context
+     * @param parent the context to share with
+     */
+    private RemoteContext(final Name name, final RemoteContext parent) {
+        this(name, parent.environment, parent.configuration);
+        parent.ownsEnvironment = false;
+        requestTimeout = parent.requestTimeout;
+    }
+
+    RemoteContext(final Name name, final AbstractNamingClient client) {
         this(name, new Hashtable<Object, Object>(), client);
     }
 
-    RemoteContext(final NamingClient client) {
+    RemoteContext(final AbstractNamingClient client) {
         this(ROOT_NAME, client);
     }
 
-    private boolean tryEnter() throws NamingException {
+    private boolean tryEnter(final NamingOperation operation) {
         int oldState, newState;
         do {
             oldState = state;
@@ -101,30 +204,76 @@ public final class RemoteContext implements EventContext {
             }
             newState = oldState + 1;
         } while (! stateUpdater.compareAndSet(this, oldState, newState));
-        log.entered(METHOD_GETTER, this);
+        log.entered(operation, this);
         return true;
     }
 
-    private void enter() throws NamingException {
-        if (! tryEnter()) {
+    /**
+     * Enter an operation.
+     *
+     * @param operation the operation
+     * @return the start time to pass to {@link #exit(NamingOperation, long, boolean)}, or 0 if operations are not
+     *      being timed
+     * @throws NamingException if the context is closed
+     */
+    private long enter(final NamingOperation operation) throws NamingException {
+        if (! tryEnter(operation)) {
             throw log.closedContext();
         }
+        return configuration.getInstrumentation() == null ? 0L : System.nanoTime();
     }
 
-    private void exit() {
-        log.exited(METHOD_GETTER, this);
+    private void exit(final NamingOperation operation) {
+        log.exited(operation, this);
         if (stateUpdater.decrementAndGet(this) == CLOSED) {
             // we're the last caller to exit
             client.contextClosed(this);
         }
     }
 
+    private void exit(final NamingOperation operation, final long start, final boolean ok) {
+        final NamingInstrumentation instrumentation = configuration.getInstrumentation();
+        if (instrumentation != null) {
+            instrumentation.operationCompleted(operation, System.nanoTime() - start, ! ok);
+        }
+        exit(operation);
+    }
+
+    /**
+     * Report an asynchronous operation to the instrumentation once its future completes.
+     */
+    private <T> NamingFuture<T> instrument(final NamingOperation operation, final long start, final NamingFuture<T> future) {
+        final NamingInstrumentation instrumentation = configuration.getInstrumentation();
+        if (instrumentation != null) {
+            future.addListener(new NamingFuture.Listener<T>() {
+                public void handleResult(final T result) {
+                    instrumentation.operationCompleted(operation, System.nanoTime() - start, false);
+                }
+
+                public void handleFailure(final NamingException exception) {
+                    instrumentation.operationCompleted(operation, System.nanoTime() - start, true);
+                }
+            });
+        }
+        return future;
+    }
+
     private void addNamingListener(final Object target, final int scope, final NamingListener l) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.ADD_NAMING_LISTENER);
+        boolean added = false;
         try {
-            final ListenerRegistration registration = client.addListener(this, target, scope, l);
+            final Name absoluteTarget = getAbsoluteName(target);
+            final ListenerRegistration registration = client.addListener(this, absoluteTarget, scope, l);
             boolean ok = false;
             try {
+                // the subscription must be made on the channel which the registration is indexed on
+                final ResultHolder<Void> resultHolder = client.createResultHolder(Void.class, marshallingPool, requestTimeout);
+                writeRequest(registration.getClient(), resultHolder, Protocol.MSG_ADD_LISTENER, new Object[] { absoluteTarget, Integer.valueOf(registration.getId()), Integer.valueOf(scope) });
+                if (! resultHolder.await()) {
+                    resultHolder.setCancelled();
+                    throw log.interrupted();
+                }
+                resultHolder.getResult();
                 ListenerRegistration[] oldList, newList;
                 do {
                     oldList = listenerRegistrations;
@@ -137,21 +286,56 @@ public final class RemoteContext implements EventContext {
                     registration.cancel();
                 }
             }
+            added = true;
         } finally {
-            exit();
+            exit(NamingOperation.ADD_NAMING_LISTENER, start, added);
         }
     }
 
+    /**
+     * End the subscription of a cancelled registration.  Nobody waits for the reply, and a failure is ignored,
+     * since the server drops the subscription with the channel anyway.
+     */
+    void unsubscribe(final ListenerRegistration registration) {
+        final ResultHolder<Void> resultHolder = client.createResultHolder(Void.class, marshallingPool, requestTimeout);
+        try {
+            writeRequest(registration.getClient(), resultHolder, Protocol.MSG_REMOVE_LISTENER, new Object[] { Integer.valueOf(registration.getId()) });
+        } catch (NamingException ignored) {
+        }
+    }
+
+    /**
+     * Add a listener for naming events on a target.  The subscription is made on the server, which must support
+     * naming events; the {@link NamingServer} in this package does so if the context it serves is an
+     * {@link EventContext}, and otherwise this method fails with a {@link NamingException} caused by an
+     * {@link javax.naming.OperationNotSupportedException}.
+     *
+     * @param target the target name, relative to this context
+     * @param scope the scope of the events, as given by {@link EventContext}
+     * @param l the listener
+     * @throws NamingException if the subscription failed
+     */
     public void addNamingListener(final Name target, final int scope, final NamingListener l) throws NamingException {
         addNamingListener((Object) target, scope, l);
     }
 
+    /**
+     * Add a listener for naming events on a target.  The subscription is made on the server, which must support
+     * naming events; the {@link NamingServer} in this package does so if the context it serves is an
+     * {@link EventContext}, and otherwise this method fails with a {@link NamingException} caused by an
+     * {@link javax.naming.OperationNotSupportedException}.
+     *
+     * @param target the target name, relative to this context
+     * @param scope the scope of the events, as given by {@link EventContext}
+     * @param l the listener
+     * @throws NamingException if the subscription failed
+     */
     public void addNamingListener(final String target, final int scope, final NamingListener l) throws NamingException {
         addNamingListener((Object) target, scope, l);
     }
 
     public void removeNamingListener(final NamingListener l) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.REMOVE_NAMING_LISTENER);
         try {
             ListenerRegistration[] oldList, newList;
             do {
@@ -185,7 +369,7 @@ public final class RemoteContext implements EventContext {
                 }
             }
         } finally {
-            exit();
+            exit(NamingOperation.REMOVE_NAMING_LISTENER, start, true);
         }
     }
 
@@ -193,31 +377,109 @@ public final class RemoteContext implements EventContext {
         return false;
     }
 
-    private <T> T sendBasicRequest(final Class<T> replyType, final int msg, Object... args) throws NamingException {
-        final ResultHolder<T> resultHolder;
+    /**
+     * Get the name, relative to the root of the remote namespace, of a name relative to this context.
+     *
+     * @param name the relative name
+     * @return the absolute name
+     * @throws NamingException if the name is not valid
+     */
+    private Name getAbsoluteName(final Object name) throws NamingException {
+        final Name absoluteName = (Name) this.name.clone();
+        if (name instanceof Name) {
+            final Name relativeName = (Name) name;
+            for (int i = 0; i < relativeName.size(); i ++) {
+                absoluteName.add(relativeName.get(i));
+            }
+        } else {
+            final NameCache.Entry entry = NameCache.getInstance().get(name.toString());
+            absoluteName.addAll(entry == null ? new CompositeName(name.toString()) : entry.getName());
+        }
+        return absoluteName;
+    }
+
+    /**
+     * Write a request on behalf of this context.  Name arguments are resolved against the name of this context
+     * first, since the server resolves every name from the root of its namespace.
+     */
+    private <T> void writeRequest(final ResultHolder<T> resultHolder, final int msg, final Object[] args) throws NamingException {
+        if (! name.isEmpty()) {
+            final int nameCount = msg == Protocol.MSG_LOOKUP_BATCH ? args.length : Protocol.getNameCount(msg);
+            for (int i = 0; i < nameCount; i ++) {
+                args[i] = getAbsoluteName(args[i]);
+            }
+        }
+        writeRequest(client, resultHolder, msg, args);
+    }
+
+    /**
+     * Write a request.  The leading name arguments are written in the protocol name encoding and the rest are
+     * marshalled; the marshaller is not used at all for a request which has only names.
+     */
+    private <T> void writeRequest(final AbstractNamingClient client, final ResultHolder<T> resultHolder, final int msg, final Object[] args) throws NamingException {
         try {
-            resultHolder = client.createResultHolder(replyType, contextConfig);
-            final MessageOutputStream outputStream = client.sendRequest(msg, resultHolder);
-            boolean ok = false;
-            try {
-                final Marshaller marshaller = client.createMarshaller(contextConfig);
-                marshaller.start(Marshalling.createByteOutput(outputStream));
-                for (Object arg : args) {
-                    marshaller.writeObject(arg);
-                }
-                marshaller.finish();
-                outputStream.close();
-                ok = true;
-            } finally {
-                if (! ok) {
-                    outputStream.cancel();
-                    resultHolder.setCancelled();
+            final RequestOutputStream outputStream = client.sendRequest(msg, resultHolder);
+            // a null stream means the failure was already recorded on the holder
+            if (outputStream != null) {
+                boolean ok = false;
+                try {
+                    final byte[] scratch = outputStream.getScratch();
+                    final int nameCount;
+                    if (msg == Protocol.MSG_LOOKUP_BATCH) {
+                        nameCount = args.length;
+                        scratch[0] = (byte) (nameCount >> 24);
+                        scratch[1] = (byte) (nameCount >> 16);
+                        scratch[2] = (byte) (nameCount >> 8);
+                        scratch[3] = (byte) nameCount;
+                        outputStream.write(scratch, 0, 4);
+                    } else {
+                        nameCount = Protocol.getNameCount(msg);
+                    }
+                    Object previous = null;
+                    for (int i = 0; i < nameCount; i ++) {
+                        Object name = args[i];
+                        if (name instanceof String) {
+                            // string names go out pre-parsed, from the name cache
+                            final NameCache.Entry entry = NameCache.getInstance().get((String) name);
+                            if (entry != null) {
+                                name = entry.getName();
+                                if (previous == null) {
+                                    entry.writeTo(outputStream);
+                                    previous = name;
+                                    continue;
+                                }
+                            }
+                        }
+                        NameEncoding.writeName(outputStream, name, previous, scratch, marshallingPool);
+                        previous = name;
+                    }
+                    if (nameCount < args.length) {
+                        final Marshaller marshaller = marshallingPool.getMarshaller();
+                        marshaller.start(Marshalling.createByteOutput(outputStream));
+                        for (int i = nameCount; i < args.length; i ++) {
+                            marshaller.writeObject(args[i]);
+                        }
+                        marshaller.finish();
+                        marshallingPool.returnMarshaller(marshaller);
+                    }
+                    outputStream.close();
+                    ok = true;
+                } finally {
+                    if (! ok) {
+                        outputStream.cancel();
+                        resultHolder.setCancelled();
+                    }
+                    IoUtils.safeClose(outputStream);
                 }
-                IoUtils.safeClose(outputStream);
             }
         } catch (IOException e) {
             throw log.errorSendingRequest(e);
         }
+    }
+
+    private <T> T sendBasicRequest(final Class<T> replyType, final int msg, Object... args) throws NamingException {
+        final ResultHolder<T> resultHolder = client.createResultHolder(replyType, marshallingPool, requestTimeout);
+        writeRequest(resultHolder, msg, args);
         if (! resultHolder.await()) {
             resultHolder.setCancelled();
             throw log.interrupted();
@@ -225,61 +487,333 @@ public final class RemoteContext implements EventContext {
         return resultHolder.getResult();
     }
 
-    private <T> NamingEnumeration<T> sendEnumerationRequest(final Class<T> replyType, final int msg, Object... args) throws NamingException {
-        final ResultHolder<T> resultHolder;
-        try {
-            resultHolder = client.createResultHolder(replyType, contextConfig);
-            final MessageOutputStream outputStream = client.sendRequest(msg, resultHolder);
-            boolean ok = false;
-            try {
-                final Marshaller marshaller = client.createMarshaller(contextConfig);
-                marshaller.start(Marshalling.createByteOutput(outputStream));
-                for (Object arg : args) {
-                    marshaller.writeObject(arg);
-                }
-                marshaller.finish();
-                outputStream.close();
-                ok = true;
-            } finally {
-                if (! ok) {
-                    outputStream.cancel();
-                    resultHolder.setCancelled();
-                }
-                IoUtils.safeClose(outputStream);
-            }
-        } catch (IOException e) {
-            throw log.errorSendingRequest(e);
-        }
+    private <T> NamingEnumeration<T> sendListRequest(final Class<T> entryType, final int msg, final Object name) throws NamingException {
+        final ResultHolder<T> resultHolder = client.createResultHolder(entryType, marshallingPool, requestTimeout);
+        writeRequest(resultHolder, msg, new Object[] { name, Integer.valueOf(configuration.getListPageSize()) });
         if (! resultHolder.await()) {
             resultHolder.setCancelled();
             throw log.interrupted();
         }
-        return resultHolder.getResultAsEnumeration();
+        return new PagedNamingEnumeration<T>(this, entryType, resultHolder.getResultAsPage(configuration.getListPageSize()));
+    }
+
+    <T> NamingFuture<ResultHolder.Page> requestNextPage(final Class<T> entryType, final int cursor) throws NamingException {
+        final long start = enter(NamingOperation.LIST_NEXT);
+        try {
+            final FutureNamingResult<ResultHolder.Page> future = new FutureNamingResult<ResultHolder.Page>();
+            final ResultHolder<T> resultHolder = client.createResultHolder(entryType, marshallingPool, requestTimeout, configuration.getCallbackExecutor(), new ResultHolder.Notifier<T>() {
+                public void handleDone(final ResultHolder<T> resultHolder) {
+                    try {
+                        future.setResult(resultHolder.getResultAsPage(configuration.getListPageSize()));
+                    } catch (NamingException e) {
+                        future.setException(e);
+                    }
+                }
+            });
+            future.setResultHolder(resultHolder);
+            writeRequest(resultHolder, Protocol.MSG_LIST_NEXT, new Object[] { Integer.valueOf(cursor), Integer.valueOf(configuration.getListPageSize()) });
+            return instrument(NamingOperation.LIST_NEXT, start, future);
+        } finally {
+            exit(NamingOperation.LIST_NEXT);
+        }
+    }
+
+    void closeCursor(final int cursor) throws NamingException {
+        final long start = enter(NamingOperation.LIST_CLOSE);
+        try {
+            // nobody waits for the reply
+            instrument(NamingOperation.LIST_CLOSE, start, sendAsyncRequest(Void.class, Protocol.MSG_LIST_CLOSE, Integer.valueOf(cursor)));
+        } finally {
+            exit(NamingOperation.LIST_CLOSE);
+        }
+    }
+
+    private NamingFuture<Void> invalidateOnCompletion(final NamingFuture<Void> future, final Object name) {
+        future.addListener(new NamingFuture.Listener<Void>() {
+            public void handleResult(final Void result) {
+                invalidate(name);
+            }
+
+            public void handleFailure(final NamingException exception) {
+                invalidate(name);
+            }
+        });
+        return future;
+    }
+
+    private <T> NamingFuture<T> sendAsyncRequest(final Class<T> replyType, final int msg, Object... args) throws NamingException {
+        final FutureNamingResult<T> future = new FutureNamingResult<T>();
+        final ResultHolder<T> resultHolder = client.createResultHolder(replyType, marshallingPool, requestTimeout, configuration.getCallbackExecutor(), new ResultHolder.Notifier<T>() {
+            public void handleDone(final ResultHolder<T> resultHolder) {
+                try {
+                    future.setResult(resultHolder.getResult());
+                } catch (NamingException e) {
+                    future.setException(e);
+                }
+            }
+        });
+        future.setResultHolder(resultHolder);
+        writeRequest(resultHolder, msg, args);
+        return future;
+    }
+
+    private <T> NamingFuture<NamingEnumeration<T>> sendAsyncListRequest(final Class<T> entryType, final int msg, final Object name) throws NamingException {
+        final FutureNamingResult<NamingEnumeration<T>> future = new FutureNamingResult<NamingEnumeration<T>>();
+        final ResultHolder<T> resultHolder = client.createResultHolder(entryType, marshallingPool, requestTimeout, configuration.getCallbackExecutor(), new ResultHolder.Notifier<T>() {
+            public void handleDone(final ResultHolder<T> resultHolder) {
+                try {
+                    final NamingEnumeration<T> enumeration = new PagedNamingEnumeration<T>(RemoteContext.this, entryType, resultHolder.getResultAsPage(configuration.getListPageSize()));
+                    if (! future.setResult(enumeration)) {
+                        enumeration.close();
+                    }
+                } catch (NamingException e) {
+                    future.setException(e);
+                }
+            }
+        });
+        future.setResultHolder(resultHolder);
+        writeRequest(resultHolder, msg, new Object[] { name, Integer.valueOf(configuration.getListPageSize()) });
+        return future;
+    }
+
+    private String getCacheKey(final Object name) {
+        return this.name.isEmpty() ? name.toString() : this.name.toString() + "/" + name.toString();
+    }
+
+    /**
+     * Invalidate a name in the lookup cache of the client.  The cache is shared by every context of the client, so
+     * this is done whether or not this context caches lookups itself.
+     */
+    private void invalidate(final Object name) {
+        client.invalidate(getCacheKey(name));
     }
 
     private Object lookup(final Object name) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.LOOKUP);
+        boolean ok = false;
         try {
-            return sendBasicRequest(Object.class, Protocol.MSG_LOOKUP, name);
+            final Object result = lookupCached(name);
+            ok = true;
+            return result;
         } finally {
-            exit();
+            exit(NamingOperation.LOOKUP, start, ok);
         }
     }
 
+    private Object lookupCached(final Object name) throws NamingException {
+        final LookupCache lookupCache = configuration.getLookupCache();
+        if (lookupCache == null) {
+            return sendBasicRequest(Object.class, Protocol.MSG_LOOKUP, name);
+        }
+        final String key = getCacheKey(name);
+        final LookupCache.Entry entry = lookupCache.get(key);
+        if (entry != null) {
+            if (entry.isNotFound()) {
+                throw log.cachedNameNotFound(key);
+            }
+            return entry.getValue();
+        }
+        final long stamp = lookupCache.getStamp();
+        final Object result;
+        try {
+            result = sendBasicRequest(Object.class, Protocol.MSG_LOOKUP, name);
+        } catch (NameNotFoundException e) {
+            if (configuration.getLookupCacheNegativeTtl() > 0L) {
+                lookupCache.putNotFound(key, configuration.getLookupCacheNegativeTtl(), stamp);
+            }
+            throw e;
+        }
+        if (isCacheable(result)) {
+            lookupCache.put(key, result, configuration.getLookupCacheTtl(), stamp);
+        }
+        return result;
+    }
+
+    /**
+     * Determine whether a lookup result may be cached.  A context is not, since whoever looks it up may close it.
+     *
+     * @param result the result
+     * @return {@code true} if the result may be shared between callers
+     */
+    private static boolean isCacheable(final Object result) {
+        return ! (result instanceof Context);
+    }
+
     public Object lookup(final Name name) throws NamingException {
-        return name.isEmpty() ? new RemoteContext(this.name, new Hashtable<Object, Object>(environment), client) : lookup((Object) name);
+        return name.isEmpty() ? new RemoteContext(this.name, this) : lookup((Object) name);
     }
 
     public Object lookup(final String name) throws NamingException {
-        return name.isEmpty() ? new RemoteContext(this.name, new Hashtable<Object, Object>(environment), client) : lookup((Object) name);
+        return name.isEmpty() ? new RemoteContext(this.name, this) : lookup((Object) name);
+    }
+
+    private List<NamingFuture<Object>> lookupAll(final Object[] names) throws NamingException {
+        final long start = enter(NamingOperation.LOOKUP_ALL);
+        boolean ok = false;
+        try {
+            final int length = names.length;
+            final List<NamingFuture<Object>> results = new ArrayList<NamingFuture<Object>>(length);
+            // indexes of the names which have to go to the server
+            final int[] pending = new int[length];
+            int pendingCount = 0;
+            final LookupCache lookupCache = configuration.getLookupCache();
+            for (int i = 0; i < length; i ++) {
+                final Object name = names[i];
+                results.add(null);
+                if (name.toString().isEmpty()) {
+                    results.set(i, completed(new RemoteContext(this.name, this)));
+                    continue;
+                }
+                if (lookupCache != null) {
+                    final String key = getCacheKey(name);
+                    final LookupCache.Entry entry = lookupCache.get(key);
+                    if (entry != null) {
+                        if (entry.isNotFound()) {
+                            final FutureNamingResult<Object> future = new FutureNamingResult<Object>();
+                            future.setException(log.cachedNameNotFound(key));
+                            results.set(i, future);
+                        } else {
+                            results.set(i, completed(entry.getValue()));
+                        }
+                        continue;
+                    }
+                }
+                pending[pendingCount ++] = i;
+            }
+            if (pendingCount == 0) {
+                ok = true;
+                return results;
+            }
+            final Object[] requestNames = new Object[pendingCount];
+            for (int i = 0; i < pendingCount; i ++) {
+                requestNames[i] = names[pending[i]];
+            }
+            final long stamp = lookupCache == null ? 0L : lookupCache.getStamp();
+            final ResultHolder<Object> resultHolder = client.createResultHolder(Object.class, marshallingPool, requestTimeout);
+            writeRequest(resultHolder, Protocol.MSG_LOOKUP_BATCH, requestNames);
+            if (! resultHolder.await()) {
+                resultHolder.setCancelled();
+                throw log.interrupted();
+            }
+            final List<FutureNamingResult<Object>> replies = resultHolder.getBatchResult(pendingCount);
+            final long negativeTtl = configuration.getLookupCacheNegativeTtl();
+            for (int i = 0; i < pendingCount; i ++) {
+                final int idx = pending[i];
+                final FutureNamingResult<Object> reply = replies.get(i);
+                results.set(idx, reply);
+                if (lookupCache != null) {
+                    // misses are cached just like single lookups, so a batch and a lookup see the same answer
+                    final String key = getCacheKey(names[idx]);
+                    try {
+                        final Object result = reply.getResult();
+                        if (isCacheable(result)) {
+                            lookupCache.put(key, result, configuration.getLookupCacheTtl(), stamp);
+                        }
+                    } catch (NameNotFoundException e) {
+                        if (negativeTtl > 0L) {
+                            lookupCache.putNotFound(key, negativeTtl, stamp);
+                        }
+                    } catch (NamingException e) {
+                        // other failures are not cached
+                    }
+                }
+            }
+            ok = true;
+            return results;
+        } finally {
+            exit(NamingOperation.LOOKUP_ALL, start, ok);
+        }
+    }
+
+    /**
+     * Look up several names in a single request.  A name which cannot be looked up does not affect the others;
+     * its failure is reported through its own result.
+     *
+     * @param names the names to look up
+     * @return the completed result of each lookup, in the same order as {@code names}
+     * @throws NamingException if the request itself failed
+     */
+    public List<NamingFuture<Object>> lookupAll(final Name... names) throws NamingException {
+        return lookupAll((Object[]) names);
+    }
+
+    /**
+     * Look up several names in a single request.  A name which cannot be looked up does not affect the others;
+     * its failure is reported through its own result.
+     *
+     * @param names the names to look up
+     * @return the completed result of each lookup, in the iteration order of {@code names}
+     * @throws NamingException if the request itself failed
+     */
+    public List<NamingFuture<Object>> lookupAll(final Collection<String> names) throws NamingException {
+        return lookupAll(names.toArray());
+    }
+
+    private NamingFuture<Object> lookupAsync(final Object name) throws NamingException {
+        final long start = enter(NamingOperation.LOOKUP);
+        try {
+            return instrument(NamingOperation.LOOKUP, start, lookupCachedAsync(name));
+        } finally {
+            exit(NamingOperation.LOOKUP);
+        }
+    }
+
+    private NamingFuture<Object> lookupCachedAsync(final Object name) throws NamingException {
+        final LookupCache lookupCache = configuration.getLookupCache();
+        if (lookupCache == null) {
+            return sendAsyncRequest(Object.class, Protocol.MSG_LOOKUP, name);
+        }
+        final String key = getCacheKey(name);
+        final LookupCache.Entry entry = lookupCache.get(key);
+        if (entry != null) {
+            if (entry.isNotFound()) {
+                final FutureNamingResult<Object> future = new FutureNamingResult<Object>();
+                future.setException(log.cachedNameNotFound(key));
+                return future;
+            }
+            return completed(entry.getValue());
+        }
+        final long stamp = lookupCache.getStamp();
+        final NamingFuture<Object> future = sendAsyncRequest(Object.class, Protocol.MSG_LOOKUP, name);
+        future.addListener(new NamingFuture.Listener<Object>() {
+            public void handleResult(final Object result) {
+                if (isCacheable(result)) {
+                    lookupCache.put(key, result, configuration.getLookupCacheTtl(), stamp);
+                }
+            }
+
+            public void handleFailure(final NamingException exception) {
+                if (exception instanceof NameNotFoundException && configuration.getLookupCacheNegativeTtl() > 0L) {
+                    lookupCache.putNotFound(key, configuration.getLookupCacheNegativeTtl(), stamp);
+                }
+            }
+        });
+        return future;
+    }
+
+    private NamingFuture<Object> completed(final Object result) {
+        final FutureNamingResult<Object> future = new FutureNamingResult<Object>();
+        future.setResult(result);
+        return future;
+    }
+
+    public NamingFuture<Object> lookupAsync(final Name name) throws NamingException {
+        return name.isEmpty() ? completed(new RemoteContext(this.name, this)) : lookupAsync((Object) name);
+    }
+
+    public NamingFuture<Object> lookupAsync(final String name) throws NamingException {
+        return name.isEmpty() ? completed(new RemoteContext(this.name, this)) : lookupAsync((Object) name);
     }
 
     private void bind(final Object name, final Object obj) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.BIND);
+        boolean ok = false;
         try {
             sendBasicRequest(Void.class, Protocol.MSG_BIND, name, obj);
+            ok = true;
         } finally {
-            exit();
+            invalidate(name);
+            exit(NamingOperation.BIND, start, ok);
         }
     }
 
@@ -291,12 +825,32 @@ public final class RemoteContext implements EventContext {
         bind((Object) name, obj);
     }
 
+    private NamingFuture<Void> bindAsync(final Object name, final Object obj) throws NamingException {
+        final long start = enter(NamingOperation.BIND);
+        try {
+            return instrument(NamingOperation.BIND, start, invalidateOnCompletion(sendAsyncRequest(Void.class, Protocol.MSG_BIND, name, obj), name));
+        } finally {
+            exit(NamingOperation.BIND);
+        }
+    }
+
+    public NamingFuture<Void> bindAsync(final Name name, final Object obj) throws NamingException {
+        return bindAsync((Object) name, obj);
+    }
+
+    public NamingFuture<Void> bindAsync(final String name, final Object obj) throws NamingException {
+        return bindAsync((Object) name, obj);
+    }
+
     private void rebind(final Object name, final Object obj) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.REBIND);
+        boolean ok = false;
         try {
             sendBasicRequest(Void.class, Protocol.MSG_REBIND, name, obj);
+            ok = true;
         } finally {
-            exit();
+            invalidate(name);
+            exit(NamingOperation.REBIND, start, ok);
         }
     }
 
@@ -308,12 +862,32 @@ public final class RemoteContext implements EventContext {
         rebind((Object) name, obj);
     }
 
+    private NamingFuture<Void> rebindAsync(final Object name, final Object obj) throws NamingException {
+        final long start = enter(NamingOperation.REBIND);
+        try {
+            return instrument(NamingOperation.REBIND, start, invalidateOnCompletion(sendAsyncRequest(Void.class, Protocol.MSG_REBIND, name, obj), name));
+        } finally {
+            exit(NamingOperation.REBIND);
+        }
+    }
+
+    public NamingFuture<Void> rebindAsync(final Name name, final Object obj) throws NamingException {
+        return rebindAsync((Object) name, obj);
+    }
+
+    public NamingFuture<Void> rebindAsync(final String name, final Object obj) throws NamingException {
+        return rebindAsync((Object) name, obj);
+    }
+
     private void unbind(final Object name) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.UNBIND);
+        boolean ok = false;
         try {
             sendBasicRequest(Void.class, Protocol.MSG_UNBIND, name);
+            ok = true;
         } finally {
-            exit();
+            invalidate(name);
+            exit(NamingOperation.UNBIND, start, ok);
         }
     }
 
@@ -325,12 +899,33 @@ public final class RemoteContext implements EventContext {
         unbind((Object) name);
     }
 
+    private NamingFuture<Void> unbindAsync(final Object name) throws NamingException {
+        final long start = enter(NamingOperation.UNBIND);
+        try {
+            return instrument(NamingOperation.UNBIND, start, invalidateOnCompletion(sendAsyncRequest(Void.class, Protocol.MSG_UNBIND, name), name));
+        } finally {
+            exit(NamingOperation.UNBIND);
+        }
+    }
+
+    public NamingFuture<Void> unbindAsync(final Name name) throws NamingException {
+        return unbindAsync((Object) name);
+    }
+
+    public NamingFuture<Void> unbindAsync(final String name) throws NamingException {
+        return unbindAsync((Object) name);
+    }
+
     private void rename(final Object oldName, final Object newName) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.RENAME);
+        boolean ok = false;
         try {
             sendBasicRequest(Void.class, Protocol.MSG_RENAME, oldName, newName);
+            ok = true;
         } finally {
-            exit();
+            invalidate(oldName);
+            invalidate(newName);
+            exit(NamingOperation.RENAME, start, ok);
         }
     }
 
@@ -343,11 +938,14 @@ public final class RemoteContext implements EventContext {
     }
 
     private NamingEnumeration<NameClassPair> list(final Object name) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.LIST);
+        boolean ok = false;
         try {
-            return sendEnumerationRequest(NameClassPair.class, Protocol.MSG_LIST, name);
+            final NamingEnumeration<NameClassPair> result = sendListRequest(NameClassPair.class, Protocol.MSG_LIST, name);
+            ok = true;
+            return result;
         } finally {
-            exit();
+            exit(NamingOperation.LIST, start, ok);
         }
     }
 
@@ -359,12 +957,32 @@ public final class RemoteContext implements EventContext {
         return list((Object) name);
     }
 
+    private NamingFuture<NamingEnumeration<NameClassPair>> listAsync(final Object name) throws NamingException {
+        final long start = enter(NamingOperation.LIST);
+        try {
+            return instrument(NamingOperation.LIST, start, sendAsyncListRequest(NameClassPair.class, Protocol.MSG_LIST, name));
+        } finally {
+            exit(NamingOperation.LIST);
+        }
+    }
+
+    public NamingFuture<NamingEnumeration<NameClassPair>> listAsync(final Name name) throws NamingException {
+        return listAsync((Object) name);
+    }
+
+    public NamingFuture<NamingEnumeration<NameClassPair>> listAsync(final String name) throws NamingException {
+        return listAsync((Object) name);
+    }
+
     private NamingEnumeration<Binding> listBindings(final Object name) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.LIST_BINDINGS);
+        boolean ok = false;
         try {
-            return sendEnumerationRequest(Binding.class, Protocol.MSG_LIST_BINDINGS, name);
+            final NamingEnumeration<Binding> result = sendListRequest(Binding.class, Protocol.MSG_LIST_BINDINGS, name);
+            ok = true;
+            return result;
         } finally {
-            exit();
+            exit(NamingOperation.LIST_BINDINGS, start, ok);
         }
     }
 
@@ -376,12 +994,32 @@ public final class RemoteContext implements EventContext {
         return listBindings((Object) name);
     }
 
+    private NamingFuture<NamingEnumeration<Binding>> listBindingsAsync(final Object name) throws NamingException {
+        final long start = enter(NamingOperation.LIST_BINDINGS);
+        try {
+            return instrument(NamingOperation.LIST_BINDINGS, start, sendAsyncListRequest(Binding.class, Protocol.MSG_LIST_BINDINGS, name));
+        } finally {
+            exit(NamingOperation.LIST_BINDINGS);
+        }
+    }
+
+    public NamingFuture<NamingEnumeration<Binding>> listBindingsAsync(final Name name) throws NamingException {
+        return listBindingsAsync((Object) name);
+    }
+
+    public NamingFuture<NamingEnumeration<Binding>> listBindingsAsync(final String name) throws NamingException {
+        return listBindingsAsync((Object) name);
+    }
+
     private void destroySubcontext(final Object name) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.DESTROY_SUBCONTEXT);
+        boolean ok = false;
         try {
             sendBasicRequest(Void.class, Protocol.MSG_DESTROY_SUBCONTEXT, name);
+            ok = true;
         } finally {
-            exit();
+            invalidate(name);
+            exit(NamingOperation.DESTROY_SUBCONTEXT, start, ok);
         }
     }
 
@@ -394,12 +1032,15 @@ public final class RemoteContext implements EventContext {
     }
 
     private Context createSubcontext(final Object name) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.CREATE_SUBCONTEXT);
+        boolean ok = false;
         try {
             final Name newName = sendBasicRequest(Name.class, Protocol.MSG_CREATE_SUBCONTEXT, name);
-            return new RemoteContext(newName, client);
+            ok = true;
+            return new RemoteContext(newName, this);
         } finally {
-            exit();
+            invalidate(name);
+            exit(NamingOperation.CREATE_SUBCONTEXT, start, ok);
         }
     }
 
@@ -412,11 +1053,14 @@ public final class RemoteContext implements EventContext {
     }
 
     private Object lookupLink(final Object name) throws NamingException {
-        enter();
+        final long start = enter(NamingOperation.LOOKUP_LINK);
+        boolean ok = false;
         try {
-            return sendBasicRequest(Object.class, Protocol.MSG_LOOKUP_LINK, name);
+            final Object result = sendBasicRequest(Object.class, Protocol.MSG_LOOKUP_LINK, name);
+            ok = true;
+            return result;
         } finally {
-            exit();
+            exit(NamingOperation.LOOKUP_LINK, start, ok);
         }
     }
 
@@ -444,12 +1088,29 @@ public final class RemoteContext implements EventContext {
         throw new UnsupportedOperationException("composeName");
     }
 
+    private Hashtable<Object, Object> getOwnEnvironment() {
+        if (! ownsEnvironment) {
+            environment = new Hashtable<Object, Object>(environment);
+            ownsEnvironment = true;
+        }
+        return environment;
+    }
+
     public Object addToEnvironment(final String propName, final Object propVal) throws NamingException {
-        return environment.put(propName, propVal);
+        final Hashtable<Object, Object> environment = getOwnEnvironment();
+        final Object old = environment.put(propName, propVal);
+        if (REQUEST_TIMEOUT.equals(propName)) {
+            requestTimeout = ContextConfiguration.getTimeoutProperty(environment);
+        }
+        return old;
     }
 
     public Object removeFromEnvironment(final String propName) throws NamingException {
-        return environment.remove(propName);
+        final Object old = getOwnEnvironment().remove(propName);
+        if (REQUEST_TIMEOUT.equals(propName)) {
+            requestTimeout = 0L;
+        }
+        return old;
     }
 
     public Hashtable<?, ?> getEnvironment() throws NamingException {
@@ -457,10 +1118,20 @@ public final class RemoteContext implements EventContext {
     }
 
     public void close() throws NamingException {
-        if (tryEnter()) try {
+        if (tryEnter(NamingOperation.CLOSE)) try {
+            int oldState;
+            do {
+                oldState = state;
+                if ((oldState & CLOSED) != 0) {
+                    return;
+                }
+            } while (! stateUpdater.compareAndSet(this, oldState, oldState | CLOSED));
+            for (ListenerRegistration registration : listenerRegistrationsUpdater.getAndSet(this, NO_REGISTRATIONS)) {
+                registration.cancel();
+            }
             client.contextClosing(this);
         } finally {
-            exit();
+            exit(NamingOperation.CLOSE);
         }
     }
 
@@ -468,18 +1139,27 @@ public final class RemoteContext implements EventContext {
         return name.toString();
     }
 
-    private static final Object METHOD_GETTER = new Object() {
-        public String toString() {
-            final StackTraceElement[] trace = Thread.currentThread().getStackTrace();
-            for (int i = 1; i < trace.length; i ++) {
-                if (trace[i].getClassName().equals(FQCN)) {
-                    while (trace[i ++].getClassName().equals(FQCN));
-                    return trace[i - 1].getMethodName();
-                }
-            }
-            return "(unknown)";
-        }
-    };
+    Name getName() {
+        return name;
+    }
+
+    AbstractNamingClient getClient() {
+        return client;
+    }
+
+    MarshallingPool getMarshallingPool() {
+        return marshallingPool;
+    }
+
+    /**
+     * Get the request metrics of the connection behind this context.  The metrics are shared by every context on
+     * the same connection.
+     *
+     * @return the metrics
+     */
+    public NamingClientMetrics getClientMetrics() {
+        return client.getMetrics();
+    }
 
     protected void finalize() throws Throwable {
         try {
@@ -489,15 +1169,4 @@ public final class RemoteContext implements EventContext {
             super.finalize();
         }
     }
-
-    private class ContextObjectTable implements ObjectTable {
-
-        public Writer getObjectWriter(final Object object) throws IOException {
-            return null;
-        }
-
-        public Object readObject(final Unmarshaller unmarshaller) throws IOException, ClassNotFoundException {
-            return null;
-        }
-    }
 }
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jboss.marshalling.ByteInput;
+
+/**
+ * A message which has been read in full from its channel.  The channel receiver reads each message into a buffer
+ * with bulk reads and goes on to the next message at once; a reply is parsed later, by the thread which wants the
+ * result, and the unmarshaller reads straight from the buffer.  Buffers of the standard size are taken from and
+ * returned to a shared pool, so the common small reply is read without allocation; a larger reply grows its buffer,
+ * which is then not pooled.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class ReplyBuffer extends InputStream implements ByteInput {
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final int SLOTS;
+
+    static {
+        int slots = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() << 2);
+        SLOTS = Math.max(8, Math.min(256, slots));
+    }
+
+    private static final AtomicReferenceArray<byte[]> pool = new AtomicReferenceArray<byte[]>(SLOTS);
+
+    private byte[] buffer;
+    private int position;
+    private final int limit;
+
+    private ReplyBuffer(final byte[] buffer, final int limit) {
+        this.buffer = buffer;
+        this.limit = limit;
+    }
+
+    private static int start() {
+        return (int) Thread.currentThread().getId() & (SLOTS - 1);
+    }
+
+    private static byte[] take() {
+        final int start = start();
+        for (int i = 0; i < SLOTS; i ++) {
+            final int idx = (start + i) & (SLOTS - 1);
+            if (pool.get(idx) != null) {
+                final byte[] buffer = pool.getAndSet(idx, null);
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    private static void put(final byte[] buffer) {
+        final int start = start();
+        for (int i = 0; i < SLOTS; i ++) {
+            if (pool.compareAndSet((start + i) & (SLOTS - 1), null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the rest of a stream into a buffer.  The stream is not closed.
+     *
+     * @param input the stream
+     * @return the buffered bytes
+     * @throws IOException if a read fails
+     */
+    static ReplyBuffer read(final InputStream input) throws IOException {
+        byte[] buffer = take();
+        int limit = 0;
+        boolean ok = false;
+        try {
+            int res;
+            for (;;) {
+                if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, limit << 1);
+                }
+                res = input.read(buffer, limit, buffer.length - limit);
+                if (res == -1) {
+                    break;
+                }
+                limit += res;
+            }
+            ok = true;
+            return new ReplyBuffer(buffer, limit);
+        } finally {
+            if (! ok && buffer.length == BUFFER_SIZE) {
+                put(buffer);
+            }
+        }
+    }
+
+    /**
+     * Get the number of bytes in the message.
+     *
+     * @return the size
+     */
+    int size() {
+        return limit;
+    }
+
+    public int read() {
+        final byte[] buffer = this.buffer;
+        return buffer == null || position == limit ? -1 : buffer[position ++] & 0xff;
+    }
+
+    public int read(final byte[] b, final int off, final int len) {
+        final byte[] buffer = this.buffer;
+        if (buffer == null || position == limit) {
+            return len == 0 ? 0 : -1;
+        }
+        final int cnt = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, cnt);
+        position += cnt;
+        return cnt;
+    }
+
+    public long skip(final long n) {
+        final int cnt = (int) Math.max(0L, Math.min(n, (long) (limit - position)));
+        position += cnt;
+        return cnt;
+    }
+
+    public int available() {
+        return buffer == null ? 0 : limit - position;
+    }
+
+    /**
+     * Copy the unread bytes out of the buffer.
+     *
+     * @return the unread bytes
+     */
+    byte[] readRemaining() {
+        final byte[] buffer = this.buffer;
+        if (buffer == null) {
+            return new byte[0];
+        }
+        final byte[] bytes = Arrays.copyOfRange(buffer, position, limit);
+        position = limit;
+        return bytes;
+    }
+
+    /**
+     * Release the buffer.  Nothing can be read afterwards.
+     */
+    public void close() {
+        final byte[] buffer = this.buffer;
+        if (buffer != null) {
+            this.buffer = null;
+            if (buffer.length == BUFFER_SIZE) {
+                put(buffer);
+            }
+        }
+    }
+}
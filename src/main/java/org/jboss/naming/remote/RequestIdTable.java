@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A table of outstanding request IDs.  The ID space is split into segments of 64 slots, each with its
+ * own free-slot bitmap, so that concurrent callers starting on different segments do not contend on the
+ * same word.  Segments are added on demand, up to {@link Protocol#MAX_REQUEST_ID}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class RequestIdTable {
+
+    private static final int SEGMENT_SHIFT = 6;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int MAX_SEGMENTS = (Protocol.MAX_REQUEST_ID + 1) >>> SEGMENT_SHIFT;
+
+    private volatile Segment[] segments = new Segment[] { new Segment() };
+
+    private static final AtomicReferenceFieldUpdater<RequestIdTable, Segment[]> segmentsUpdater = AtomicReferenceFieldUpdater.newUpdater(RequestIdTable.class, Segment[].class, "segments");
+
+    /**
+     * Allocate a request ID and associate it with the given holder.
+     *
+     * @param holder the result holder
+     * @return the request ID, or -1 if the ID space is exhausted
+     */
+    int allocate(final ResultHolder<?> holder) {
+        Segment[] segments = this.segments;
+        for (;;) {
+            final int length = segments.length;
+            // segment count is always a power of two
+            final int start = (int) Thread.currentThread().getId() & (length - 1);
+            for (int i = 0; i < length; i ++) {
+                final int idx = (start + i) & (length - 1);
+                final int slot = segments[idx].allocate(holder);
+                if (slot != -1) {
+                    return idx << SEGMENT_SHIFT | slot;
+                }
+            }
+            if (length == MAX_SEGMENTS) {
+                return -1;
+            }
+            final Segment[] newSegments = Arrays.copyOf(segments, length << 1);
+            for (int i = length; i < newSegments.length; i ++) {
+                newSegments[i] = new Segment();
+            }
+            if (! segmentsUpdater.compareAndSet(this, segments, newSegments)) {
+                // someone else grew the table; retry against theirs
+                segments = this.segments;
+            } else {
+                segments = newSegments;
+            }
+        }
+    }
+
+    /**
+     * Get the number of request IDs the table can currently hold.  Every allocated ID is less than this.
+     *
+     * @return the capacity
+     */
+    int getCapacity() {
+        return segments.length << SEGMENT_SHIFT;
+    }
+
+    /**
+     * Release a request ID.
+     *
+     * @param requestId the request ID
+     * @return the holder which was associated with the ID, or {@code null} if the ID was not allocated
+     */
+    ResultHolder<?> release(final int requestId) {
+        final Segment segment = getSegment(requestId);
+        return segment == null ? null : segment.release(requestId & SEGMENT_MASK, null);
+    }
+
+    /**
+     * Release a request ID if it is still associated with the given holder.
+     *
+     * @param requestId the request ID
+     * @param holder the expected holder
+     * @return {@code true} if the ID was released
+     */
+    boolean release(final int requestId, final ResultHolder<?> holder) {
+        final Segment segment = getSegment(requestId);
+        return segment != null && segment.release(requestId & SEGMENT_MASK, holder) != null;
+    }
+
+    /**
+     * Get the holder associated with a request ID.
+     *
+     * @param requestId the request ID
+     * @return the holder, or {@code null} if the ID is not allocated
+     */
+    ResultHolder<?> get(final int requestId) {
+        final Segment segment = getSegment(requestId);
+        return segment == null ? null : segment.holders.get(requestId & SEGMENT_MASK);
+    }
+
+    private Segment getSegment(final int requestId) {
+        final Segment[] segments = this.segments;
+        final int idx = requestId >>> SEGMENT_SHIFT;
+        return requestId < 0 || idx >= segments.length ? null : segments[idx];
+    }
+
+    static final class Segment {
+        @SuppressWarnings("unused")
+        private volatile long free = 0xFFFFFFFFFFFFFFFFL;
+        private final AtomicReferenceArray<ResultHolder<?>> holders = new AtomicReferenceArray<ResultHolder<?>>(SEGMENT_SIZE);
+
+        private static final AtomicLongFieldUpdater<Segment> freeUpdater = AtomicLongFieldUpdater.newUpdater(Segment.class, "free");
+
+        int allocate(final ResultHolder<?> holder) {
+            long old, bit;
+            do {
+                old = free;
+                if (old == 0L) {
+                    return -1;
+                }
+                bit = Long.lowestOneBit(old);
+            } while (! freeUpdater.compareAndSet(this, old, old ^ bit));
+            final int slot = Long.numberOfTrailingZeros(bit);
+            holders.set(slot, holder);
+            return slot;
+        }
+
+        ResultHolder<?> release(final int slot, final ResultHolder<?> expected) {
+            // whoever clears the holder owns the release
+            final ResultHolder<?> holder;
+            if (expected == null) {
+                holder = holders.getAndSet(slot, null);
+                if (holder == null) {
+                    return null;
+                }
+            } else if (holders.compareAndSet(slot, expected, null)) {
+                holder = expected;
+            } else {
+                return null;
+            }
+            long old, bit = 1L << (long) slot;
+            do {
+                old = free;
+            } while (! freeUpdater.compareAndSet(this, old, old | bit));
+            return holder;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import org.jboss.remoting3.MessageOutputStream;
+
+/**
+ * The stream of a request which is being written.  It carries a small scratch array, so that the request header and
+ * the names of the request are each packed and written in one write without allocating an array apiece.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+abstract class RequestOutputStream extends MessageOutputStream {
+
+    /**
+     * The size of the scratch array: a request header with a deadline, or a name header of
+     * {@link NameEncoding#SCRATCH_SIZE} bytes, whichever is larger.
+     */
+    static final int SCRATCH_SIZE = Math.max(7, NameEncoding.SCRATCH_SIZE);
+
+    private final byte[] scratch = new byte[SCRATCH_SIZE];
+
+    /**
+     * Get the scratch array of this stream.  Its contents are only meaningful until the next write which uses it.
+     *
+     * @return the scratch array, of {@link #SCRATCH_SIZE} bytes
+     */
+    byte[] getScratch() {
+        return scratch;
+    }
+}
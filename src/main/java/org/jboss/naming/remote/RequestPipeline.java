@@ -0,0 +1,230 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.MessageOutputStream;
+import org.xnio.IoUtils;
+
+import javax.naming.CommunicationException;
+
+/**
+ * A coalescing writer for requests.  Each request is buffered in full, then queued; whichever caller finds the
+ * pipeline idle becomes the writer and sends everything queued so far, wrapping two or more requests in a single
+ * {@link Protocol#MSG_PIPELINE} message.  Requests which arrive while a write is in progress are picked up by the
+ * same writer, so batches grow with load without any added delay when the channel is quiet.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class RequestPipeline {
+
+    /**
+     * Soft limit on the size of one coalesced message.
+     */
+    private static final int MAX_MESSAGE_SIZE = 65536;
+
+    /**
+     * Space kept at the start of each request buffer for its length prefix in a pipeline message.
+     */
+    private static final int PREFIX = 4;
+
+    private final NamingClient client;
+    private final Channel channel;
+    private final ConcurrentLinkedQueue<BufferedRequest> queue = new ConcurrentLinkedQueue<BufferedRequest>();
+
+    @SuppressWarnings("unused")
+    private volatile int writing;
+
+    private static final AtomicIntegerFieldUpdater<RequestPipeline> writingUpdater = AtomicIntegerFieldUpdater.newUpdater(RequestPipeline.class, "writing");
+
+    RequestPipeline(final NamingClient client, final Channel channel) {
+        this.client = client;
+        this.channel = channel;
+    }
+
+    /**
+     * Create a stream for a request.  The request is queued when the stream is closed.
+     *
+     * @param msg the message type, for the metrics
+     * @param requestId the request ID, which is released if the stream is cancelled
+     * @return the request stream
+     */
+    RequestOutputStream createRequest(final int msg, final int requestId) {
+        return new BufferedRequest(msg, requestId);
+    }
+
+    private void enqueue(final BufferedRequest request) {
+        queue.add(request);
+        while (writingUpdater.compareAndSet(this, 0, 1)) {
+            try {
+                writeQueued();
+            } finally {
+                writing = 0;
+            }
+            // a request may have been queued after our last poll but before we cleared the flag
+            if (queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private void writeQueued() {
+        BufferedRequest request = queue.poll();
+        while (request != null) {
+            BufferedRequest next = queue.poll();
+            if (next == null) {
+                // just one; send it as-is
+                write(request, null);
+                return;
+            }
+            final BufferedRequest first = request;
+            BufferedRequest last = request;
+            int size = 1 + request.count + next.count;
+            last.next = next;
+            last = next;
+            while (size < MAX_MESSAGE_SIZE && (next = queue.poll()) != null) {
+                last.next = next;
+                last = next;
+                size += next.count;
+            }
+            write(first, last);
+            request = queue.poll();
+        }
+    }
+
+    /**
+     * Write one request, or a chain of requests as a pipeline message.
+     *
+     * @param first the first request
+     * @param last the last request of the chain, or {@code null} to write {@code first} alone
+     */
+    private void write(final BufferedRequest first, final BufferedRequest last) {
+        boolean ok = false;
+        MessageOutputStream stream = null;
+        try {
+            stream = channel.writeMessage();
+            if (last == null) {
+                stream.write(first.buf, PREFIX, first.count - PREFIX);
+            } else {
+                stream.write(Protocol.MSG_PIPELINE);
+                BufferedRequest request = first;
+                for (;;) {
+                    // the length goes in the space kept for it, so each request is one write
+                    final byte[] buf = request.buf;
+                    final int length = request.count - PREFIX;
+                    buf[0] = (byte) (length >> 24);
+                    buf[1] = (byte) (length >> 16);
+                    buf[2] = (byte) (length >> 8);
+                    buf[3] = (byte) length;
+                    stream.write(buf, 0, request.count);
+                    if (request == last) {
+                        break;
+                    }
+                    request = request.next;
+                }
+            }
+            stream.close();
+            ok = true;
+        } catch (IOException e) {
+            final CommunicationException exception = new CommunicationException("Failed to send request: " + e.toString());
+            BufferedRequest request = first;
+            for (;;) {
+                final ResultHolder<?> resultHolder = client.releaseRequestId(request.requestId);
+                if (resultHolder != null) {
+                    resultHolder.setException(exception);
+                }
+                if (request == last || last == null) {
+                    break;
+                }
+                request = request.next;
+            }
+        } finally {
+            if (stream != null) {
+                if (! ok) {
+                    stream.cancel();
+                }
+                IoUtils.safeClose(stream);
+            }
+        }
+    }
+
+    final class BufferedRequest extends RequestOutputStream {
+        private final int msg;
+        private final int requestId;
+        private byte[] buf = new byte[256];
+        private int count = PREFIX;
+        private boolean done;
+        private BufferedRequest next;
+
+        BufferedRequest(final int msg, final int requestId) {
+            this.msg = msg;
+            this.requestId = requestId;
+        }
+
+        private void ensureCapacity(final int extra) {
+            if (count + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + extra));
+            }
+        }
+
+        public void write(final int b) throws IOException {
+            if (done) {
+                throw new IOException("Stream is closed");
+            }
+            ensureCapacity(1);
+            buf[count ++] = (byte) b;
+        }
+
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (done) {
+                throw new IOException("Stream is closed");
+            }
+            ensureCapacity(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+            if (! done) {
+                done = true;
+                client.getMetrics().requestSent(msg, count - PREFIX);
+                enqueue(this);
+            }
+        }
+
+        public MessageOutputStream cancel() {
+            if (! done) {
+                done = true;
+                client.releaseRequestId(requestId);
+            }
+            return this;
+        }
+    }
+}
@@ -24,25 +24,33 @@ package org.jboss.naming.remote;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.util.NoSuchElementException;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.LockSupport;
 import org.jboss.marshalling.ByteInput;
-import org.jboss.marshalling.MarshallerFactory;
-import org.jboss.marshalling.Marshalling;
-import org.jboss.marshalling.MarshallingConfiguration;
 import org.jboss.marshalling.Unmarshaller;
-import org.jboss.remoting3.MessageInputStream;
-import org.xnio.IoUtils;
 
-import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.ServiceUnavailableException;
 
 import static org.jboss.naming.remote.Log.log;
 
 /**
- * A result holder which supports up to one waiting thread.
+ * A result holder which supports any number of waiting threads, and a {@link Notifier} which is called once the
+ * result is available.  The result itself has a single consumer: it is read from the reply once, by whichever of
+ * {@link #getResult()}, {@link #getResultAsPage(int)} or {@link #getBatchResult(int)} is called first, and a second
+ * retrieval fails.  A holder may have a timeout, after which a waiting thread gives up and the request is
+ * abandoned.
+ * <p>
+ * A waiter first spins briefly, since a reply over a fast link often arrives within microseconds, and then parks.
+ * The spin is skipped on virtual threads, which would otherwise keep their carrier busy, and on single processor
+ * machines; its length adapts to how often spinning has paid off on the channel.  Waiting never holds a monitor,
+ * so a virtual thread is never pinned to its carrier.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
@@ -50,21 +58,133 @@ final class ResultHolder<T> {
     private static final Object WAITING = new Object();
     private static final Object CANCELLED = new Object();
 
+    private static final boolean SPIN = Runtime.getRuntime().availableProcessors() > 1;
+    private static final Method IS_VIRTUAL;
+
+    static {
+        Method isVirtual = null;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException ignored) {
+            // no virtual threads on this platform
+        }
+        IS_VIRTUAL = isVirtual;
+    }
+
     private final Class<T> resultType;
-    private final MarshallerFactory factory;
-    private final MarshallingConfiguration configuration;
+    private final MarshallingPool pool;
+    private final Notifier<T> notifier;
+    /** The executor to call the notifier on, or {@code null} to call it on the completing thread */
+    private final Executor executor;
+    /** The timeout in nanoseconds, or 0 for none */
+    private final long timeout;
+    private final long deadline;
+
+    private volatile NamingClient client;
+    private int requestId;
+    private int msg;
+    private long sentAt;
 
     /**
-     * Contains either {@code WAITING} thread (waiting with a waiter), an exception, or {@link #CANCELLED}, or the actual result (may be {@code null}).
+     * Contains either {@code WAITING}, a {@link Waiter} (waiting with waiters), an exception, or {@link #CANCELLED},
+     * or the actual result (may be {@code null}).
      */
     private volatile Object v = WAITING;
 
     private static final AtomicReferenceFieldUpdater<ResultHolder, Object> resultUpdater = AtomicReferenceFieldUpdater.newUpdater(ResultHolder.class, Object.class, "v");
 
-    ResultHolder(final Class<T> resultType, final MarshallerFactory factory, final MarshallingConfiguration configuration) {
+    /**
+     * Construct a new instance.
+     *
+     * @param resultType the type of the result
+     * @param pool the pool of unmarshallers for the result
+     * @param notifier the notifier to call on completion, or {@code null} for none
+     * @param executor the executor to call the notifier on, or {@code null} to call it on the completing thread
+     * @param timeout the timeout in nanoseconds, or 0 for none
+     */
+    ResultHolder(final Class<T> resultType, final MarshallingPool pool, final Notifier<T> notifier, final Executor executor, final long timeout) {
         this.resultType = resultType;
-        this.factory = factory;
-        this.configuration = configuration;
+        this.pool = pool;
+        this.notifier = notifier;
+        this.executor = executor;
+        this.timeout = timeout;
+        deadline = timeout == 0L ? 0L : System.nanoTime() + timeout;
+    }
+
+    ResultHolder(final Class<T> resultType, final MarshallingPool pool, final Notifier<T> notifier, final long timeout) {
+        this(resultType, pool, notifier, null, timeout);
+    }
+
+    ResultHolder(final Class<T> resultType, final MarshallingPool pool, final Notifier<T> notifier) {
+        this(resultType, pool, notifier, 0L);
+    }
+
+    ResultHolder(final Class<T> resultType, final MarshallingPool pool) {
+        this(resultType, pool, null);
+    }
+
+    /**
+     * Record the request this holder awaits the reply of, so that the request can be abandoned and its round trip
+     * timed.
+     *
+     * @param client the client which sent the request
+     * @param requestId the request ID
+     * @param msg the message type of the request
+     */
+    void setRequest(final NamingClient client, final int requestId, final int msg) {
+        this.requestId = requestId;
+        this.msg = msg;
+        sentAt = System.nanoTime();
+        this.client = client;
+    }
+
+    int getMessage() {
+        return msg;
+    }
+
+    long getSentAt() {
+        return sentAt;
+    }
+
+    /**
+     * Get the time left before this holder times out, to be sent to the server as the request deadline.
+     *
+     * @return the remaining time in milliseconds, at least 1, or 0 if there is no timeout
+     */
+    long getRemainingMillis() {
+        if (timeout == 0L) {
+            return 0L;
+        }
+        final long remaining = deadline - System.nanoTime();
+        return remaining <= 0L ? 1L : (remaining + 999999L) / 1000000L;
+    }
+
+    private static boolean isPending(final Object v) {
+        return v == WAITING || v instanceof Waiter;
+    }
+
+    private void done(final Object old) {
+        for (Waiter waiter = old instanceof Waiter ? (Waiter) old : null; waiter != null; waiter = waiter.next) {
+            final Thread thread = waiter.thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+        final Notifier<T> notifier = this.notifier;
+        if (notifier != null) {
+            final Executor executor = this.executor;
+            if (executor != null) try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        notifier.handleDone(ResultHolder.this);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // fall through and notify here
+            }
+            notifier.handleDone(this);
+        }
     }
 
     boolean setException(NamingException e) {
@@ -75,9 +195,7 @@ final class ResultHolder<T> {
                 return false;
             }
         } while (! resultUpdater.compareAndSet(this, old, e));
-        if (old != null) {
-            LockSupport.unpark((Thread) old);
-        }
+        done(old);
         return true;
     }
 
@@ -88,43 +206,117 @@ final class ResultHolder<T> {
             if (old == CANCELLED) {
                 return true;
             }
-            if (old != WAITING && ! (old instanceof Thread)) {
+            if (! isPending(old)) {
                 return false;
             }
         } while (! resultUpdater.compareAndSet(this, old, CANCELLED));
-        if (old != null) {
-            LockSupport.unpark((Thread) old);
-        }
+        done(old);
+        abandon();
         return true;
     }
 
+    private void setTimedOut() {
+        final NamingException e = log.timedOut(timeout / 1000000L);
+        Object old;
+        do {
+            old = v;
+            if (! isPending(old)) {
+                return;
+            }
+        } while (! resultUpdater.compareAndSet(this, old, e));
+        done(old);
+        abandon();
+    }
+
+    /**
+     * Tell the server that the reply is no longer wanted.
+     */
+    private void abandon() {
+        final NamingClient client = this.client;
+        if (client != null) {
+            client.cancelRequest(requestId, this);
+        }
+    }
+
     /**
-     * Wait for the result.
+     * Discard the result, if it is a reply message.
+     */
+    void discard() {
+        final Object old = resultUpdater.getAndSet(this, null);
+        if (old instanceof ReplyBuffer) {
+            ((ReplyBuffer) old).close();
+        }
+    }
+
+    /**
+     * Wait for the result.  If the timeout passes first, the result becomes a
+     * {@link javax.naming.TimeLimitExceededException} and the request is abandoned.
      *
-     * @return {@code false} if interrupted, {@code true} if completed
+     * @return {@code false} if interrupted, {@code true} if completed or timed out
      */
     boolean await() {
         final Thread myThread = Thread.currentThread();
         if (myThread.isInterrupted()) {
             return false;
         }
+        if (! isPending(v)) {
+            return true;
+        }
+        final NamingClient client = this.client;
+        if (SPIN && client != null && ! isVirtual(myThread)) {
+            final int spins = client.getSpins();
+            for (int i = 0; i < spins; i ++) {
+                if (! isPending(v)) {
+                    client.spinSucceeded();
+                    return true;
+                }
+            }
+            client.spinFailed();
+        }
+        final Waiter waiter = new Waiter(myThread);
         Object old;
         do {
             old = v;
-            if (old instanceof Thread) {
-                throw new IllegalStateException("Waiter exists!");
-            }
-            if (old != WAITING) {
+            if (! isPending(old)) {
                 return true;
             }
-        } while (! resultUpdater.compareAndSet(this, old, myThread));
-        do {
-            LockSupport.park(this);
-            if (myThread.isInterrupted()) {
-                return ! resultUpdater.compareAndSet(this, myThread, null);
-            }
-        } while (v == myThread);
-        return true;
+            waiter.next = old instanceof Waiter ? (Waiter) old : null;
+        } while (! resultUpdater.compareAndSet(this, old, waiter));
+        final long timeout = this.timeout;
+        try {
+            do {
+                if (timeout == 0L) {
+                    LockSupport.park(this);
+                } else {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L) {
+                        setTimedOut();
+                        return true;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                if (myThread.isInterrupted()) {
+                    // the holder stays waiting, so that it may still be cancelled
+                    return ! isPending(v);
+                }
+            } while (isPending(v));
+            return true;
+        } finally {
+            // a node left in the list is skipped once it has no thread
+            waiter.thread = null;
+        }
+    }
+
+    private static boolean isVirtual(final Thread thread) {
+        final Method isVirtual = IS_VIRTUAL;
+        if (isVirtual == null) {
+            return false;
+        }
+        try {
+            return ((Boolean) isVirtual.invoke(thread)).booleanValue();
+        } catch (Exception e) {
+            return false;
+        }
     }
 
     private static int readByte(ByteInput input) throws IOException {
@@ -135,36 +327,64 @@ final class ResultHolder<T> {
         return v;
     }
 
-    T getResult() throws NamingException {
+    /**
+     * Take the reply, which may be retrieved only once, however many threads waited for it.
+     *
+     * @return the reply
+     * @throws NamingException if the request failed or was cancelled
+     */
+    private ReplyBuffer takeReply() throws NamingException {
         Object old;
-        old = resultUpdater.getAndSet(this, null);
+        do {
+            old = v;
+            if (isPending(old)) {
+                throw new IllegalStateException("Result is not yet available");
+            }
+        } while (! resultUpdater.compareAndSet(this, old, null));
         if (old == CANCELLED) {
             throw new ServiceUnavailableException("Operation was cancelled by the user");
         }
         if (old instanceof NamingException) {
             throw (NamingException) old;
         }
-        final MessageInputStream message = (MessageInputStream) old;
+        if (old == null) {
+            throw new IllegalStateException("Result was already retrieved");
+        }
+        return (ReplyBuffer) old;
+    }
+
+    /**
+     * Get the result.  The reply is consumed, so this may be called only once, by one of the waiting threads.
+     *
+     * @return the result
+     * @throws NamingException if the request failed or was cancelled
+     * @throws IllegalStateException if the result is not yet available or was already retrieved
+     */
+    T getResult() throws NamingException {
+        final ReplyBuffer input = takeReply();
         try {
-            final ByteInput input = Marshalling.createByteInput(message);
             int b = readByte(input);
             if (b == 0) {
                 // success!
                 if (resultType == Void.class) {
                     return null;
                 } else {
-                    final Unmarshaller unmarshaller = factory.createUnmarshaller(configuration);
+                    final Unmarshaller unmarshaller = pool.getUnmarshaller();
                     unmarshaller.start(input);
-                    return unmarshaller.readObject(resultType);
+                    final T result = unmarshaller.readObject(resultType);
+                    unmarshaller.finish();
+                    pool.returnUnmarshaller(unmarshaller);
+                    return result;
                 }
             } else {
                 // error; construct a new exception.
                 Throwable cause = null;
                 try {
-                    final Unmarshaller unmarshaller = factory.createUnmarshaller(configuration);
+                    final Unmarshaller unmarshaller = pool.getUnmarshaller();
                     unmarshaller.start(input);
                     cause = unmarshaller.readObject(Throwable.class);
                     unmarshaller.finish();
+                    pool.returnUnmarshaller(unmarshaller);
                 } catch (Throwable t) {
                     // no cause is retrievable
                 }
@@ -175,19 +395,82 @@ final class ResultHolder<T> {
         } catch (IOException e) {
             throw log.errorReadingReply(e);
         } finally {
-            IoUtils.safeClose(message);
+            input.close();
+        }
+    }
+
+    /**
+     * Get the result of a batch request.  Each entry is returned as a completed future which holds either the
+     * entry value or the reason that entry failed.
+     *
+     * @param count the number of entries in the batch
+     * @return the entry results, in request order
+     * @throws NamingException if the request as a whole failed
+     */
+    List<FutureNamingResult<T>> getBatchResult(final int count) throws NamingException {
+        final ReplyBuffer input = takeReply();
+        try {
+            int b = readByte(input);
+            final Unmarshaller unmarshaller = pool.getUnmarshaller();
+            unmarshaller.start(input);
+            if (b == 0) {
+                // success!
+                final List<FutureNamingResult<T>> results = new ArrayList<FutureNamingResult<T>>(count);
+                for (int i = 0; i < count; i ++) {
+                    final FutureNamingResult<T> result = new FutureNamingResult<T>();
+                    final int status = unmarshaller.readUnsignedByte();
+                    if (status == 0) {
+                        result.setResult(unmarshaller.readObject(resultType));
+                    } else {
+                        result.setException(decode(status, unmarshaller.readObject(Throwable.class)));
+                    }
+                    results.add(result);
+                }
+                unmarshaller.finish();
+                pool.returnUnmarshaller(unmarshaller);
+                return results;
+            } else {
+                // error; construct a new exception.
+                Throwable cause = null;
+                try {
+                    cause = unmarshaller.readObject(Throwable.class);
+                    unmarshaller.finish();
+                    pool.returnUnmarshaller(unmarshaller);
+                } catch (Throwable t) {
+                    // no cause is retrievable
+                }
+                throw decode(b, cause);
+            }
+        } catch (ClassNotFoundException e) {
+            throw log.errorReadingReply(e);
+        } catch (IOException e) {
+            throw log.errorReadingReply(e);
+        } finally {
+            input.close();
         }
     }
 
     private NamingException decode(final int code, final Throwable cause) {
         switch (code) {
+            case Protocol.ERR_NAME_NOT_FOUND: {
+                return log.errNameNotFound(cause);
+            }
+            case Protocol.ERR_CANCELLED: {
+                return log.errCancelled(cause);
+            }
             default: {
                 return log.errOther(cause);
             }
         }
     }
 
-    boolean setStreamResult(final MessageInputStream message) {
+    /**
+     * Set the reply message as the result.  It is parsed by whoever retrieves the result.
+     *
+     * @param message the reply, positioned after the request ID
+     * @return {@code true} if the result was set, {@code false} if the holder was already done
+     */
+    boolean setReply(final ReplyBuffer message) {
         Object old;
         do {
             old = v;
@@ -195,87 +478,44 @@ final class ResultHolder<T> {
                 return false;
             }
         } while (! resultUpdater.compareAndSet(this, old, message));
-        if (old != null) {
-            LockSupport.unpark((Thread) old);
-        }
+        done(old);
         return true;
     }
 
-    NamingEnumeration<T> getResultAsEnumeration() throws NamingException {
-        Object old;
-        old = resultUpdater.getAndSet(this, null);
-        if (old == CANCELLED) {
-            throw new ServiceUnavailableException("Operation was cancelled by the user");
-        }
-        if (old instanceof NamingException) {
-            throw (NamingException) old;
-        }
-        final MessageInputStream message = (MessageInputStream) old;
+    /**
+     * Get the result of a list request as a page of entries.
+     *
+     * @param window the largest number of entries that was requested
+     * @return the page
+     * @throws NamingException if the request failed
+     */
+    Page getResultAsPage(final int window) throws NamingException {
+        final ReplyBuffer input = takeReply();
         try {
-            final ByteInput input = Marshalling.createByteInput(message);
             int b = readByte(input);
+            final Unmarshaller unmarshaller = pool.getUnmarshaller();
+            unmarshaller.start(input);
             if (b == 0) {
                 // success!
-                if (resultType == Void.class) {
-                    return null;
-                } else {
-                    final Unmarshaller unmarshaller = factory.createUnmarshaller(configuration);
-                    unmarshaller.start(input);
-                    return new NamingEnumeration<T>() {
-                        private T next;
-
-                        public T next() throws NamingException {
-                            if (! hasMore()) {
-                                throw new NoSuchElementException("Moved past the end of the enumeration");
-                            }
-                            return next;
-                        }
-
-                        public boolean hasMore() throws NamingException {
-                            while (next == null) {
-                                try {
-                                    next = unmarshaller.readObject(resultType);
-                                } catch (ClassNotFoundException e) {
-                                    throw log.unmarshallProblem(e);
-                                } catch (IOException e) {
-                                    throw log.unmarshallProblem(e);
-                                }
-                            }
-                            return true;
-                        }
-
-                        public void close() throws NamingException {
-                            try {
-                                message.close();
-                            } catch (IOException e) {
-                                throw log.errorReadingReply(e);
-                            }
-                        }
-
-                        public boolean hasMoreElements() {
-                            try {
-                                return hasMore();
-                            } catch (NamingException e) {
-                                return false;
-                            }
-                        }
-
-                        public T nextElement() {
-                            if (! hasMoreElements()) {
-                                throw new NoSuchElementException("Moved past the end of the enumeration");
-                            }
-                            return next;
-                        }
-                    };
+                final int cursor = unmarshaller.readInt();
+                final int count = unmarshaller.readInt();
+                if (count < 0 || count > window) {
+                    throw new StreamCorruptedException("Invalid page size " + count);
+                }
+                final Object[] entries = new Object[count];
+                for (int i = 0; i < count; i ++) {
+                    entries[i] = unmarshaller.readObject(resultType);
                 }
+                unmarshaller.finish();
+                pool.returnUnmarshaller(unmarshaller);
+                return new Page(cursor, entries);
             } else {
                 // error; construct a new exception.
                 Throwable cause = null;
                 try {
-                    final Unmarshaller unmarshaller = factory.createUnmarshaller(configuration);
-                    unmarshaller.start(input);
                     cause = unmarshaller.readObject(Throwable.class);
                     unmarshaller.finish();
+                    pool.returnUnmarshaller(unmarshaller);
                 } catch (Throwable t) {
                     // no cause is retrievable
                 }
@@ -286,7 +526,60 @@ final class ResultHolder<T> {
         } catch (IOException e) {
             throw log.errorReadingReply(e);
         } finally {
-            IoUtils.safeClose(message);
+            input.close();
+        }
+    }
+
+    /**
+     * A parked thread in the list of waiters.
+     */
+    static final class Waiter {
+        volatile Thread thread;
+        Waiter next;
+
+        Waiter(final Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * One page of a list or list-bindings reply.
+     */
+    static final class Page {
+        private final int cursor;
+        private final Object[] entries;
+
+        Page(final int cursor, final Object[] entries) {
+            this.cursor = cursor;
+            this.entries = entries;
+        }
+
+        /**
+         * Get the server-side cursor from which further pages may be requested.
+         *
+         * @return the cursor, or {@link Protocol#NO_CURSOR} if this is the last page
+         */
+        int getCursor() {
+            return cursor;
+        }
+
+        Object[] getEntries() {
+            return entries;
         }
     }
+
+    /**
+     * A notifier which is called once a result holder is done, on the executor of the holder if it has one, or else
+     * on the thread which completed it, which may be the channel's receiver thread.
+     */
+    interface Notifier<T> {
+
+        /**
+         * Handle completion.  The result can be retrieved with {@link ResultHolder#getResult()} or
+         * {@link ResultHolder#getResultAsPage(int)}.
+         *
+         * @param resultHolder the completed result holder
+         */
+        void handleDone(ResultHolder<T> resultHolder);
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed set of counters which are updated without contention.  Each thread adds to its own stripe, chosen by
+ * thread ID, and a read sums the stripes.  All the counters of a stripe share one padded row, so a set of counters
+ * costs no more memory than a single padded counter per stripe would.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class StripedCounters {
+
+    private static final int STRIPES;
+
+    static {
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() << 1);
+        STRIPES = Math.max(2, Math.min(64, stripes));
+    }
+
+    /** Counters per stripe, rounded up to a cache line and then padded by one more */
+    private final int stride;
+    private final AtomicLongArray cells;
+
+    StripedCounters(final int count) {
+        stride = ((count + 7) & ~7) + 8;
+        cells = new AtomicLongArray(STRIPES * stride);
+    }
+
+    void add(final int counter, final long delta) {
+        cells.addAndGet(((int) Thread.currentThread().getId() & (STRIPES - 1)) * stride + counter, delta);
+    }
+
+    void increment(final int counter) {
+        add(counter, 1L);
+    }
+
+    long sum(final int counter) {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i ++) {
+            sum += cells.get(i * stride + counter);
+        }
+        return sum;
+    }
+
+    void reset() {
+        final int length = cells.length();
+        for (int i = 0; i < length; i ++) {
+            cells.set(i, 0L);
+        }
+    }
+}
@@ -22,13 +22,20 @@
 
 package org.jboss.naming.remote;
 
+import java.net.URI;
 import java.util.Hashtable;
 
+import javax.naming.CompositeName;
 import javax.naming.Context;
 import javax.naming.Name;
 import javax.naming.spi.ObjectFactory;
 
 /**
+ * The URL context factory for the {@code remote} scheme.  A URL of the form {@code remote://host:port/name} names
+ * the object bound to {@code name} on the naming server at {@code host:port}; with an empty name, it names the root
+ * context of the server.  Connections are shared through the {@link NamingClientRegistry}, so resolving many URLs
+ * of one server costs a single connection.
+ *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class remoteURLContextFactory implements ObjectFactory {
@@ -37,11 +44,51 @@ public final class remoteURLContextFactory implements ObjectFactory {
         if (obj == null) {
             return RootContext.getInstance();
         } else if (obj instanceof String) {
-
+            return getObjectInstance(new String[] { (String) obj }, environment);
         } else if (obj instanceof String[]) {
-
+            return getObjectInstance((String[]) obj, environment);
         } else {
             throw new IllegalArgumentException("Invalid 'obj' argument to getObjectInstance");
         }
     }
+
+    /**
+     * Resolve equivalent URLs, which are connected to at once if no connection to any of them is open yet.
+     */
+    private static Object getObjectInstance(final String[] urls, final Hashtable<?, ?> environment) throws Exception {
+        if (urls.length == 0) {
+            throw new IllegalArgumentException("No URL given");
+        }
+        final URI[] uris = new URI[urls.length];
+        for (int i = 0; i < urls.length; i ++) {
+            uris[i] = NamingClientRegistry.parse(urls[i]);
+        }
+        final Hashtable<Object, Object> contextEnvironment = environment == null ? new Hashtable<Object, Object>() : new Hashtable<Object, Object>(environment);
+        final NamingClientRegistry.Entry entry = NamingClientRegistry.getInstance().acquire(uris, contextEnvironment);
+        final RemoteContext context;
+        try {
+            context = new RemoteContext(new CompositeName(), contextEnvironment, entry.getClient());
+        } finally {
+            // the context holds its own reference
+            entry.release();
+        }
+        String path = "";
+        for (URI uri : uris) {
+            if (entry.matches(uri)) {
+                path = uri.getPath() == null ? "" : uri.getPath();
+                break;
+            }
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path.length() == 0) {
+            return context;
+        }
+        try {
+            return context.lookup(path);
+        } finally {
+            context.close();
+        }
+    }
 }
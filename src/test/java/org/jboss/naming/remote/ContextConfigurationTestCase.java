@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.Hashtable;
+
+import junit.framework.TestCase;
+import org.jboss.marshalling.Marshalling;
+
+/**
+ * Tests of the reuse of {@link ContextConfiguration}s by a client.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class ContextConfigurationTestCase extends TestCase {
+
+    private LoopbackChannel[] channels;
+    private NamingClient client;
+
+    protected void setUp() {
+        channels = LoopbackChannel.createPair();
+        client = new NamingClient(channels[0], Marshalling.getProvidedMarshallerFactory("river"));
+    }
+
+    protected void tearDown() {
+        channels[0].close();
+    }
+
+    private static Hashtable<Object, Object> environment(final int pageSize) {
+        final Hashtable<Object, Object> environment = new Hashtable<Object, Object>();
+        environment.put(RemoteContext.LIST_PAGE_SIZE, Integer.valueOf(pageSize));
+        return environment;
+    }
+
+    public void testAlternatingEnvironmentsShareConfigurations() {
+        final ContextConfiguration first = client.getContextConfiguration(environment(1));
+        final ContextConfiguration second = client.getContextConfiguration(environment(2));
+        assertNotSame(first, second);
+        for (int i = 0; i < 10; i ++) {
+            assertSame(first, client.getContextConfiguration(environment(1)));
+            assertSame(second, client.getContextConfiguration(environment(2)));
+        }
+    }
+
+    public void testOldestConfigurationIsDropped() {
+        final ContextConfiguration first = client.getContextConfiguration(environment(0));
+        for (int i = 1; i < AbstractNamingClient.MAX_CONTEXT_CONFIGURATIONS; i ++) {
+            client.getContextConfiguration(environment(i));
+        }
+        assertSame(first, client.getContextConfiguration(environment(0)));
+        client.getContextConfiguration(environment(AbstractNamingClient.MAX_CONTEXT_CONFIGURATIONS));
+        final ContextConfiguration again = client.getContextConfiguration(environment(0));
+        assertNotSame(first, again);
+        assertTrue(again.matches(environment(0)));
+    }
+}
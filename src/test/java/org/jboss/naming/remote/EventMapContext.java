@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.naming.Binding;
+import javax.naming.CompositeName;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingListener;
+import javax.naming.event.ObjectChangeListener;
+
+/**
+ * A {@link MapContext} which reports its changes to naming listeners.  Listeners are kept by the root context and
+ * shared by its subcontexts; every listener hears of every change, whatever its target and scope.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class EventMapContext extends MapContext implements EventContext {
+
+    private final List<NamingListener> listeners;
+    private final EventMapContext root;
+
+    EventMapContext() {
+        super(new CompositeName());
+        listeners = new CopyOnWriteArrayList<NamingListener>();
+        root = this;
+    }
+
+    private EventMapContext(final Name prefix, final EventMapContext root) {
+        super(prefix);
+        listeners = root.listeners;
+        this.root = root;
+    }
+
+    MapContext createContext(final Name prefix) {
+        return new EventMapContext(prefix, root);
+    }
+
+    /**
+     * Get the number of registered listeners.
+     *
+     * @return the number of listeners
+     */
+    int getListenerCount() {
+        return listeners.size();
+    }
+
+    void changed(final Name name, final Object oldValue, final Object newValue) {
+        final String string = name.toString();
+        final Binding newBinding = newValue == null ? null : new Binding(string, newValue);
+        final Binding oldBinding = oldValue == null ? null : new Binding(string, oldValue);
+        final int type = oldValue == null ? NamingEvent.OBJECT_ADDED : newValue == null ? NamingEvent.OBJECT_REMOVED : NamingEvent.OBJECT_CHANGED;
+        final NamingEvent event = new NamingEvent(root, type, newBinding, oldBinding, null);
+        for (NamingListener listener : listeners) {
+            if (type == NamingEvent.OBJECT_CHANGED) {
+                if (listener instanceof ObjectChangeListener) {
+                    ((ObjectChangeListener) listener).objectChanged(event);
+                }
+            } else if (listener instanceof NamespaceChangeListener) {
+                if (type == NamingEvent.OBJECT_ADDED) {
+                    ((NamespaceChangeListener) listener).objectAdded(event);
+                } else {
+                    ((NamespaceChangeListener) listener).objectRemoved(event);
+                }
+            }
+        }
+    }
+
+    public void addNamingListener(final Name target, final int scope, final NamingListener l) {
+        listeners.add(l);
+    }
+
+    public void addNamingListener(final String target, final int scope, final NamingListener l) {
+        listeners.add(l);
+    }
+
+    public void removeNamingListener(final NamingListener l) {
+        listeners.remove(l);
+    }
+
+    public boolean targetMustExist() {
+        return false;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link FutureNamingResult}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class FutureNamingResultTestCase extends TestCase {
+
+    public void testResult() throws Exception {
+        final FutureNamingResult<String> future = new FutureNamingResult<String>();
+        assertFalse(future.isDone());
+        assertTrue(future.setResult("a"));
+        assertFalse(future.setResult("b"));
+        assertFalse(future.setException(new NamingException()));
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        assertEquals("a", future.get());
+        assertEquals("a", future.get(0L, TimeUnit.SECONDS));
+        assertEquals("a", future.getResult());
+    }
+
+    public void testException() throws Exception {
+        final FutureNamingResult<String> future = new FutureNamingResult<String>();
+        final NamingException exception = new NamingException();
+        assertTrue(future.setException(exception));
+        try {
+            future.get();
+            fail("Expected exception");
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+        try {
+            future.getResult();
+            fail("Expected exception");
+        } catch (NamingException e) {
+            assertSame(exception, e);
+        }
+    }
+
+    public void testCancel() throws Exception {
+        final FutureNamingResult<String> future = new FutureNamingResult<String>();
+        final ResultHolder<String> holder = new ResultHolder<String>(String.class, null);
+        future.setResultHolder(holder);
+        assertTrue(future.cancel(false));
+        assertFalse(future.cancel(false));
+        assertFalse(future.setResult("a"));
+        assertTrue(future.isCancelled());
+        assertFalse(holder.setException(new NamingException()));
+        try {
+            future.get();
+            fail("Expected exception");
+        } catch (CancellationException expected) {
+        }
+        try {
+            future.getResult();
+            fail("Expected exception");
+        } catch (ServiceUnavailableException expected) {
+        }
+        // a holder set after the cancel is cancelled too
+        final ResultHolder<String> late = new ResultHolder<String>(String.class, null);
+        future.setResultHolder(late);
+        assertFalse(late.setException(new NamingException()));
+    }
+
+    public void testTimeout() throws Exception {
+        final FutureNamingResult<String> future = new FutureNamingResult<String>();
+        try {
+            future.get(10L, TimeUnit.MILLISECONDS);
+            fail("Expected exception");
+        } catch (TimeoutException expected) {
+        }
+        assertTrue(future.setResult("a"));
+        assertEquals("a", future.get(10L, TimeUnit.MILLISECONDS));
+    }
+
+    public void testWaiters() throws Exception {
+        final FutureNamingResult<String> future = new FutureNamingResult<String>();
+        final int count = 4;
+        final CountDownLatch started = new CountDownLatch(count);
+        final List<AtomicReference<Object>> results = new ArrayList<AtomicReference<Object>>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < count; i ++) {
+            final AtomicReference<Object> result = new AtomicReference<Object>();
+            final Thread thread = new Thread() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        result.set(future.getResult());
+                    } catch (Throwable t) {
+                        result.set(t);
+                    }
+                }
+            };
+            results.add(result);
+            threads.add(thread);
+            thread.start();
+        }
+        started.await();
+        Thread.sleep(20L);
+        assertTrue(future.setResult("a"));
+        for (int i = 0; i < count; i ++) {
+            threads.get(i).join(5000L);
+            assertEquals("a", results.get(i).get());
+        }
+    }
+
+    public void testInterrupt() throws Exception {
+        final FutureNamingResult<String> future = new FutureNamingResult<String>();
+        Thread.currentThread().interrupt();
+        try {
+            future.get();
+            fail("Expected exception");
+        } catch (InterruptedException expected) {
+        }
+        Thread.currentThread().interrupt();
+        try {
+            future.getResult();
+            fail("Expected exception");
+        } catch (NamingException expected) {
+            assertTrue(Thread.interrupted());
+        }
+        assertTrue(future.setResult("a"));
+        assertEquals("a", future.get());
+    }
+
+    public void testListenerOrder() throws Exception {
+        final FutureNamingResult<String> future = new FutureNamingResult<String>();
+        final List<String> calls = new ArrayList<String>();
+        future.addListener(new RecordingListener(calls, "1"));
+        future.addListener(new RecordingListener(calls, "2"));
+        assertTrue(calls.isEmpty());
+        assertTrue(future.setResult("a"));
+        future.addListener(new RecordingListener(calls, "3"));
+        assertEquals("[1:a, 2:a, 3:a]", calls.toString());
+    }
+
+    static final class RecordingListener implements NamingFuture.Listener<String> {
+        private final List<String> calls;
+        private final String id;
+
+        RecordingListener(final List<String> calls, final String id) {
+            this.calls = calls;
+            this.id = id;
+        }
+
+        public void handleResult(final String result) {
+            calls.add(id + ":" + result);
+        }
+
+        public void handleFailure(final NamingException exception) {
+            calls.add(id + ":" + exception);
+        }
+    }
+}
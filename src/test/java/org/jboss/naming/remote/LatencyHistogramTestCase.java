@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link LatencyHistogram}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class LatencyHistogramTestCase extends TestCase {
+
+    public void testEmpty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getPercentile(50.0));
+    }
+
+    public void testSmallValuesAreExact() {
+        for (long value = 0L; value < LatencyHistogram.SUB_BUCKETS * 2; value ++) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            assertEquals(value, histogram.getPercentile(100.0));
+        }
+    }
+
+    public void testPrecision() {
+        for (long value = 1L; value > 0L && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            final long bound = histogram.getPercentile(100.0);
+            assertTrue(value + " reported as " + bound, bound >= value);
+            assertTrue(value + " reported as " + bound, bound - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100.0));
+    }
+
+    public void testNegativeValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5L);
+        assertEquals(1L, histogram.getCount());
+        assertEquals(0L, histogram.getPercentile(100.0));
+    }
+
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i ++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(100L, histogram.getCount());
+        assertBetween(1000L, histogram.getPercentile(0.0));
+        assertBetween(1000L, histogram.getPercentile(1.0));
+        assertBetween(50000L, histogram.getPercentile(50.0));
+        assertBetween(99000L, histogram.getPercentile(99.0));
+        assertBetween(100000L, histogram.getPercentile(100.0));
+        // out of range percentiles are clamped
+        assertEquals(histogram.getPercentile(100.0), histogram.getPercentile(150.0));
+        assertEquals(histogram.getPercentile(0.0), histogram.getPercentile(-1.0));
+        histogram.reset();
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getPercentile(99.0));
+    }
+
+    private static void assertBetween(final long value, final long bound) {
+        assertTrue(value + " reported as " + bound, bound >= value && bound - value <= value / LatencyHistogram.SUB_BUCKETS);
+    }
+}
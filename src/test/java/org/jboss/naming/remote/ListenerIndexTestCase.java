@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.naming.CompositeName;
+import javax.naming.event.EventContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link ListenerIndex}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class ListenerIndexTestCase extends TestCase {
+
+    private int nextId;
+
+    private ListenerRegistration registration(final String target, final int scope) throws Exception {
+        return new ListenerRegistration(null, scope, new CompositeName(target), null, null, nextId ++, null);
+    }
+
+    private static List<ListenerRegistration> match(final ListenerIndex index, final String name) throws Exception {
+        final List<ListenerRegistration> matches = new ArrayList<ListenerRegistration>();
+        index.match(new CompositeName(name), matches);
+        return matches;
+    }
+
+    private static void assertMatches(final List<ListenerRegistration> matches, final ListenerRegistration... expected) {
+        assertEquals(new HashSet<ListenerRegistration>(Arrays.asList(expected)), new HashSet<ListenerRegistration>(matches));
+        assertEquals(expected.length, matches.size());
+    }
+
+    public void testScopes() throws Exception {
+        final ListenerIndex index = new ListenerIndex();
+        final ListenerRegistration object = registration("a/b", EventContext.OBJECT_SCOPE);
+        final ListenerRegistration oneLevel = registration("a/b", EventContext.ONELEVEL_SCOPE);
+        final ListenerRegistration subtree = registration("a/b", EventContext.SUBTREE_SCOPE);
+        index.add(object);
+        index.add(oneLevel);
+        index.add(subtree);
+        assertMatches(match(index, "a/b"), object, subtree);
+        assertMatches(match(index, "a/b/c"), oneLevel, subtree);
+        assertMatches(match(index, "a/b/c/d"), subtree);
+        assertMatches(match(index, "a"));
+        assertMatches(match(index, "a/x"));
+        assertMatches(match(index, "x/b"));
+    }
+
+    public void testRootTarget() throws Exception {
+        final ListenerIndex index = new ListenerIndex();
+        final ListenerRegistration oneLevel = registration("", EventContext.ONELEVEL_SCOPE);
+        final ListenerRegistration subtree = registration("", EventContext.SUBTREE_SCOPE);
+        index.add(oneLevel);
+        index.add(subtree);
+        assertMatches(match(index, "a"), oneLevel, subtree);
+        assertMatches(match(index, "a/b"), subtree);
+    }
+
+    public void testMatchesAreNotRepeated() throws Exception {
+        final ListenerIndex index = new ListenerIndex();
+        final ListenerRegistration subtree = registration("a", EventContext.SUBTREE_SCOPE);
+        index.add(subtree);
+        final List<ListenerRegistration> matches = match(index, "a/b");
+        // a rename matches both the old and the new name
+        index.match(new CompositeName("a/c"), matches);
+        assertMatches(matches, subtree);
+    }
+
+    public void testRemove() throws Exception {
+        final ListenerIndex index = new ListenerIndex();
+        final ListenerRegistration first = registration("a", EventContext.OBJECT_SCOPE);
+        final ListenerRegistration second = registration("a", EventContext.OBJECT_SCOPE);
+        final ListenerRegistration other = registration("b/c", EventContext.OBJECT_SCOPE);
+        index.add(first);
+        index.add(second);
+        index.add(other);
+        assertTrue(index.remove(first));
+        assertFalse(index.remove(first));
+        assertFalse(index.remove(registration("x", EventContext.OBJECT_SCOPE)));
+        assertMatches(match(index, "a"), second);
+        assertTrue(index.remove(second));
+        assertMatches(match(index, "a"));
+        final ListenerRegistration[] removed = index.removeAll();
+        assertEquals(Arrays.asList(other), Arrays.asList(removed));
+        assertMatches(match(index, "b/c"));
+        assertEquals(0, index.removeAll().length);
+    }
+}
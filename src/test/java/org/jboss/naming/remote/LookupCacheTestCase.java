@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link LookupCache}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class LookupCacheTestCase extends TestCase {
+
+    private static final long TTL = 60000L;
+
+    public void testCollidingKeysAreKeptApart() {
+        final LookupCache cache = new LookupCache(100);
+        cache.put("a/b", "first", TTL, cache.getStamp());
+        cache.put("a//b", "second", TTL, cache.getStamp());
+        cache.put("a/b/", "third", TTL, cache.getStamp());
+        assertEquals("first", cache.get("a/b").getValue());
+        assertEquals("second", cache.get("a//b").getValue());
+        assertEquals("third", cache.get("a/b/").getValue());
+    }
+
+    public void testInvalidateRemovesEveryCollidingKey() {
+        final LookupCache cache = new LookupCache(100);
+        cache.put("a/b", "first", TTL, cache.getStamp());
+        cache.put("a//b", "second", TTL, cache.getStamp());
+        cache.put("a/b/c", "child", TTL, cache.getStamp());
+        cache.put("a/x", "sibling", TTL, cache.getStamp());
+        cache.invalidate("a/b");
+        assertNull(cache.get("a/b"));
+        assertNull(cache.get("a//b"));
+        assertNull(cache.get("a/b/c"));
+        assertEquals("sibling", cache.get("a/x").getValue());
+    }
+
+    public void testEvictionKeepsCollidingKeyIndexed() {
+        final LookupCache cache = new LookupCache(2);
+        cache.put("a/b", "first", TTL, cache.getStamp());
+        cache.put("a//b", "second", TTL, cache.getStamp());
+        // evicts one of the two, which must not take the other out of the index
+        cache.put("c", "third", TTL, cache.getStamp());
+        final String survivor = cache.get("a/b") == null ? "a//b" : "a/b";
+        assertNotNull(cache.get(survivor));
+        assertNull(cache.get(survivor.equals("a/b") ? "a//b" : "a/b"));
+        cache.invalidate("a/b");
+        assertNull(cache.get(survivor));
+        assertEquals("third", cache.get("c").getValue());
+    }
+
+    public void testEvictionSparesEntriesReadSinceLastPass() {
+        final LookupCache cache = new LookupCache(3);
+        cache.put("a", "va", TTL, cache.getStamp());
+        cache.put("b", "vb", TTL, cache.getStamp());
+        cache.put("c", "vc", TTL, cache.getStamp());
+        cache.get("a");
+        cache.get("b");
+        cache.put("d", "vd", TTL, cache.getStamp());
+        assertNull(cache.get("c"));
+        assertEquals("va", cache.get("a").getValue());
+        assertEquals("vb", cache.get("b").getValue());
+        assertEquals("vd", cache.get("d").getValue());
+    }
+
+    public void testReplacingEntryDoesNotEvict() {
+        final LookupCache cache = new LookupCache(2);
+        cache.put("a", "va", TTL, cache.getStamp());
+        cache.put("b", "vb", TTL, cache.getStamp());
+        cache.put("a", "va2", TTL, cache.getStamp());
+        assertEquals("va2", cache.get("a").getValue());
+        assertEquals("vb", cache.get("b").getValue());
+    }
+
+    public void testSizeStaysBounded() {
+        final LookupCache cache = new LookupCache(10);
+        for (int i = 0; i < 100; i ++) {
+            cache.put("n" + i, "v" + i, TTL, cache.getStamp());
+            cache.get("n0");
+        }
+        int live = 0;
+        for (int i = 0; i < 100; i ++) {
+            if (cache.get("n" + i) != null) {
+                live ++;
+            }
+        }
+        assertEquals(10, live);
+        assertNotNull(cache.get("n0"));
+    }
+
+    public void testExpiredKeyLeavesCollidingKeyIndexed() throws InterruptedException {
+        final LookupCache cache = new LookupCache(100);
+        cache.put("a/b", "first", 1L, cache.getStamp());
+        cache.put("a//b", "second", TTL, cache.getStamp());
+        Thread.sleep(10L);
+        assertNull(cache.get("a/b"));
+        cache.invalidate("a");
+        assertNull(cache.get("a//b"));
+    }
+
+    public void testStalePutIsDropped() {
+        final LookupCache cache = new LookupCache(100);
+        final long stamp = cache.getStamp();
+        cache.invalidate("a");
+        cache.put("a", "stale", TTL, stamp);
+        assertNull(cache.get("a"));
+    }
+}
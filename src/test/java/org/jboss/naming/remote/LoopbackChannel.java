@@ -0,0 +1,287 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.jboss.remoting3.Attachments;
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.CloseHandler;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.HandleableCloseable;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.MessageOutputStream;
+
+/**
+ * One end of an in-memory channel pair.  Messages are delivered in order, one at a time, by a thread owned by the
+ * receiving end; closing either end closes both.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class LoopbackChannel implements Channel {
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "loopback channel delivery");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final Attachments attachments = new Attachments();
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+    private final Deque<byte[]> queue = new ArrayDeque<byte[]>();
+    private final List<CloseHandler<? super Channel>> closeHandlers = new ArrayList<CloseHandler<? super Channel>>();
+    private LoopbackChannel peer;
+    private Receiver receiver;
+    private boolean ended;
+    private boolean writeShutdown;
+    private boolean closed;
+
+    private LoopbackChannel() {
+    }
+
+    /**
+     * Create a connected pair of channels.
+     *
+     * @return the two ends
+     */
+    static LoopbackChannel[] createPair() {
+        final LoopbackChannel a = new LoopbackChannel();
+        final LoopbackChannel b = new LoopbackChannel();
+        a.peer = b;
+        b.peer = a;
+        return new LoopbackChannel[] { a, b };
+    }
+
+    public Connection getConnection() {
+        return null;
+    }
+
+    public MessageOutputStream writeMessage() throws IOException {
+        synchronized (this) {
+            if (closed || writeShutdown) {
+                throw new IOException("Channel is closed");
+            }
+        }
+        return new MessageOutputStream() {
+            private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            private boolean done;
+
+            public void write(final int b) throws IOException {
+                check();
+                buffer.write(b);
+            }
+
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                check();
+                buffer.write(b, off, len);
+            }
+
+            public void flush() throws IOException {
+                check();
+            }
+
+            public void close() throws IOException {
+                if (! done) {
+                    done = true;
+                    synchronized (LoopbackChannel.this) {
+                        if (closed) {
+                            throw new IOException("Channel is closed");
+                        }
+                    }
+                    peer.deliver(buffer.toByteArray());
+                }
+            }
+
+            public MessageOutputStream cancel() {
+                done = true;
+                return this;
+            }
+
+            private void check() throws IOException {
+                if (done) {
+                    throw new IOException("Message is closed");
+                }
+            }
+        };
+    }
+
+    public void writeShutdown() throws IOException {
+        synchronized (this) {
+            writeShutdown = true;
+        }
+        peer.end();
+    }
+
+    public void receiveMessage(final Receiver receiver) {
+        synchronized (this) {
+            this.receiver = receiver;
+            dispatch();
+        }
+    }
+
+    private void deliver(final byte[] message) {
+        synchronized (this) {
+            if (ended) {
+                return;
+            }
+            queue.add(message);
+            dispatch();
+        }
+    }
+
+    private void end() {
+        synchronized (this) {
+            ended = true;
+            dispatch();
+        }
+    }
+
+    private void dispatch() {
+        assert Thread.holdsLock(this);
+        final Receiver receiver = this.receiver;
+        if (receiver == null) {
+            return;
+        }
+        final byte[] message = queue.poll();
+        if (message == null && ! ended) {
+            return;
+        }
+        this.receiver = null;
+        if (delivery.isShutdown()) {
+            return;
+        }
+        delivery.execute(new Runnable() {
+            public void run() {
+                if (message == null) {
+                    receiver.handleEnd(LoopbackChannel.this);
+                } else {
+                    final ByteArrayInputStream input = new ByteArrayInputStream(message);
+                    receiver.handleMessage(LoopbackChannel.this, new MessageInputStream() {
+                        public int read() {
+                            return input.read();
+                        }
+
+                        public int read(final byte[] b, final int off, final int len) {
+                            return input.read(b, off, len);
+                        }
+
+                        public int available() {
+                            return input.available();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    public void close() {
+        closeLocal();
+        peer.closeLocal();
+    }
+
+    private void closeLocal() {
+        final List<CloseHandler<? super Channel>> handlers;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ended = true;
+            queue.clear();
+            dispatch();
+            delivery.shutdown();
+            handlers = new ArrayList<CloseHandler<? super Channel>>(closeHandlers);
+            closeHandlers.clear();
+            notifyAll();
+        }
+        for (CloseHandler<? super Channel> handler : handlers) {
+            handler.handleClose(this, null);
+        }
+    }
+
+    public void awaitClosed() throws InterruptedException {
+        synchronized (this) {
+            while (! closed) {
+                wait();
+            }
+        }
+    }
+
+    public void awaitClosedUninterruptibly() {
+        boolean intr = false;
+        try {
+            synchronized (this) {
+                while (! closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        intr = true;
+                    }
+                }
+            }
+        } finally {
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void closeAsync() {
+        close();
+    }
+
+    public HandleableCloseable.Key addCloseHandler(final CloseHandler<? super Channel> handler) {
+        synchronized (this) {
+            if (! closed) {
+                closeHandlers.add(handler);
+                return new HandleableCloseable.Key() {
+                    public void remove() {
+                        synchronized (LoopbackChannel.this) {
+                            closeHandlers.remove(handler);
+                        }
+                    }
+                };
+            }
+        }
+        handler.handleClose(this, null);
+        return new HandleableCloseable.Key() {
+            public void remove() {
+            }
+        };
+    }
+
+    public Attachments getAttachments() {
+        return attachments;
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.naming.Binding;
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.NotContextException;
+import javax.naming.OperationNotSupportedException;
+
+/**
+ * A simple in-memory context to serve in tests.  Subcontexts are nested instances.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+class MapContext implements Context {
+
+    private final Name prefix;
+    private final Map<String, Object> bindings = new TreeMap<String, Object>();
+
+    MapContext() {
+        this(new CompositeName());
+    }
+
+    MapContext(final Name prefix) {
+        this.prefix = prefix;
+    }
+
+    private static Name parse(final String name) throws InvalidNameException {
+        return new CompositeName(name);
+    }
+
+    /**
+     * Get the context holding the last component of a name.
+     */
+    private MapContext parent(final Name name) throws NamingException {
+        if (name.isEmpty()) {
+            throw new InvalidNameException("Empty name");
+        }
+        MapContext context = this;
+        for (int i = 0; i < name.size() - 1; i ++) {
+            final Object next;
+            synchronized (context) {
+                next = context.bindings.get(name.get(i));
+            }
+            if (next == null) {
+                throw new NameNotFoundException(name.toString());
+            }
+            if (! (next instanceof MapContext)) {
+                throw new NotContextException(name.getPrefix(i + 1).toString());
+            }
+            context = (MapContext) next;
+        }
+        return context;
+    }
+
+    private static String last(final Name name) {
+        return name.get(name.size() - 1);
+    }
+
+    /**
+     * Hook called after a binding changes.
+     *
+     * @param name the absolute name of the binding
+     * @param oldValue the old value, or {@code null} if there was none
+     * @param newValue the new value, or {@code null} if it was removed
+     */
+    void changed(final Name name, final Object oldValue, final Object newValue) {
+    }
+
+    Name absolute(final Name name) throws InvalidNameException {
+        return ((Name) prefix.clone()).addAll(name);
+    }
+
+    public Object lookup(final Name name) throws NamingException {
+        if (name.isEmpty()) {
+            return this;
+        }
+        final MapContext parent = parent(name);
+        final Object value;
+        synchronized (parent) {
+            value = parent.bindings.get(last(name));
+        }
+        if (value == null) {
+            throw new NameNotFoundException(name.toString());
+        }
+        return value;
+    }
+
+    public Object lookup(final String name) throws NamingException {
+        return lookup(parse(name));
+    }
+
+    public void bind(final Name name, final Object obj) throws NamingException {
+        final MapContext parent = parent(name);
+        synchronized (parent) {
+            if (parent.bindings.containsKey(last(name))) {
+                throw new NameAlreadyBoundException(name.toString());
+            }
+            parent.bindings.put(last(name), obj);
+        }
+        changed(absolute(name), null, obj);
+    }
+
+    public void bind(final String name, final Object obj) throws NamingException {
+        bind(parse(name), obj);
+    }
+
+    public void rebind(final Name name, final Object obj) throws NamingException {
+        final MapContext parent = parent(name);
+        final Object old;
+        synchronized (parent) {
+            old = parent.bindings.put(last(name), obj);
+        }
+        changed(absolute(name), old, obj);
+    }
+
+    public void rebind(final String name, final Object obj) throws NamingException {
+        rebind(parse(name), obj);
+    }
+
+    public void unbind(final Name name) throws NamingException {
+        final MapContext parent = parent(name);
+        final Object old;
+        synchronized (parent) {
+            old = parent.bindings.remove(last(name));
+        }
+        if (old != null) {
+            changed(absolute(name), old, null);
+        }
+    }
+
+    public void unbind(final String name) throws NamingException {
+        unbind(parse(name));
+    }
+
+    public void rename(final Name oldName, final Name newName) throws NamingException {
+        final Object value = lookup(oldName);
+        bind(newName, value);
+        unbind(oldName);
+    }
+
+    public void rename(final String oldName, final String newName) throws NamingException {
+        rename(parse(oldName), parse(newName));
+    }
+
+    private MapContext context(final Name name) throws NamingException {
+        final Object value = lookup(name);
+        if (! (value instanceof MapContext)) {
+            throw new NotContextException(name.toString());
+        }
+        return (MapContext) value;
+    }
+
+    public NamingEnumeration<NameClassPair> list(final Name name) throws NamingException {
+        final MapContext context = context(name);
+        final List<NameClassPair> list = new ArrayList<NameClassPair>();
+        synchronized (context) {
+            for (Map.Entry<String, Object> entry : context.bindings.entrySet()) {
+                list.add(new NameClassPair(entry.getKey(), entry.getValue().getClass().getName()));
+            }
+        }
+        return new ListEnumeration<NameClassPair>(list);
+    }
+
+    public NamingEnumeration<NameClassPair> list(final String name) throws NamingException {
+        return list(parse(name));
+    }
+
+    public NamingEnumeration<Binding> listBindings(final Name name) throws NamingException {
+        final MapContext context = context(name);
+        final List<Binding> list = new ArrayList<Binding>();
+        synchronized (context) {
+            for (Map.Entry<String, Object> entry : context.bindings.entrySet()) {
+                list.add(new Binding(entry.getKey(), entry.getValue()));
+            }
+        }
+        return new ListEnumeration<Binding>(list);
+    }
+
+    public NamingEnumeration<Binding> listBindings(final String name) throws NamingException {
+        return listBindings(parse(name));
+    }
+
+    public void destroySubcontext(final Name name) throws NamingException {
+        context(name);
+        unbind(name);
+    }
+
+    public void destroySubcontext(final String name) throws NamingException {
+        destroySubcontext(parse(name));
+    }
+
+    public Context createSubcontext(final Name name) throws NamingException {
+        final MapContext context = createContext(absolute(name));
+        bind(name, context);
+        return context;
+    }
+
+    /**
+     * Create a new subcontext instance.
+     *
+     * @param prefix the absolute name of the subcontext
+     * @return the subcontext
+     */
+    MapContext createContext(final Name prefix) {
+        return new MapContext(prefix);
+    }
+
+    public Context createSubcontext(final String name) throws NamingException {
+        return createSubcontext(parse(name));
+    }
+
+    public Object lookupLink(final Name name) throws NamingException {
+        return lookup(name);
+    }
+
+    public Object lookupLink(final String name) throws NamingException {
+        return lookup(name);
+    }
+
+    public NameParser getNameParser(final Name name) throws NamingException {
+        throw new OperationNotSupportedException();
+    }
+
+    public NameParser getNameParser(final String name) throws NamingException {
+        throw new OperationNotSupportedException();
+    }
+
+    public Name composeName(final Name name, final Name prefix) throws NamingException {
+        return ((Name) prefix.clone()).addAll(name);
+    }
+
+    public String composeName(final String name, final String prefix) throws NamingException {
+        return composeName(parse(name), parse(prefix)).toString();
+    }
+
+    public Object addToEnvironment(final String propName, final Object propVal) throws NamingException {
+        throw new OperationNotSupportedException();
+    }
+
+    public Object removeFromEnvironment(final String propName) throws NamingException {
+        throw new OperationNotSupportedException();
+    }
+
+    public Hashtable<?, ?> getEnvironment() throws NamingException {
+        return new Hashtable<Object, Object>();
+    }
+
+    public void close() {
+    }
+
+    public String getNameInNamespace() {
+        return prefix.toString();
+    }
+
+    static final class ListEnumeration<T> implements NamingEnumeration<T> {
+        private final Iterator<T> iterator;
+
+        ListEnumeration(final List<T> list) {
+            iterator = list.iterator();
+        }
+
+        public T next() {
+            return iterator.next();
+        }
+
+        public boolean hasMore() {
+            return iterator.hasNext();
+        }
+
+        public void close() {
+        }
+
+        public boolean hasMoreElements() {
+            return iterator.hasNext();
+        }
+
+        public T nextElement() {
+            return iterator.next();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import javax.naming.CompositeName;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link NameCache}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class NameCacheTestCase extends TestCase {
+
+    public void testEntry() throws Exception {
+        final NameCache cache = new NameCache(16);
+        final NameCache.Entry entry = cache.get("a/b\\/c");
+        assertEquals(new CompositeName("a/b\\/c"), entry.getName());
+        assertEquals(2, entry.getName().size());
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        NameEncoding.writeName(expected, entry.getName(), null);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        entry.writeTo(written);
+        assertTrue(Arrays.equals(expected.toByteArray(), written.toByteArray()));
+        assertSame(entry, cache.get("a/b\\/c"));
+    }
+
+    public void testInvalidName() {
+        final NameCache cache = new NameCache(16);
+        assertNull(cache.get("\"a/b"));
+    }
+
+    public void testUsedEntryGetsSecondChance() {
+        final NameCache cache = new NameCache(2);
+        final NameCache.Entry a = cache.get("a");
+        final NameCache.Entry b = cache.get("b");
+        assertSame(a, cache.get("a"));
+        // full: the hand passes over the used entry and evicts the other
+        final NameCache.Entry c = cache.get("c");
+        assertSame(c, cache.get("c"));
+        assertSame(a, cache.get("a"));
+        assertNotSame(b, cache.get("b"));
+    }
+
+    public void testAllUsedEntries() {
+        final NameCache cache = new NameCache(2);
+        final NameCache.Entry a = cache.get("a");
+        final NameCache.Entry b = cache.get("b");
+        assertSame(a, cache.get("a"));
+        assertSame(b, cache.get("b"));
+        // every mark is cleared on the first turn, so one entry is still evicted
+        final NameCache.Entry c = cache.get("c");
+        assertSame(c, cache.get("c"));
+    }
+
+    public void testEmptyCache() {
+        final NameCache cache = new NameCache(0);
+        final NameCache.Entry entry = cache.get("a");
+        assertEquals(1, entry.getName().size());
+        // nothing can be cached
+        assertNotSame(entry, cache.get("a"));
+    }
+}
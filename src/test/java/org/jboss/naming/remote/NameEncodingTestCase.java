@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Properties;
+import org.jboss.marshalling.Marshalling;
+import org.jboss.marshalling.MarshallingConfiguration;
+
+import javax.naming.CompositeName;
+import javax.naming.CompoundName;
+import javax.naming.Name;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link NameEncoding}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class NameEncodingTestCase extends TestCase {
+
+    private static MarshallingPool pool() {
+        final MarshallingConfiguration configuration = new MarshallingConfiguration();
+        configuration.setVersion(3);
+        return new MarshallingPool(Marshalling.getProvidedMarshallerFactory("river"), configuration);
+    }
+
+    private static byte[] write(final MarshallingPool pool, final Object... names) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] scratch = new byte[NameEncoding.SCRATCH_SIZE];
+        Object previous = null;
+        for (Object name : names) {
+            NameEncoding.writeName(out, name, previous, scratch, pool);
+            previous = name;
+        }
+        return out.toByteArray();
+    }
+
+    private static Object[] read(final byte[] bytes, final MarshallingPool pool, final int count) throws IOException {
+        final ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        final Object[] names = new Object[count];
+        Object previous = null;
+        for (int i = 0; i < count; i ++) {
+            names[i] = previous = NameEncoding.readName(in, previous, pool);
+        }
+        assertEquals(-1, in.read());
+        return names;
+    }
+
+    private static void assertRoundTrip(final Object... names) throws IOException {
+        final MarshallingPool pool = pool();
+        final Object[] read = read(write(pool, names), pool, names.length);
+        for (int i = 0; i < names.length; i ++) {
+            assertEquals(names[i], read[i]);
+            assertEquals(names[i].getClass(), read[i].getClass());
+        }
+    }
+
+    public void testStrings() throws Exception {
+        assertRoundTrip("");
+        assertRoundTrip("a/b", "a/c", "a", "b", "a/b/c/d");
+        assertRoundTrip("\u00e9t\u00e9", "\ud83d\ude00x", "\ud83d\ude01y");
+    }
+
+    public void testCompositeNames() throws Exception {
+        assertRoundTrip(new CompositeName());
+        assertRoundTrip(new CompositeName("a/b/c"), new CompositeName("a/b/d"), new CompositeName("a"), new CompositeName("x/y"));
+        // a separator within a component needs no escaping on the wire
+        final CompositeName name = new CompositeName();
+        name.add("a/b");
+        name.add("c\\d");
+        name.add("");
+        assertRoundTrip(name, new CompositeName("a\\/b/e"));
+    }
+
+    public void testLongComponents() throws Exception {
+        final StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 20000; i ++) {
+            b.append((char) ('a' + i % 26));
+        }
+        final String component = b.toString();
+        final CompositeName name = new CompositeName();
+        name.add(component);
+        assertRoundTrip(component, name);
+        // the length takes three bytes, seven bits at a time
+        final byte[] bytes = write(null, component);
+        assertEquals(2 + 3 + 20000, bytes.length);
+        assertEquals(20000 & 0x7F | 0x80, bytes[2] & 0xFF);
+        assertEquals(20000 >> 7 & 0x7F | 0x80, bytes[3] & 0xFF);
+        assertEquals(20000 >> 14, bytes[4] & 0xFF);
+    }
+
+    public void testSharedPrefix() throws Exception {
+        final byte[] first = write(null, new CompositeName("aaaa/bbbb/cccc"));
+        final byte[] both = write(null, new CompositeName("aaaa/bbbb/cccc"), new CompositeName("aaaa/bbbb/dddd"));
+        // the second name sends only its last component
+        assertEquals(first.length + 3 + 1 + 4, both.length);
+        final byte[] strings = write(null, "prefix/one", "prefix/two");
+        assertEquals(2 + 1 + 10 + 2 + 1 + 3, strings.length);
+        // a surrogate pair is never split between the prefix and the suffix
+        final Object[] read = read(write(null, "\ud83d\ude00", "\ud83d\ude01"), null, 2);
+        assertEquals("\ud83d\ude01", read[1]);
+    }
+
+    public void testInvalidSharedPrefix() throws Exception {
+        final byte[] bytes = { Protocol.NAME_COMPOSITE, 1, 0 };
+        try {
+            NameEncoding.readName(new ByteArrayInputStream(bytes), null, null);
+            fail("Expected exception");
+        } catch (StreamCorruptedException expected) {
+        }
+        try {
+            NameEncoding.readName(new ByteArrayInputStream(new byte[] { Protocol.NAME_STRING, 5, 0 }), "abc", null);
+            fail("Expected exception");
+        } catch (StreamCorruptedException expected) {
+        }
+    }
+
+    public void testLimit() throws Exception {
+        final int max = 1 << 20;
+        final byte[] atLimit = { Protocol.NAME_COMPOSITE, 0, (byte) 0x80, (byte) 0x80, (byte) (max >> 14) };
+        final byte[] overLimit = { Protocol.NAME_COMPOSITE, 0, (byte) 0x81, (byte) 0x80, (byte) (max >> 14) };
+        try {
+            NameEncoding.readName(new ByteArrayInputStream(atLimit), null, null);
+            fail("Expected exception");
+        } catch (StreamCorruptedException unexpected) {
+            fail("Count at the limit was refused");
+        } catch (IOException expected) {
+            // the components are missing
+        }
+        try {
+            NameEncoding.readName(new ByteArrayInputStream(overLimit), null, null);
+            fail("Expected exception");
+        } catch (StreamCorruptedException expected) {
+        }
+        final byte[] tooLong = { Protocol.NAME_STRING, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F };
+        try {
+            NameEncoding.readName(new ByteArrayInputStream(tooLong), null, null);
+            fail("Expected exception");
+        } catch (StreamCorruptedException expected) {
+        }
+    }
+
+    public void testUnknownKind() throws Exception {
+        try {
+            NameEncoding.readName(new ByteArrayInputStream(new byte[] { 9, 0 }), null, null);
+            fail("Expected exception");
+        } catch (StreamCorruptedException expected) {
+        }
+    }
+
+    public void testCompoundName() throws Exception {
+        final Properties syntax = new Properties();
+        syntax.setProperty("jndi.syntax.direction", "right_to_left");
+        syntax.setProperty("jndi.syntax.separator", ".");
+        final Name name = new CompoundName("www.example.com", syntax);
+        assertRoundTrip(name, new CompositeName("www/example"), name);
+        // without a pool, a marshalled name can be neither written nor read
+        try {
+            write(null, name);
+            fail("Expected exception");
+        } catch (IllegalArgumentException expected) {
+        }
+        final byte[] bytes = write(pool(), name);
+        assertEquals(Protocol.NAME_MARSHALLED, bytes[0]);
+        try {
+            NameEncoding.readName(new ByteArrayInputStream(bytes), null, null);
+            fail("Expected exception");
+        } catch (StreamCorruptedException expected) {
+        }
+    }
+}
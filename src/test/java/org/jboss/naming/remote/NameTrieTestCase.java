@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.naming.CompositeName;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link NameTrie}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class NameTrieTestCase extends TestCase {
+
+    private static String[] path(final String... components) {
+        return components;
+    }
+
+    public void testSplit() throws Exception {
+        assertEquals(0, NameTrie.split("").length);
+        assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(NameTrie.split("a/b/c")));
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(NameTrie.split("/a//b/")));
+        // escaped and quoted separators stay within their component
+        assertEquals(Arrays.asList("a/b", "c"), Arrays.asList(NameTrie.split("a\\/b/c")));
+        assertEquals(Arrays.asList("a/b", "c"), Arrays.asList(NameTrie.split("\"a/b\"/c")));
+        // a string name splits as its composite name does
+        final CompositeName name = new CompositeName();
+        name.add("x/y");
+        name.add("z");
+        assertEquals(Arrays.asList(NameTrie.components(name)), Arrays.asList(NameTrie.split(name.toString())));
+        // an invalid composite name splits at every separator
+        assertEquals(Arrays.asList("\"a", "b"), Arrays.asList(NameTrie.split("\"a/b")));
+    }
+
+    public void testPutGetRemove() {
+        final NameTrie<String> trie = new NameTrie<String>();
+        assertNull(trie.put(path("a", "b"), "ab"));
+        assertNull(trie.get(path("a")));
+        assertEquals("ab", trie.get(path("a", "b")));
+        assertEquals("ab", trie.put(path("a", "b"), "ab2"));
+        assertNull(trie.put(path(), "root"));
+        assertEquals("root", trie.get(path()));
+        assertEquals("ab2", trie.remove(path("a", "b")));
+        assertNull(trie.get(path("a", "b")));
+        assertNull(trie.remove(path("a", "b")));
+        assertNull(trie.remove(path("x")));
+        assertEquals("root", trie.get(path()));
+    }
+
+    public void testSubtree() {
+        final NameTrie<String> trie = new NameTrie<String>();
+        trie.put(path("a"), "a");
+        trie.put(path("a", "b"), "ab");
+        trie.put(path("a", "b", "c"), "abc");
+        trie.put(path("a", "d"), "ad");
+        trie.put(path("e"), "e");
+        final Set<String> values = new HashSet<String>();
+        trie.getSubtree(path("a", "b"), values);
+        assertEquals(new HashSet<String>(Arrays.asList("ab", "abc")), values);
+        final List<String> removed = new ArrayList<String>();
+        trie.removeSubtree(path("a"), removed);
+        assertEquals(new HashSet<String>(Arrays.asList("a", "ab", "abc", "ad")), new HashSet<String>(removed));
+        assertNull(trie.get(path("a", "d")));
+        assertEquals("e", trie.get(path("e")));
+        trie.removeSubtree(path(), null);
+        assertNull(trie.get(path("e")));
+    }
+
+    public void testVisitPath() {
+        final NameTrie<String> trie = new NameTrie<String>();
+        trie.put(path(), "root");
+        trie.put(path("a", "b"), "ab");
+        trie.put(path("a", "b", "c", "d"), "abcd");
+        final List<String> visited = new ArrayList<String>();
+        trie.visitPath(path("a", "b", "c"), new NameTrie.PathVisitor<String>() {
+            public void visit(final int depth, final String value) {
+                visited.add(depth + ":" + value);
+            }
+        });
+        assertEquals(Arrays.asList("0:root", "2:ab"), visited);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Properties;
+import java.util.Vector;
+import org.jboss.marshalling.ClassTable;
+import org.jboss.marshalling.Marshaller;
+import org.jboss.marshalling.MarshallerFactory;
+import org.jboss.marshalling.Marshalling;
+import org.jboss.marshalling.MarshallingConfiguration;
+import org.jboss.marshalling.Unmarshaller;
+
+import javax.naming.BinaryRefAddr;
+import javax.naming.Binding;
+import javax.naming.CompositeName;
+import javax.naming.LinkRef;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.Reference;
+import javax.naming.StringRefAddr;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link NamingClassTable}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class NamingClassTableTestCase extends TestCase {
+
+    private static final MarshallerFactory FACTORY = Marshalling.getProvidedMarshallerFactory("river");
+
+    private static MarshallingConfiguration configuration(final ClassTable classTable) {
+        final MarshallingConfiguration configuration = new MarshallingConfiguration();
+        configuration.setVersion(3);
+        configuration.setClassTable(classTable);
+        return configuration;
+    }
+
+    private static byte[] write(final ClassTable classTable, final Object object) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Marshaller marshaller = FACTORY.createMarshaller(configuration(classTable));
+        marshaller.start(Marshalling.createByteOutput(bytes));
+        marshaller.writeObject(object);
+        marshaller.finish();
+        return bytes.toByteArray();
+    }
+
+    private static Object read(final ClassTable classTable, final byte[] bytes) throws IOException, ClassNotFoundException {
+        final Unmarshaller unmarshaller = FACTORY.createUnmarshaller(configuration(classTable));
+        unmarshaller.start(Marshalling.createByteInput(new ByteArrayInputStream(bytes)));
+        final Object object = unmarshaller.readObject();
+        unmarshaller.finish();
+        return object;
+    }
+
+    private static Object roundTrip(final Object object) throws Exception {
+        final byte[] bytes = write(NamingClassTable.getInstance(), object);
+        // the dictionary replaces class descriptors, so the table never makes a value larger
+        assertTrue(bytes.length <= write(null, object).length);
+        final Object copy = read(NamingClassTable.getInstance(), bytes);
+        assertNotSame(object, copy);
+        assertEquals(object.getClass(), copy.getClass());
+        return copy;
+    }
+
+    public void testReferences() throws Exception {
+        final Reference reference = new Reference("com.example.Thing", "com.example.ThingFactory", null);
+        reference.add(new StringRefAddr("url", "remote://localhost"));
+        reference.add(new BinaryRefAddr("key", new byte[] { 1, 2, 3 }));
+        assertEquals(reference, roundTrip(reference));
+        final LinkRef link = new LinkRef("java:global/thing");
+        assertEquals(link, roundTrip(link));
+        assertEquals("java:global/thing", ((LinkRef) roundTrip(link)).getLinkName());
+    }
+
+    public void testBindings() throws Exception {
+        final NameClassPair pair = (NameClassPair) roundTrip(new NameClassPair("a", String.class.getName()));
+        assertEquals("a", pair.getName());
+        assertEquals(String.class.getName(), pair.getClassName());
+        final Binding binding = (Binding) roundTrip(new Binding("b", "value", false));
+        assertEquals("b", binding.getName());
+        assertEquals("value", binding.getObject());
+        assertFalse(binding.isRelative());
+    }
+
+    public void testNames() throws Exception {
+        final CompositeName name = new CompositeName("a/b/c");
+        assertEquals(name, roundTrip(name));
+    }
+
+    public void testExceptions() throws Exception {
+        final NameNotFoundException exception = new NameNotFoundException("missing");
+        exception.setRemainingName(new CompositeName("x/y"));
+        final NameNotFoundException copy = (NameNotFoundException) roundTrip(exception);
+        assertEquals("missing", copy.getExplanation());
+        assertEquals(exception.getRemainingName(), copy.getRemainingName());
+        assertTrue(Arrays.equals(exception.getStackTrace(), copy.getStackTrace()));
+    }
+
+    public void testCollections() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("k", "v");
+        assertEquals(properties, roundTrip(properties));
+        final Hashtable<String, Object> hashtable = new Hashtable<String, Object>();
+        hashtable.put("k", new String[] { "v" });
+        assertTrue(Arrays.equals(new String[] { "v" }, (String[]) ((Hashtable<?, ?>) roundTrip(hashtable)).get("k")));
+        assertEquals(new Vector<String>(Arrays.asList("a", "b")), roundTrip(new Vector<String>(Arrays.asList("a", "b"))));
+        assertEquals(new ArrayList<String>(Arrays.asList("a", "b")), roundTrip(new ArrayList<String>(Arrays.asList("a", "b"))));
+        assertTrue(Arrays.equals(new Object[] { "a", Integer.valueOf(1) }, (Object[]) roundTrip(new Object[] { "a", Integer.valueOf(1) })));
+    }
+
+    public void testUserClasses() throws Exception {
+        final ClassTable table = NamingClassTable.forUserClasses(new Class<?>[] { First.class, Second.class });
+        final byte[] bytes = write(table, new Second("x"));
+        assertEquals(new Second("x"), read(table, bytes));
+        // the same classes by name make the same table
+        final ClassTable byName = NamingClassTable.forUserClasses(First.class.getName() + ", " + Second.class.getName());
+        assertEquals(new Second("x"), read(byName, bytes));
+        // a user class is written as one byte from 0x80 up, in the order given
+        final Marshaller marshaller = FACTORY.createMarshaller(configuration(table));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        marshaller.start(Marshalling.createByteOutput(out));
+        table.getClassWriter(Second.class).writeClass(marshaller, Second.class);
+        table.getClassWriter(CompositeName.class).writeClass(marshaller, CompositeName.class);
+        marshaller.finish();
+        final byte[] written = out.toByteArray();
+        // after the stream header
+        assertEquals(0x81, written[written.length - 2] & 0xFF);
+        assertEquals(7, written[written.length - 1]);
+        assertNull(table.getClassWriter(NamingClassTableTestCase.class));
+    }
+
+    public void testUserClassMismatch() throws Exception {
+        final byte[] bytes = write(NamingClassTable.forUserClasses(new Class<?>[] { First.class }), new First());
+        // a peer without the user class cannot read it
+        try {
+            read(NamingClassTable.getInstance(), bytes);
+            fail("Expected an exception");
+        } catch (ClassNotFoundException expected) {
+        }
+        // nor can a peer with other user classes in its place
+        try {
+            read(NamingClassTable.forUserClasses(new Class<?>[] { Second.class }), bytes);
+            fail("Expected an exception");
+        } catch (IOException expected) {
+        } catch (ClassNotFoundException expected) {
+        }
+    }
+
+    public void testInvalidUserClasses() {
+        try {
+            NamingClassTable.forUserClasses("com.example.NoSuchClass");
+            fail("Expected an exception");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new NamingClassTable(String[].class);
+            fail("Expected an exception");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertSame(NamingClassTable.getInstance(), NamingClassTable.forUserClasses(null));
+        assertSame(NamingClassTable.getInstance(), NamingClassTable.forUserClasses(" , "));
+    }
+
+    public static final class First implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static final class Second implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String value;
+
+        public Second(final String value) {
+            this.value = value;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Second && ((Second) obj).value.equals(value);
+        }
+
+        public int hashCode() {
+            return value.hashCode();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.ServiceUnavailableException;
+
+import junit.framework.TestCase;
+import org.jboss.marshalling.Marshalling;
+import org.jboss.remoting3.Channel;
+
+/**
+ * Tests of the replacement of failed members by {@link NamingClientPool}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class NamingClientPoolTestCase extends TestCase {
+
+    private static final long WAIT_MILLIS = 10000L;
+
+    private ExecutorService executor;
+    private NamingServer server;
+    private final List<Channel> channels = new CopyOnWriteArrayList<Channel>();
+    private final AtomicInteger opens = new AtomicInteger();
+    /** the number of further opens which fail; negative to fail every open */
+    private final AtomicInteger failures = new AtomicInteger();
+    private final NamingClientPool.ChannelOpener opener = new NamingClientPool.ChannelOpener() {
+        public Channel openChannel() throws IOException {
+            opens.incrementAndGet();
+            for (;;) {
+                final int remaining = failures.get();
+                if (remaining == 0) {
+                    break;
+                }
+                if (remaining < 0 || failures.compareAndSet(remaining, remaining - 1)) {
+                    throw new IOException("Refused");
+                }
+            }
+            final LoopbackChannel[] pair = LoopbackChannel.createPair();
+            server.channelOpened(pair[1]);
+            channels.add(pair[0]);
+            return pair[0];
+        }
+    };
+
+    protected void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        final MapContext localContext = new MapContext();
+        localContext.bind("a", "va");
+        server = new NamingServer(localContext, executor);
+    }
+
+    protected void tearDown() throws Exception {
+        for (Channel channel : channels) {
+            channel.close();
+        }
+        executor.shutdown();
+    }
+
+    private NamingClientPool createPool(final int size) throws IOException {
+        return new NamingClientPool(size, opener, Marshalling.getProvidedMarshallerFactory("river"), false, executor);
+    }
+
+    private void awaitOpens(final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (opens.get() < count) {
+            assertTrue("Timed out waiting for " + count + " opens", System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    private static void awaitClosed(final NamingClientPool pool) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (! pool.isClosed()) {
+            assertTrue("Timed out waiting for the pool to close", System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    public void testFailedMemberIsReplaced() throws Exception {
+        final NamingClientPool pool = createPool(2);
+        final RemoteContext context = new RemoteContext(pool);
+        channels.get(0).close();
+        awaitOpens(3);
+        assertFalse(pool.isClosed());
+        assertEquals("va", context.lookup("a"));
+        context.close();
+        pool.close();
+    }
+
+    public void testFailedReplacementIsRetried() throws Exception {
+        final NamingClientPool pool = createPool(1);
+        failures.set(2);
+        channels.get(0).close();
+        awaitOpens(4);
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (channels.size() < 2) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            assertFalse(pool.isClosed());
+            Thread.sleep(10L);
+        }
+        final RemoteContext context = new RemoteContext(pool);
+        assertEquals("va", context.lookup("a"));
+        context.close();
+        pool.close();
+    }
+
+    public void testPoolWithNoMemberLeftIsClosed() throws Exception {
+        final NamingClientPool pool = createPool(1);
+        failures.set(-1);
+        channels.get(0).close();
+        assertFalse(pool.isClosed());
+        awaitClosed(pool);
+        assertEquals(1 + NamingClientPool.MAX_REPLACE_ATTEMPTS, opens.get());
+        // a request tries the empty slot again
+        failures.set(0);
+        final RemoteContext context = new RemoteContext(pool);
+        try {
+            context.lookup("a");
+            fail("Expected failure");
+        } catch (ServiceUnavailableException expected) {
+        }
+        awaitOpens(2 + NamingClientPool.MAX_REPLACE_ATTEMPTS);
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (pool.isClosed()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+        assertEquals("va", context.lookup("a"));
+        context.close();
+        pool.close();
+    }
+
+    public void testClosedPoolIsClosed() throws Exception {
+        final NamingClientPool pool = createPool(2);
+        assertFalse(pool.isClosed());
+        pool.close();
+        assertTrue(pool.isClosed());
+    }
+}
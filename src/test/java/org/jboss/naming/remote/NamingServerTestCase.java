@@ -0,0 +1,264 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CompositeName;
+import javax.naming.LimitExceededException;
+import javax.naming.NameClassPair;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingExceptionEvent;
+import javax.naming.event.ObjectChangeListener;
+
+import junit.framework.TestCase;
+import org.jboss.marshalling.Marshalling;
+
+/**
+ * Tests of the invalidations and naming events sent by {@link NamingServer}, and of the listings it keeps open.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class NamingServerTestCase extends TestCase {
+
+    private static final long WAIT_MILLIS = 10000L;
+
+    private ExecutorService executor;
+    private EventMapContext localContext;
+    private NamingServer server;
+    private LoopbackChannel[] channels1;
+    private LoopbackChannel[] channels2;
+    private RemoteContext context1;
+    private RemoteContext context2;
+
+    protected void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        localContext = new EventMapContext();
+        localContext.bind("a", "va");
+        localContext.bind("b", "vb");
+        server = new NamingServer(localContext, executor);
+        channels1 = LoopbackChannel.createPair();
+        channels2 = LoopbackChannel.createPair();
+        context1 = connect(channels1);
+        context2 = connect(channels2);
+    }
+
+    private RemoteContext connect(final LoopbackChannel[] channels) {
+        server.channelOpened(channels[1]);
+        final NamingClient client = new NamingClient(channels[0], Marshalling.getProvidedMarshallerFactory("river"));
+        client.start();
+        final Hashtable<Object, Object> environment = new Hashtable<Object, Object>();
+        environment.put(RemoteContext.LOOKUP_CACHE_TTL, "60000");
+        environment.put(RemoteContext.LIST_PAGE_SIZE, "1");
+        return new RemoteContext(new CompositeName(), environment, client);
+    }
+
+    protected void tearDown() throws Exception {
+        context1.close();
+        context2.close();
+        channels1[0].close();
+        channels2[0].close();
+        executor.shutdown();
+    }
+
+    private static void awaitValue(final RemoteContext context, final String name, final Object expected) throws NamingException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (! expected.equals(context.lookup(name))) {
+            assertTrue("Timed out waiting for " + name + " to become " + expected, System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    public void testChangeByOtherClientIsInvalidated() throws Exception {
+        assertEquals("va", context1.lookup("a"));
+        context2.rebind("a", "va2");
+        awaitValue(context1, "a", "va2");
+    }
+
+    public void testReportedChangeIsInvalidated() throws Exception {
+        assertEquals("va", context1.lookup("a"));
+        assertEquals("vb", context2.lookup("b"));
+        localContext.rebind("a", "va2");
+        localContext.rebind("b", "vb2");
+        // still cached
+        assertEquals("va", context1.lookup("a"));
+        server.invalidate(new CompositeName());
+        awaitValue(context1, "a", "va2");
+        awaitValue(context2, "b", "vb2");
+    }
+
+    public void testEventIsDelivered() throws Exception {
+        final Listener listener = new Listener();
+        context1.addNamingListener("a", EventContext.OBJECT_SCOPE, listener);
+        assertEquals(1, localContext.getListenerCount());
+        // not covered by the subscription, so never sent
+        context2.rebind("b", "vb2");
+        context2.rebind("a", "va2");
+        final NamingEvent event = listener.take();
+        assertEquals(NamingEvent.OBJECT_CHANGED, event.getType());
+        assertEquals("a", event.getNewBinding().getName());
+        assertEquals("va2", event.getNewBinding().getObject());
+        assertEquals("va", event.getOldBinding().getObject());
+        localContext.unbind("a");
+        final NamingEvent removed = listener.take();
+        assertEquals(NamingEvent.OBJECT_REMOVED, removed.getType());
+        assertEquals("a", removed.getOldBinding().getName());
+        assertNull(removed.getNewBinding());
+        assertTrue(listener.events.isEmpty());
+    }
+
+    public void testSubtreeEvents() throws Exception {
+        localContext.createSubcontext("sub");
+        final Listener listener = new Listener();
+        context1.addNamingListener("sub", EventContext.SUBTREE_SCOPE, listener);
+        context2.bind("sub/x", "vx");
+        final NamingEvent event = listener.take();
+        assertEquals(NamingEvent.OBJECT_ADDED, event.getType());
+        assertEquals("sub/x", event.getNewBinding().getName());
+        assertEquals("vx", event.getNewBinding().getObject());
+    }
+
+    public void testRemovedListenerUnregisters() throws Exception {
+        final Listener listener1 = new Listener();
+        final Listener listener2 = new Listener();
+        context1.addNamingListener("a", EventContext.OBJECT_SCOPE, listener1);
+        context1.addNamingListener("b", EventContext.OBJECT_SCOPE, listener2);
+        // one registration per channel
+        assertEquals(1, localContext.getListenerCount());
+        context1.removeNamingListener(listener1);
+        context1.removeNamingListener(listener2);
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (localContext.getListenerCount() != 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    public void testClosedChannelUnregisters() throws Exception {
+        context1.addNamingListener("a", EventContext.OBJECT_SCOPE, new Listener());
+        assertEquals(1, localContext.getListenerCount());
+        channels1[0].close();
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (localContext.getListenerCount() != 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    public void testListenerRefusedWithoutEventContext() throws Exception {
+        final NamingServer plainServer = new NamingServer(new MapContext(), executor);
+        final LoopbackChannel[] channels = LoopbackChannel.createPair();
+        plainServer.channelOpened(channels[1]);
+        final NamingClient client = new NamingClient(channels[0], Marshalling.getProvidedMarshallerFactory("river"));
+        client.start();
+        final RemoteContext context = new RemoteContext(client);
+        try {
+            context.addNamingListener("a", EventContext.OBJECT_SCOPE, new Listener());
+            fail("Expected an exception");
+        } catch (NamingException expected) {
+        }
+        context.close();
+        channels[0].close();
+    }
+
+    public void testOpenListingsAreBounded() throws Exception {
+        // with one entry to a page, a listing of three stays open while its second page is prefetched
+        localContext.bind("c", "vc");
+        final List<NamingEnumeration<NameClassPair>> listings = new ArrayList<NamingEnumeration<NameClassPair>>();
+        for (int i = 0; i < NamingServer.MAX_CURSORS; i ++) {
+            listings.add(context1.list(""));
+        }
+        try {
+            context1.list("");
+            fail("Expected an exception");
+        } catch (NamingException expected) {
+            assertTrue(expected.getRootCause() instanceof LimitExceededException);
+        }
+        // other channels have listings of their own
+        context2.list("").close();
+        // a listing read to the end closes itself, and one closed early is closed on the server
+        final NamingEnumeration<NameClassPair> first = listings.get(0);
+        int count = 0;
+        while (first.hasMore()) {
+            first.next();
+            count ++;
+        }
+        assertEquals(3, count);
+        listings.get(1).close();
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        int opened = 0;
+        while (opened < 2) {
+            try {
+                listings.add(context1.list(""));
+                opened ++;
+            } catch (NamingException e) {
+                assertTrue(e.getRootCause() instanceof LimitExceededException);
+                assertTrue("Timed out waiting for listings to close", System.currentTimeMillis() < deadline);
+                Thread.sleep(10L);
+            }
+        }
+        for (NamingEnumeration<NameClassPair> listing : listings) {
+            listing.close();
+        }
+    }
+
+    static final class Listener implements NamespaceChangeListener, ObjectChangeListener {
+        final BlockingQueue<NamingEvent> events = new LinkedBlockingQueue<NamingEvent>();
+
+        NamingEvent take() throws InterruptedException {
+            final NamingEvent event = events.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            assertNotNull("Timed out waiting for an event", event);
+            return event;
+        }
+
+        public void objectAdded(final NamingEvent evt) {
+            events.add(evt);
+        }
+
+        public void objectRemoved(final NamingEvent evt) {
+            events.add(evt);
+        }
+
+        public void objectRenamed(final NamingEvent evt) {
+            events.add(evt);
+        }
+
+        public void objectChanged(final NamingEvent evt) {
+            events.add(evt);
+        }
+
+        public void namingExceptionThrown(final NamingExceptionEvent evt) {
+        }
+    }
+}
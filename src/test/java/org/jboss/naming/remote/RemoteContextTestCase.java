@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import junit.framework.TestCase;
+import org.jboss.marshalling.Marshalling;
+
+/**
+ * Tests of {@link RemoteContext} against a {@link NamingServer} over an in-memory channel.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class RemoteContextTestCase extends TestCase {
+
+    private ExecutorService executor;
+    private MapContext localContext;
+    private NamingServer server;
+    private LoopbackChannel[] channels;
+    private NamingClient client;
+    private RemoteContext context;
+
+    protected void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        localContext = new MapContext();
+        localContext.createSubcontext("sub").bind("x", "vx");
+        localContext.bind("a", "va");
+        server = new NamingServer(localContext, executor);
+        channels = LoopbackChannel.createPair();
+        server.channelOpened(channels[1]);
+        client = new NamingClient(channels[0], Marshalling.getProvidedMarshallerFactory("river"));
+        client.start();
+        final Hashtable<Object, Object> environment = new Hashtable<Object, Object>();
+        environment.put(RemoteContext.LOOKUP_CACHE_TTL, "60000");
+        context = new RemoteContext(new CompositeName(), environment, client);
+    }
+
+    protected void tearDown() throws Exception {
+        context.close();
+        channels[0].close();
+        executor.shutdown();
+    }
+
+    public void testLookup() throws NamingException {
+        assertEquals("va", context.lookup("a"));
+        assertEquals("va", context.lookup(new CompositeName("a")));
+        assertEquals("vx", context.lookup("sub/x"));
+    }
+
+    public void testClosedContextIsNotReturnedAgain() throws NamingException {
+        final Context first = (Context) context.lookup("sub");
+        assertEquals("vx", first.lookup("x"));
+        first.close();
+        final Context second = (Context) context.lookup("sub");
+        assertNotSame(first, second);
+        assertEquals("vx", second.lookup("x"));
+        second.close();
+    }
+
+    public void testClosedContextIsNotReturnedAgainAsync() throws NamingException {
+        final Context first = (Context) context.lookupAsync("sub").getResult();
+        first.close();
+        final Context second = (Context) context.lookupAsync("sub").getResult();
+        assertNotSame(first, second);
+        assertEquals("vx", second.lookup("x"));
+        second.close();
+    }
+
+    public void testClosedContextIsNotReturnedAgainFromBatch() throws NamingException {
+        final List<NamingFuture<Object>> first = context.lookupAll(Arrays.asList("sub", "a"));
+        ((Context) first.get(0).getResult()).close();
+        assertEquals("va", first.get(1).getResult());
+        final List<NamingFuture<Object>> second = context.lookupAll(Arrays.asList("sub", "a"));
+        final Context sub = (Context) second.get(0).getResult();
+        assertEquals("vx", sub.lookup("x"));
+        assertEquals("va", second.get(1).getResult());
+        sub.close();
+    }
+}
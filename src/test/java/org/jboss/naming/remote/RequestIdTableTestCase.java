@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.naming.remote;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link RequestIdTable}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class RequestIdTableTestCase extends TestCase {
+
+    private static ResultHolder<Object> holder() {
+        return new ResultHolder<Object>(Object.class, null);
+    }
+
+    public void testAllocateAndGet() {
+        final RequestIdTable table = new RequestIdTable();
+        final ResultHolder<Object> holder = holder();
+        final int id = table.allocate(holder);
+        assertTrue(id >= 0);
+        assertTrue(id < table.getCapacity());
+        assertSame(holder, table.get(id));
+        assertSame(holder, table.release(id));
+        assertNull(table.get(id));
+        assertNull(table.release(id));
+    }
+
+    public void testOutOfRangeIds() {
+        final RequestIdTable table = new RequestIdTable();
+        assertNull(table.get(-1));
+        assertNull(table.release(-1));
+        assertNull(table.get(Protocol.MAX_REQUEST_ID + 1));
+        assertNull(table.release(Protocol.MAX_REQUEST_ID + 1));
+        assertFalse(table.release(Protocol.MAX_REQUEST_ID + 1, holder()));
+    }
+
+    public void testReleaseOnlyMatchingHolder() {
+        final RequestIdTable table = new RequestIdTable();
+        final ResultHolder<Object> holder = holder();
+        final int id = table.allocate(holder);
+        assertFalse(table.release(id, holder()));
+        assertSame(holder, table.get(id));
+        assertTrue(table.release(id, holder));
+        assertFalse(table.release(id, holder));
+        assertNull(table.get(id));
+    }
+
+    public void testExhaustionAndReuse() {
+        final RequestIdTable table = new RequestIdTable();
+        final ResultHolder<Object> holder = holder();
+        final Set<Integer> ids = new HashSet<Integer>();
+        for (int i = 0; i <= Protocol.MAX_REQUEST_ID; i ++) {
+            final int id = table.allocate(holder);
+            assertTrue(id >= 0 && id <= Protocol.MAX_REQUEST_ID);
+            assertTrue("Duplicate ID " + id, ids.add(Integer.valueOf(id)));
+        }
+        assertEquals(Protocol.MAX_REQUEST_ID + 1, table.getCapacity());
+        assertEquals(-1, table.allocate(holder));
+        assertSame(holder, table.release(1234));
+        final ResultHolder<Object> other = holder();
+        assertEquals(1234, table.allocate(other));
+        assertSame(other, table.get(1234));
+        assertEquals(-1, table.allocate(holder));
+    }
+
+    public void testCapacityGrowsOnDemand() {
+        final RequestIdTable table = new RequestIdTable();
+        final int initial = table.getCapacity();
+        final ResultHolder<Object> holder = holder();
+        for (int i = 0; i < initial; i ++) {
+            assertTrue(table.allocate(holder) >= 0);
+        }
+        assertEquals(initial, table.getCapacity());
+        final int id = table.allocate(holder);
+        assertTrue(id >= initial);
+        assertTrue(table.getCapacity() > initial);
+    }
+}